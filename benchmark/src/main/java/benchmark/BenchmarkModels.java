@@ -0,0 +1,108 @@
+package benchmark;
+
+import com.google.common.io.ByteStreams;
+import domain.ModelInputFields;
+import org.pmw.tinylog.Configurator;
+import org.pmw.tinylog.Level;
+import org.rapidoid.env.Env;
+import org.rapidoid.io.Upload;
+import org.rapidoid.ioc.IoC;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sample models bundled with the benchmarks and iris inputs to score them with.
+ * All models share the iris input fields, so the same inputs can be used for each of them.
+ */
+final class BenchmarkModels
+{
+    static final String TREE = "tree";
+    static final String REGRESSION = "regression";
+    static final String RANDOM_FOREST = "random-forest";
+    static final String NEURAL_NETWORK = "neural-network";
+
+    private static final double[][] IRIS_ROWS = {
+            {5.1, 3.5, 1.4, 0.2},
+            {4.9, 3.0, 1.4, 0.2},
+            {7.0, 3.2, 4.7, 1.4},
+            {6.4, 3.2, 4.5, 1.5},
+            {6.3, 3.3, 6.0, 2.5},
+            {5.8, 2.7, 5.1, 1.9},
+            {5.7, 2.8, 4.1, 1.3},
+            {6.5, 3.0, 5.2, 2.0}
+    };
+
+    private static final List<String> IRIS_FIELDS = Arrays.asList("sepal_length", "sepal_width", "petal_length", "petal_width");
+
+    private BenchmarkModels()
+    {
+    }
+
+    /**
+     * Returns the service wired by the IoC container of Rapidoid, the same way the server does it.
+     */
+    static <T> T service(Class<T> serviceClass)
+    {
+        T service = IoC.singleton(serviceClass);
+        IoC.ready();
+        return service;
+    }
+
+    /**
+     * Sets configuration keys as on the command line of the server, e.g. {@code scorer.deploy.deduplicate=false}.
+     * Must be called before the first service is created.
+     */
+    static void configure(String... args)
+    {
+        Env.setArgs(args);
+    }
+
+    static void disableLogging()
+    {
+        Configurator.currentConfig().level(Level.OFF).activate();
+    }
+
+    static byte[] load(String model)
+    {
+        try (InputStream inputStream = BenchmarkModels.class.getResourceAsStream("/models/" + model + ".xml"))
+        {
+            if (inputStream == null)
+            {
+                throw new IllegalArgumentException("Unknown benchmark model: " + model);
+            }
+            return ByteStreams.toByteArray(inputStream);
+        } catch (IOException e)
+        {
+            throw new IllegalStateException("Benchmark model could not be read: " + model, e);
+        }
+    }
+
+    static Upload upload(String model)
+    {
+        return new Upload(model + ".xml", load(model));
+    }
+
+    static ModelInputFields[] irisInputs()
+    {
+        ModelInputFields[] inputs = new ModelInputFields[IRIS_ROWS.length];
+
+        for (int i = 0; i < IRIS_ROWS.length; i++)
+        {
+            Map<String, Object> fields = new LinkedHashMap<>();
+
+            for (int j = 0; j < IRIS_FIELDS.size(); j++)
+            {
+                fields.put(IRIS_FIELDS.get(j), IRIS_ROWS[i][j]);
+            }
+
+            inputs[i] = new ModelInputFields();
+            inputs[i].setFields(fields);
+        }
+        return inputs;
+    }
+}
@@ -0,0 +1,68 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rapidoid.io.Upload;
+import service.impl.ModelService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deploys a small decision tree and a large random forest through {@link ModelService#deploy}, which includes
+ * unmarshalling, verification and registration of the model.
+ * Every iteration deploys the same content, so with deduplication it measures the path where the evaluator of the
+ * identical active version is reused instead of parsing the model. Without deduplication every deploy is parsed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeployBenchmark
+{
+    private static final String MODEL_ID = "deploy-benchmark";
+
+    @Param({"small", "large"})
+    public String size;
+
+    @Param({"false", "true"})
+    public boolean deduplicate;
+
+    private ModelService modelService;
+
+    private Upload upload;
+
+    @Setup(Level.Trial)
+    public void prepare()
+    {
+        BenchmarkModels.disableLogging();
+        BenchmarkModels.configure("scorer.deploy.deduplicate=" + deduplicate);
+
+        modelService = BenchmarkModels.service(ModelService.class);
+        upload = BenchmarkModels.upload("small".equals(size) ? BenchmarkModels.TREE : BenchmarkModels.RANDOM_FOREST);
+    }
+
+    @TearDown(Level.Trial)
+    public void undeploy()
+    {
+        modelService.undeployAll();
+    }
+
+    @Benchmark
+    public void deploy()
+    {
+        modelService.deploy(MODEL_ID, upload, null, null);
+    }
+}
@@ -0,0 +1,96 @@
+package benchmark;
+
+import domain.DetailedModelContent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import service.impl.ModelHolderService;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and replaces models of a registry holding as many models as the published benchmark while other threads do
+ * the same, so that contention on {@link ModelHolderService} shows up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelHolderBenchmark
+{
+    @Param({"6000"})
+    public int modelCount;
+
+    private ModelHolderService modelHolderService;
+
+    private String[] modelIds;
+
+    private DetailedModelContent content;
+
+    @Setup(Level.Trial)
+    public void populate()
+    {
+        BenchmarkModels.disableLogging();
+
+        modelHolderService = BenchmarkModels.service(ModelHolderService.class);
+        modelIds = new String[modelCount];
+        content = new DetailedModelContent();
+
+        for (int i = 0; i < modelCount; i++)
+        {
+            modelIds[i] = String.valueOf(100000 + i);
+            modelHolderService.put(modelIds[i], content);
+        }
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(3)
+    public DetailedModelContent readMostlyGet()
+    {
+        return modelHolderService.get(randomModelId());
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(1)
+    public void readMostlyPut()
+    {
+        modelHolderService.put(randomModelId(), content);
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(2)
+    public DetailedModelContent writeHeavyGet()
+    {
+        return modelHolderService.get(randomModelId());
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(2)
+    public void writeHeavyPut()
+    {
+        modelHolderService.put(randomModelId(), content);
+    }
+
+    private String randomModelId()
+    {
+        return modelIds[ThreadLocalRandom.current().nextInt(modelIds.length)];
+    }
+}
@@ -0,0 +1,95 @@
+package benchmark;
+
+import domain.ModelInputFields;
+import domain.Response;
+import domain.ScoringResponseWriter;
+import domain.ScoringResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rapidoid.data.JSON;
+import service.impl.ModelHolderService;
+import service.impl.ModelService;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the json response of a scoring request for each bundled model type, once through the json mapper of
+ * Rapidoid as {@code resp.json} does and once through the {@link ScoringResponseWriter} of the model.
+ * The results are scored in the setup, so only the serialization is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseWriterBenchmark
+{
+    @Param({BenchmarkModels.TREE, BenchmarkModels.REGRESSION, BenchmarkModels.RANDOM_FOREST, BenchmarkModels.NEURAL_NETWORK})
+    public String model;
+
+    private ModelService modelService;
+
+    private ScoringResponseWriter responseWriter;
+
+    private Map<String, Object>[] results;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void deploy()
+    {
+        BenchmarkModels.disableLogging();
+
+        modelService = BenchmarkModels.service(ModelService.class);
+        modelService.deploy(model, BenchmarkModels.upload(model), null, null);
+
+        responseWriter = BenchmarkModels.service(ModelHolderService.class).get(model).getBindingPlan().getResponseWriter();
+
+        ModelInputFields[] inputs = BenchmarkModels.irisInputs();
+        results = new Map[inputs.length];
+
+        for (int i = 0; i < inputs.length; i++)
+        {
+            results[i] = modelService.score(model, inputs[i]).getResult();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void undeploy()
+    {
+        modelService.undeployAll();
+    }
+
+    @Benchmark
+    public byte[] mapper()
+    {
+        return JSON.stringifyToBytes(new Response(new ScoringResult(nextResult())));
+    }
+
+    @Benchmark
+    public byte[] writer()
+    {
+        return responseWriter.write(nextResult());
+    }
+
+    private Map<String, Object> nextResult()
+    {
+        Map<String, Object> result = results[next];
+        next = (next + 1) % results.length;
+        return result;
+    }
+}
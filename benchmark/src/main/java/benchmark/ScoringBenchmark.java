@@ -0,0 +1,93 @@
+package benchmark;
+
+import domain.ModelInputFields;
+import domain.ScoringResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rapidoid.data.JSON;
+import service.impl.ModelService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scores each bundled model type through {@link ModelService#score} with bound input fields, and through
+ * {@link ModelService#scoreAsJson} with request bodies, the same path as POST /model/{modelId}/score without the
+ * HTTP layer.
+ * The engine parameter scores with JPMML-Evaluator, with models compiled to bytecode, or with tree models flattened
+ * to arrays. Models which the engine does not support are scored by JPMML-Evaluator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoringBenchmark
+{
+    @Param({BenchmarkModels.TREE, BenchmarkModels.REGRESSION, BenchmarkModels.RANDOM_FOREST, BenchmarkModels.NEURAL_NETWORK})
+    public String model;
+
+    @Param({"interpreted", "compiled", "flattened"})
+    public String engine;
+
+    private ModelService modelService;
+
+    private ModelInputFields[] inputs;
+
+    private byte[][] bodies;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void deploy()
+    {
+        BenchmarkModels.disableLogging();
+        BenchmarkModels.configure("scorer.engine.compile=" + "compiled".equals(engine), "scorer.engine.flatten=" + "flattened".equals(engine));
+
+        modelService = BenchmarkModels.service(ModelService.class);
+        modelService.deploy(model, BenchmarkModels.upload(model), null, null);
+
+        inputs = BenchmarkModels.irisInputs();
+        bodies = new byte[inputs.length][];
+
+        for (int i = 0; i < inputs.length; i++)
+        {
+            bodies[i] = JSON.stringifyToBytes(inputs[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void undeploy()
+    {
+        modelService.undeployAll();
+    }
+
+    @Benchmark
+    public ScoringResult score()
+    {
+        ModelInputFields input = inputs[next];
+        next = (next + 1) % inputs.length;
+
+        return modelService.score(model, input);
+    }
+
+    @Benchmark
+    public byte[] scoreJson()
+    {
+        byte[] body = bodies[next];
+        next = (next + 1) % bodies.length;
+
+        return modelService.scoreAsJson(model, body, 0);
+    }
+}
@@ -0,0 +1,66 @@
+package benchmark.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram and error count of a single endpoint. Recording is safe from many threads at once.
+ */
+class EndpointStatistics
+{
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final String endpoint;
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_NANOS, 3);
+    private final Histogram histogram = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+    private final LongAdder errors = new LongAdder();
+
+    EndpointStatistics(String endpoint)
+    {
+        this.endpoint = endpoint;
+    }
+
+    void record(long startNanos, int status)
+    {
+        recorder.recordValue(Math.min(System.nanoTime() - startNanos, HIGHEST_TRACKABLE_NANOS));
+
+        if (status >= 400)
+        {
+            errors.increment();
+        }
+    }
+
+    void recordError()
+    {
+        errors.increment();
+    }
+
+    void print(PrintStream out, long elapsedNanos)
+    {
+        histogram.add(recorder.getIntervalHistogram());
+
+        long count = histogram.getTotalCount();
+        double seconds = elapsedNanos / 1e9;
+
+        out.printf("%-10s %10d %8d %12.1f %10.3f %10.3f %10.3f %10.3f %12.2f%n",
+                endpoint, count, errors.sum(), count / seconds,
+                millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(99)),
+                millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getMaxValue()),
+                histogram.getMean() * count / 1e9);
+    }
+
+    static void printHeader(PrintStream out)
+    {
+        out.printf("%-10s %10s %8s %12s %10s %10s %10s %10s %12s%n",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "total s");
+    }
+
+    private static double millis(long nanos)
+    {
+        return nanos / 1e6;
+    }
+}
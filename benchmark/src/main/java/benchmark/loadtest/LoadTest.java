@@ -0,0 +1,253 @@
+package benchmark.loadtest;
+
+import com.google.common.io.ByteStreams;
+import exception.handler.LightingScorerExceptionHandler;
+import org.pmw.tinylog.Configurator;
+import org.pmw.tinylog.Level;
+import org.rapidoid.log.Log;
+import org.rapidoid.setup.App;
+import org.rapidoid.setup.My;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end load test which starts LightningScorer in-process and calls its REST endpoints over localhost.
+ * <p>
+ * The sequential workload reproduces the published benchmark: models are deployed, scored and undeployed one after
+ * the other for a number of cycles. The mixed workload scores deployed models from several threads while other
+ * threads keep redeploying them. Both report throughput and latency percentiles per endpoint.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar benchmark.loadtest.LoadTest [key=value ...]} with the keys
+ * workload (sequential, mixed or all), models, cycles, port, scoreThreads, deployThreads, durationSeconds and model
+ * (one of the models bundled with the benchmark module).
+ */
+public class LoadTest
+{
+    private static final String HOST = "127.0.0.1";
+    private static final String SCORE_BODY = "{\"fields\": {\"sepal_length\": 5.1, \"sepal_width\": 3.5, \"petal_length\": 1.4, \"petal_width\": 0.2}}";
+    private static final long STARTUP_TIMEOUT_MILLIS = 60000;
+
+    private final Map<String, String> options;
+    private final LoadTestClient client;
+    private final PrintStream out = System.out;
+    private final byte[] model;
+    private final String modelFilename;
+
+    private LoadTest(Map<String, String> options) throws IOException
+    {
+        this.options = options;
+        this.client = new LoadTestClient(HOST, intOption("port", 8090));
+        this.modelFilename = options.getOrDefault("model", "tree") + ".xml";
+        this.model = loadModel(modelFilename);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+
+        for (String arg : args)
+        {
+            String[] keyValue = arg.split("=", 2);
+            options.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "true");
+        }
+
+        LoadTest loadTest = new LoadTest(options);
+        loadTest.startServer();
+
+        String workload = options.getOrDefault("workload", "all");
+
+        if (workload.equals("sequential") || workload.equals("all"))
+        {
+            loadTest.runSequential();
+        }
+
+        if (workload.equals("mixed") || workload.equals("all"))
+        {
+            loadTest.runMixed();
+        }
+
+        App.shutdown();
+        System.exit(0);
+    }
+
+    private void startServer() throws InterruptedException
+    {
+        Configurator.currentConfig().level(Level.OFF).activate();
+        Log.setLogLevel(Log.LEVEL_ERROR);
+
+        App.path("controller", "service", "domain", "exception");
+        App.bootstrap(new String[]{"on.address=" + HOST, "on.port=" + intOption("port", 8090)});
+        My.error(Throwable.class).handler(new LightingScorerExceptionHandler());
+
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+
+        while (System.currentTimeMillis() < deadline)
+        {
+            try
+            {
+                if (client.get("/") == 200)
+                {
+                    return;
+                }
+            } catch (IOException e)
+            {
+                // server is not listening yet
+            }
+            Thread.sleep(100);
+        }
+
+        throw new IllegalStateException("LightningScorer did not start in time");
+    }
+
+    private void runSequential() throws IOException
+    {
+        int models = intOption("models", 6000);
+        int cycles = intOption("cycles", 10);
+
+        EndpointStatistics deploy = new EndpointStatistics("deploy");
+        EndpointStatistics score = new EndpointStatistics("score");
+        EndpointStatistics undeploy = new EndpointStatistics("undeploy");
+
+        long start = System.nanoTime();
+
+        for (int cycle = 0; cycle < cycles; cycle++)
+        {
+            for (int i = 0; i < models; i++)
+            {
+                long requestStart = System.nanoTime();
+                deploy.record(requestStart, client.postModel("/model/" + modelId(i), modelFilename, model));
+            }
+
+            for (int i = 0; i < models; i++)
+            {
+                long requestStart = System.nanoTime();
+                score.record(requestStart, client.postJson("/model/" + modelId(i) + "/score", SCORE_BODY));
+            }
+
+            for (int i = 0; i < models; i++)
+            {
+                long requestStart = System.nanoTime();
+                undeploy.record(requestStart, client.delete("/model/" + modelId(i)));
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        out.printf("%nSequential workload: %d models, %d cycles, model %s, %.1f s%n", models, cycles, modelFilename, elapsed / 1e9);
+        EndpointStatistics.printHeader(out);
+        deploy.print(out, elapsed);
+        score.print(out, elapsed);
+        undeploy.print(out, elapsed);
+    }
+
+    private void runMixed() throws Exception
+    {
+        int models = intOption("models", 6000);
+        int scoreThreads = intOption("scoreThreads", Runtime.getRuntime().availableProcessors());
+        int deployThreads = intOption("deployThreads", 1);
+        long durationNanos = TimeUnit.SECONDS.toNanos(intOption("durationSeconds", 60));
+
+        for (int i = 0; i < models; i++)
+        {
+            client.postModel("/model/" + modelId(i), modelFilename, model);
+        }
+
+        EndpointStatistics deploy = new EndpointStatistics("deploy");
+        EndpointStatistics score = new EndpointStatistics("score");
+
+        ExecutorService workers = Executors.newFixedThreadPool(scoreThreads + deployThreads);
+        List<Future<?>> futures = new ArrayList<>();
+
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+
+        for (int i = 0; i < scoreThreads; i++)
+        {
+            futures.add(workers.submit(() -> {
+                while (System.nanoTime() < end)
+                {
+                    String path = "/model/" + modelId(ThreadLocalRandom.current().nextInt(models)) + "/score";
+                    long requestStart = System.nanoTime();
+
+                    try
+                    {
+                        score.record(requestStart, client.postJson(path, SCORE_BODY));
+                    } catch (IOException e)
+                    {
+                        score.recordError();
+                    }
+                }
+            }));
+        }
+
+        for (int i = 0; i < deployThreads; i++)
+        {
+            futures.add(workers.submit(() -> {
+                while (System.nanoTime() < end)
+                {
+                    String path = "/model/" + modelId(ThreadLocalRandom.current().nextInt(models));
+                    long requestStart = System.nanoTime();
+
+                    try
+                    {
+                        deploy.record(requestStart, client.postModel(path, modelFilename, model));
+                    } catch (IOException e)
+                    {
+                        deploy.recordError();
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> future : futures)
+        {
+            future.get();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        workers.shutdown();
+
+        client.delete("/model");
+
+        out.printf("%nMixed workload: %d models, %d score threads, %d deploy threads, model %s, %.1f s%n",
+                models, scoreThreads, deployThreads, modelFilename, elapsed / 1e9);
+        EndpointStatistics.printHeader(out);
+        deploy.print(out, elapsed);
+        score.print(out, elapsed);
+    }
+
+    private int intOption(String key, int defaultValue)
+    {
+        String value = options.get(key);
+
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static String modelId(int index)
+    {
+        return String.valueOf(100000 + index);
+    }
+
+    private static byte[] loadModel(String filename) throws IOException
+    {
+        try (InputStream inputStream = LoadTest.class.getResourceAsStream("/models/" + filename))
+        {
+            if (inputStream == null)
+            {
+                throw new IllegalArgumentException("Unknown model: " + filename);
+            }
+            return ByteStreams.toByteArray(inputStream);
+        }
+    }
+}
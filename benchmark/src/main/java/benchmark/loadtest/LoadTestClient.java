@@ -0,0 +1,88 @@
+package benchmark.loadtest;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal HTTP client for the REST endpoints of LightningScorer.
+ * It relies on the keep-alive connection pool of {@link HttpURLConnection}, so connections are reused between calls.
+ */
+class LoadTestClient
+{
+    private static final String BOUNDARY = "----lightningscorer-load-test";
+
+    private final String baseUrl;
+
+    LoadTestClient(String host, int port)
+    {
+        this.baseUrl = "http://" + host + ":" + port;
+    }
+
+    int get(String path) throws IOException
+    {
+        return call("GET", path, null, null);
+    }
+
+    int delete(String path) throws IOException
+    {
+        return call("DELETE", path, null, null);
+    }
+
+    int postJson(String path, String json) throws IOException
+    {
+        return call("POST", path, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    int postModel(String path, String filename, byte[] model) throws IOException
+    {
+        byte[] head = ("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"model\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: application/xml\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8);
+
+        byte[] body = new byte[head.length + model.length + tail.length];
+        System.arraycopy(head, 0, body, 0, head.length);
+        System.arraycopy(model, 0, body, head.length, model.length);
+        System.arraycopy(tail, 0, body, head.length + model.length, tail.length);
+
+        return call("POST", path, "multipart/form-data; boundary=" + BOUNDARY, body);
+    }
+
+    private int call(String method, String path, String contentType, byte[] body) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+
+        if (body != null)
+        {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", contentType);
+            connection.setFixedLengthStreamingMode(body.length);
+
+            try (OutputStream outputStream = connection.getOutputStream())
+            {
+                outputStream.write(body);
+            }
+        }
+
+        int status = connection.getResponseCode();
+
+        InputStream response = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+
+        if (response != null)
+        {
+            try (InputStream inputStream = response)
+            {
+                ByteStreams.exhaust(inputStream);
+            }
+        }
+
+        return status;
+    }
+}
@@ -1,11 +1,19 @@
+import cli.BatchScoringCommand;
 import exception.handler.LightingScorerExceptionHandler;
 import org.rapidoid.setup.App;
 import org.rapidoid.setup.My;
 
+import java.util.Arrays;
+
 public class LightningScorer
 {
     public static void main(String[] args)
     {
+        if (args.length > 0 && args[0].equals(BatchScoringCommand.NAME))
+        {
+            System.exit(BatchScoringCommand.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+
         App.bootstrap(args);
         My.error(Throwable.class).handler(new LightingScorerExceptionHandler());
     }
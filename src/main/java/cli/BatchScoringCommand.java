@@ -0,0 +1,481 @@
+package cli;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import domain.CsvRecords;
+import domain.ModelInputFields;
+import domain.RecordScoringResult;
+import exception.ScoringException;
+import org.pmw.tinylog.Logger;
+import org.rapidoid.env.Env;
+import org.rapidoid.io.Upload;
+import org.rapidoid.ioc.IoC;
+import service.impl.ModelHolderService;
+import service.impl.ModelService;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Scores a local csv or newline delimited json file with one or more PMML models through {@link ModelService}, the
+ * same path the REST service scores with, and writes the results to a file in the same format.
+ * The input is memory-mapped and cut into partitions at line breaks, which are scored in parallel into temporary
+ * files and joined in input order. Records must therefore not contain line breaks.
+ * <p>
+ * Arguments: {@code batch model=<pmml file> [model=<pmml file> ...] input=<file> output=<file> [format=csv|ndjson]
+ * [threads=<count>]}. Model ids are the file names without extension. Arguments with a dot, such as
+ * {@code scorer.cache.enabled=true}, are passed to the configuration.
+ */
+public class BatchScoringCommand
+{
+    public static final String NAME = "batch";
+
+    private static final long MAX_PARTITION_BYTES = 1L << 30;
+    private static final int OUTPUT_BUFFER_BYTES = 1 << 20;
+
+    private final List<Path> modelFiles = new ArrayList<>();
+    private final List<String> configurationArgs = new ArrayList<>();
+    private Path inputFile;
+    private Path outputFile;
+    private boolean csv;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private ModelService modelService;
+    private final Map<String, String[]> modelIdToTargetFieldKeysMap = new LinkedHashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Runs the command and returns the exit status of the process.
+     */
+    public static int run(String[] args)
+    {
+        BatchScoringCommand command = new BatchScoringCommand();
+
+        try
+        {
+            command.parseArguments(args);
+        } catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: batch model=<pmml file> [model=<pmml file> ...] input=<file> output=<file> [format=csv|ndjson] [threads=<count>]");
+            return 1;
+        }
+
+        try
+        {
+            command.execute();
+            return 0;
+        } catch (Exception e)
+        {
+            Logger.error(e, "Batch scoring of [{}] failed", command.inputFile);
+            return 1;
+        }
+    }
+
+    private void parseArguments(String[] args)
+    {
+        String format = null;
+
+        for (String arg : args)
+        {
+            int separator = arg.indexOf('=');
+
+            if (separator < 0)
+            {
+                throw new IllegalArgumentException("Argument is not in key=value format: " + arg);
+            }
+
+            String key = arg.substring(0, separator);
+            String value = arg.substring(separator + 1);
+
+            switch (key)
+            {
+                case "model":
+                    modelFiles.add(Paths.get(value));
+                    break;
+                case "input":
+                    inputFile = Paths.get(value);
+                    break;
+                case "output":
+                    outputFile = Paths.get(value);
+                    break;
+                case "format":
+                    format = value.toLowerCase();
+                    break;
+                case "threads":
+                    threads = Math.max(1, Integer.parseInt(value));
+                    break;
+                default:
+                    if (!key.contains("."))
+                    {
+                        throw new IllegalArgumentException("Unknown argument: " + key);
+                    }
+                    configurationArgs.add(arg);
+            }
+        }
+
+        if (modelFiles.isEmpty() || inputFile == null || outputFile == null)
+        {
+            throw new IllegalArgumentException("At least one model, the input and the output are required");
+        }
+
+        csv = format == null ? inputFile.getFileName().toString().toLowerCase().endsWith(".csv") : format.equals("csv");
+    }
+
+    private void execute() throws Exception
+    {
+        List<String> args = new ArrayList<>();
+        args.add("scorer.store.enabled=false");
+        args.addAll(configurationArgs);
+        Env.setArgs(args.toArray(new String[0]));
+
+        modelService = IoC.singleton(ModelService.class);
+        ModelHolderService modelHolderService = IoC.singleton(ModelHolderService.class);
+        IoC.ready();
+
+        objectMapper.getFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        for (Path modelFile : modelFiles)
+        {
+            String fileName = modelFile.getFileName().toString();
+            String modelId = fileName.contains(".") ? fileName.substring(0, fileName.lastIndexOf('.')) : fileName;
+
+            modelService.deploy(modelId, new Upload(fileName, Files.readAllBytes(modelFile)), null, Collections.emptyMap());
+            modelIdToTargetFieldKeysMap.put(modelId, modelHolderService.get(modelId).getBindingPlan().getTargetFieldKeys());
+        }
+
+        long start = System.nanoTime();
+        long recordCount;
+
+        try (FileChannel input = FileChannel.open(inputFile, StandardOpenOption.READ))
+        {
+            recordCount = score(input);
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Logger.info("Scored [{}] records of [{}] with [{}] models in [{}] s, [{}] records/s", recordCount, inputFile,
+                modelIdToTargetFieldKeysMap.size(), String.format("%.2f", seconds), Math.round(recordCount / Math.max(seconds, 1e-9)));
+    }
+
+    private long score(FileChannel input) throws IOException, InterruptedException, ExecutionException
+    {
+        long size = input.size();
+        long dataStart = 0;
+        String[] header = null;
+
+        if (csv)
+        {
+            MappedByteBuffer headerBuffer = input.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAX_PARTITION_BYTES));
+            LineBuffer headerLine = new LineBuffer();
+
+            if (nextRecord(headerBuffer, headerLine, true) == null)
+            {
+                throw new IllegalArgumentException("Csv input has no header");
+            }
+            header = CsvRecords.parse(headerLine.bytes, 0, headerLine.length).toArray(new String[0]);
+            dataStart = headerBuffer.position();
+        }
+
+        List<long[]> partitions = partition(input, dataStart, size);
+        List<Path> partitionFiles = new ArrayList<>(partitions.size());
+        List<Future<Long>> scorings = new ArrayList<>(partitions.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        String[] csvHeader = header;
+
+        try
+        {
+            for (long[] partition : partitions)
+            {
+                Path partitionFile = Files.createTempFile(outputFile.toAbsolutePath().getParent(), "partition-", ".tmp");
+                partitionFiles.add(partitionFile);
+                scorings.add(executor.submit(() -> scorePartition(input.map(FileChannel.MapMode.READ_ONLY, partition[0], partition[1] - partition[0]),
+                        csvHeader, partitionFile)));
+            }
+
+            long recordCount = 0;
+
+            for (Future<Long> scoring : scorings)
+            {
+                recordCount += scoring.get();
+            }
+
+            join(partitionFiles);
+            return recordCount;
+        } finally
+        {
+            executor.shutdownNow();
+
+            for (Path partitionFile : partitionFiles)
+            {
+                Files.deleteIfExists(partitionFile);
+            }
+        }
+    }
+
+    /**
+     * Cuts the input into at least one partition per thread, ending each partition after the line break of a record.
+     * Csv partitions are scanned record by record from their start, because a line break only ends a csv record
+     * outside of quoted values; other partitions end at the first line break after their nominal size.
+     */
+    private List<long[]> partition(FileChannel input, long from, long to) throws IOException
+    {
+        int count = (int) Math.max(threads, (to - from + MAX_PARTITION_BYTES - 1) / MAX_PARTITION_BYTES);
+        long partitionSize = Math.max(1, (to - from) / count);
+        List<long[]> partitions = new ArrayList<>(count);
+        long start = from;
+
+        while (start < to)
+        {
+            long end = Math.min(to, start + partitionSize);
+
+            if (end < to)
+            {
+                long scanFrom = csv ? start : end;
+                MappedByteBuffer window = input.map(FileChannel.MapMode.READ_ONLY, scanFrom,
+                        Math.min(Math.min(to, end + MAX_PARTITION_BYTES) - scanFrom, Integer.MAX_VALUE));
+
+                do
+                {
+                    CsvRecords.skipRecord(window, csv);
+                }
+                while (window.hasRemaining() && scanFrom + window.position() <= end);
+
+                end = scanFrom + window.position();
+            }
+
+            partitions.add(new long[]{start, end});
+            start = end;
+        }
+        return partitions;
+    }
+
+    private long scorePartition(MappedByteBuffer partition, String[] header, Path partitionFile) throws IOException
+    {
+        LineBuffer lineBuffer = new LineBuffer();
+        long recordCount = 0;
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(partitionFile), OUTPUT_BUFFER_BYTES))
+        {
+            for (byte[] line = nextRecord(partition, lineBuffer, csv); line != null; line = nextRecord(partition, lineBuffer, csv))
+            {
+                if (lineBuffer.isBlank())
+                {
+                    continue;
+                }
+
+                recordCount++;
+                ModelInputFields inputFields = null;
+                Exception parseError = null;
+
+                try
+                {
+                    inputFields = csv ? csvInputOf(header, line, lineBuffer.length) : objectMapper.readValue(line, 0, lineBuffer.length, ModelInputFields.class);
+                } catch (IOException | RuntimeException e)
+                {
+                    parseError = e;
+                }
+
+                Map<String, RecordScoringResult> results = new LinkedHashMap<>();
+
+                for (String modelId : modelIdToTargetFieldKeysMap.keySet())
+                {
+                    results.put(modelId, parseError == null ? scoreRecord(modelId, inputFields) : RecordScoringResult.failure(parseError));
+                }
+
+                writeResults(out, results);
+            }
+        }
+        return recordCount;
+    }
+
+    private RecordScoringResult scoreRecord(String modelId, ModelInputFields inputFields)
+    {
+        try
+        {
+            return new RecordScoringResult(modelService.score(modelId, inputFields).getResult());
+        } catch (ScoringException e)
+        {
+            return RecordScoringResult.failure(e.getCause() == null ? e : e.getCause());
+        } catch (RuntimeException e)
+        {
+            return RecordScoringResult.failure(e);
+        }
+    }
+
+    private ModelInputFields csvInputOf(String[] header, byte[] line, int length)
+    {
+        List<String> values = CsvRecords.parse(line, 0, length);
+
+        if (values.size() > header.length)
+        {
+            throw new IllegalArgumentException("Record has more values than the csv header");
+        }
+
+        Map<String, Object> fields = new HashMap<>((header.length * 4 + 2) / 3);
+
+        for (int i = 0; i < values.size(); i++)
+        {
+            if (!values.get(i).isEmpty())
+            {
+                fields.put(header[i], values.get(i));
+            }
+        }
+
+        ModelInputFields inputFields = new ModelInputFields();
+        inputFields.setFields(fields);
+        return inputFields;
+    }
+
+    private void writeResults(OutputStream out, Map<String, RecordScoringResult> results) throws IOException
+    {
+        if (!csv)
+        {
+            objectMapper.writeValue(out, results.size() == 1 ? results.values().iterator().next() : results);
+            out.write('\n');
+            return;
+        }
+
+        StringBuilder record = new StringBuilder();
+
+        for (Map.Entry<String, RecordScoringResult> entry : results.entrySet())
+        {
+            RecordScoringResult result = entry.getValue();
+
+            for (String targetFieldKey : modelIdToTargetFieldKeysMap.get(entry.getKey()))
+            {
+                CsvRecords.appendValue(record, result.getResult() == null ? null : result.getResult().get(targetFieldKey)).append(',');
+            }
+            record.append(result.isSuccess()).append(',');
+            CsvRecords.appendValue(record, result.getExceptionType()).append(',');
+            CsvRecords.appendValue(record, result.getExceptionMessage()).append(',');
+        }
+
+        record.setCharAt(record.length() - 1, '\n');
+        out.write(record.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the csv header and appends the partitions to the output in input order.
+     */
+    private void join(List<Path> partitionFiles) throws IOException
+    {
+        try (FileChannel output = FileChannel.open(outputFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            if (csv)
+            {
+                output.write(ByteBuffer.wrap(csvHeader().getBytes(StandardCharsets.UTF_8)));
+            }
+
+            for (Path partitionFile : partitionFiles)
+            {
+                try (FileChannel partition = FileChannel.open(partitionFile, StandardOpenOption.READ))
+                {
+                    long position = 0;
+                    long size = partition.size();
+
+                    while (position < size)
+                    {
+                        position += partition.transferTo(position, size - position, output);
+                    }
+                }
+            }
+        }
+    }
+
+    private String csvHeader()
+    {
+        boolean prefixed = modelIdToTargetFieldKeysMap.size() > 1;
+        StringBuilder header = new StringBuilder();
+
+        for (Map.Entry<String, String[]> entry : modelIdToTargetFieldKeysMap.entrySet())
+        {
+            String prefix = prefixed ? entry.getKey() + "." : "";
+
+            for (String targetFieldKey : entry.getValue())
+            {
+                CsvRecords.appendValue(header, prefix + targetFieldKey).append(',');
+            }
+            header.append(prefix).append("success,").append(prefix).append("exceptionType,").append(prefix).append("exceptionMessage,");
+        }
+
+        header.setCharAt(header.length() - 1, '\n');
+        return header.toString();
+    }
+
+    /**
+     * Reads the next record into the line buffer without the line break which ends it and returns its backing array,
+     * or null at the end of the buffer. Csv records may span several lines within quoted values.
+     */
+    private static byte[] nextRecord(MappedByteBuffer buffer, LineBuffer lineBuffer, boolean csv)
+    {
+        if (!buffer.hasRemaining())
+        {
+            return null;
+        }
+
+        int from = buffer.position();
+        int to = CsvRecords.skipRecord(buffer, csv);
+
+        lineBuffer.length = 0;
+
+        for (int i = from; i < to; i++)
+        {
+            lineBuffer.append(buffer.get(i));
+        }
+
+        if (lineBuffer.length > 0 && lineBuffer.bytes[lineBuffer.length - 1] == '\r')
+        {
+            lineBuffer.length--;
+        }
+        return lineBuffer.bytes;
+    }
+
+    private static class LineBuffer
+    {
+        private byte[] bytes = new byte[1024];
+        private int length;
+
+        void append(byte b)
+        {
+            if (length == bytes.length)
+            {
+                byte[] grown = new byte[bytes.length * 2];
+                System.arraycopy(bytes, 0, grown, 0, length);
+                bytes = grown;
+            }
+            bytes[length++] = b;
+        }
+
+        boolean isBlank()
+        {
+            for (int i = 0; i < length; i++)
+            {
+                if (bytes[i] != ' ' && bytes[i] != '\t')
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package controller;
+
+import org.rapidoid.annotation.Controller;
+import org.rapidoid.annotation.GET;
+import org.rapidoid.http.MediaType;
+import org.rapidoid.http.Resp;
+import service.impl.MetricsService;
+
+import javax.inject.Inject;
+
+@Controller
+public class MetricsController extends ParentController
+{
+    private static final MediaType PROMETHEUS_TEXT = MediaType.of("text/plain; version=0.0.4; charset=utf-8");
+
+    private MetricsService metricsService;
+
+    @Inject
+    public MetricsController(MetricsService metricsService)
+    {
+        this.metricsService = metricsService;
+    }
+
+    @GET("/metrics")
+    public void getMetrics(Resp resp)
+    {
+        resp.contentType(PROMETHEUS_TEXT).result(metricsService.getPrometheusText());
+    }
+}
@@ -1,16 +1,26 @@
 package controller;
 
-import domain.ModelInputFields;
+import domain.BatchModelInputFields;
+import domain.DeploymentStatus;
+import domain.ForwardedResponse;
+import domain.ModelVersionInfo;
+import exception.BulkDeployException;
+import exception.InvalidInputException;
 import org.rapidoid.annotation.Controller;
 import org.rapidoid.annotation.DELETE;
 import org.rapidoid.annotation.GET;
 import org.rapidoid.annotation.POST;
+import org.rapidoid.http.MediaType;
 import org.rapidoid.http.Req;
 import org.rapidoid.http.Resp;
+import org.rapidoid.io.Upload;
+import service.impl.ClusterService;
 import service.impl.ModelService;
+import service.impl.StreamScoringService;
 
 import javax.inject.Inject;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 
 @Controller(value = "/model")
@@ -18,53 +28,187 @@ public class ModelController extends ParentController
 {
     private static final String FORM_PARAMETER_NAME_FOR_FILENAME = "model";
     private static final String EXTENDED_PARAMETER_FOR_SUMMARY = "extended";
+    private static final String ASYNC_PARAMETER_FOR_DEPLOY = "async";
+    private static final String FORM_PARAMETER_NAME_FOR_WARMUP_SAMPLES = "samples";
+    private static final String FORM_PARAMETER_NAME_FOR_ARCHIVE = "archive";
+    private static final String FORM_PARAMETER_NAME_FOR_MANIFEST = "manifest";
+    private static final String ATOMIC_PARAMETER_FOR_BULK_DEPLOY = "atomic";
+    private static final String FORMAT_PARAMETER_FOR_STREAM = "format";
+    private static final String DEADLINE_HEADER_FOR_SCORE = "X-Deadline-Millis";
 
     private ModelService modelService;
 
+    private ClusterService clusterService;
+
     @Inject
-    public ModelController(ModelService modelService)
+    public ModelController(ModelService modelService, ClusterService clusterService)
     {
         this.modelService = modelService;
+        this.clusterService = clusterService;
+    }
+
+    @POST(value = "/bulk")
+    public void deployArchive(Req req, Resp resp)
+    {
+        if (clusterService.isEnabled())
+        {
+            throw new BulkDeployException("Bulk deployment is not supported in cluster mode, deploy the models one by one so that they reach their owners");
+        }
+
+        resp.json(toResponse(modelService.deployArchive(getUploadedFile(req, FORM_PARAMETER_NAME_FOR_ARCHIVE),
+                getUploadedFile(req, FORM_PARAMETER_NAME_FOR_MANIFEST), getRequestParamAsBoolean(req, ATOMIC_PARAMETER_FOR_BULK_DEPLOY))));
     }
 
     @POST(value = "/{modelId}")
     public void deploy(String modelId, Req req, Resp resp)
     {
-        Map<String, String> requestParams = getRequestParametersExcept(req, Arrays.asList("modelId"));
+        if (!isHandledLocally(modelId, req))
+        {
+            render(resp, replicateToOwners(modelId, req));
+            return;
+        }
 
-        modelService.deploy(modelId, req.file(FORM_PARAMETER_NAME_FOR_FILENAME), requestParams);
+        Map<String, String> requestParams = getRequestParametersExcept(req, Arrays.asList("modelId", ASYNC_PARAMETER_FOR_DEPLOY));
+
+        Upload warmupSamples = getUploadedFile(req, FORM_PARAMETER_NAME_FOR_WARMUP_SAMPLES);
+
+        if (getRequestParamAsBoolean(req, ASYNC_PARAMETER_FOR_DEPLOY))
+        {
+            DeploymentStatus status = modelService.deployAsync(modelId, req.file(FORM_PARAMETER_NAME_FOR_FILENAME), warmupSamples, requestParams);
+            replicateToOwners(modelId, req);
+
+            resp.json(toResponse(status));
+            return;
+        }
+
+        modelService.deploy(modelId, req.file(FORM_PARAMETER_NAME_FOR_FILENAME), warmupSamples, requestParams);
+        replicateToOwners(modelId, req);
 
         resp.json(toResponse(true));
     }
 
+    @GET(value = "/{modelId}/deployment")
+    public void getDeploymentStatus(String modelId, Req req, Resp resp)
+    {
+        if (forwardToOwner(modelId, req, resp))
+        {
+            return;
+        }
+
+        resp.json(toResponse(modelService.getDeploymentStatus(modelId)));
+    }
+
+    @GET(value = "/{modelId}/versions")
+    public void getVersions(String modelId, Req req, Resp resp)
+    {
+        if (forwardToOwner(modelId, req, resp))
+        {
+            return;
+        }
+
+        resp.json(toResponse(modelService.getVersions(modelId)));
+    }
+
+    @POST(value = "/{modelId}/rollback")
+    public void rollback(String modelId, Req req, Resp resp)
+    {
+        if (!isHandledLocally(modelId, req))
+        {
+            render(resp, replicateToOwners(modelId, req));
+            return;
+        }
+
+        ModelVersionInfo versionInfo = modelService.rollback(modelId);
+        replicateToOwners(modelId, req);
+
+        resp.json(toResponse(versionInfo));
+    }
+
     @GET(value = "/{modelId}")
     public void getSummary(String modelId, Req req, Resp resp)
     {
+        if (forwardToOwner(modelId, req, resp))
+        {
+            return;
+        }
+
         boolean isExtended = getRequestParamAsBoolean(req, EXTENDED_PARAMETER_FOR_SUMMARY);
 
         resp.json(toResponse(modelService.getSummary(modelId, isExtended)));
     }
 
     @DELETE(value = "/{modelId}")
-    public void undeploy(String modelId, Resp resp)
+    public void undeploy(String modelId, Req req, Resp resp)
     {
+        if (!isHandledLocally(modelId, req))
+        {
+            render(resp, replicateToOwners(modelId, req));
+            return;
+        }
+
         modelService.undeploy(modelId);
+        replicateToOwners(modelId, req);
 
         resp.json(toResponse(true));
     }
 
     @DELETE(value = "/")
-    public void undeployAll(Resp resp)
+    public void undeployAll(Req req, Resp resp)
     {
         modelService.undeployAll();
 
+        if (clusterService.isEnabled() && !isForwarded(req))
+        {
+            clusterService.broadcast(req.verb(), req.uri(), getForwardedHeaders(req), req.body());
+        }
+
         resp.json(toResponse(true));
     }
 
     @POST(value = "/{modelId}/score")
-    public void score(String modelId, ModelInputFields inputFields, Resp resp)
+    public void score(String modelId, Req req, Resp resp)
+    {
+        if (forwardToOwner(modelId, req, resp))
+        {
+            return;
+        }
+
+        resp.contentType(MediaType.JSON).body(modelService.scoreAsJson(modelId, req.body(), getDeadlineMillis(req)));
+    }
+
+    @POST(value = "/{modelId}/score/batch")
+    public void scoreBatch(String modelId, BatchModelInputFields batchInputFields, Req req, Resp resp)
     {
-        resp.json(toResponse(modelService.score(modelId, inputFields)));
+        if (forwardToOwner(modelId, req, resp))
+        {
+            return;
+        }
+
+        resp.json(toResponse(modelService.scoreBatch(modelId, batchInputFields)));
+    }
+
+    @POST(value = "/{modelId}/score/stream")
+    public void scoreStream(String modelId, Req req, Resp resp)
+    {
+        if (forwardToOwner(modelId, req, resp))
+        {
+            return;
+        }
+
+        StreamScoringService.Format format = getStreamFormat(req);
+
+        modelService.scoreStream(modelId, req.body(), format, () -> resp.contentType(MediaType.of(format.getContentType())).out());
+    }
+
+    @GET(value = "/{modelId}/cache")
+    public void getCacheStatistics(String modelId, Req req, Resp resp)
+    {
+        if (forwardToOwner(modelId, req, resp))
+        {
+            return;
+        }
+
+        resp.json(toResponse(modelService.getCacheStatistics(modelId)));
     }
 
     @GET(value = "/ids")
@@ -80,8 +224,112 @@ public class ModelController extends ParentController
     }
 
     @GET(value = "/{modelId}/additional")
-    public void getAdditionalParameter(String modelId, Resp resp)
+    public void getAdditionalParameter(String modelId, Req req, Resp resp)
     {
+        if (forwardToOwner(modelId, req, resp))
+        {
+            return;
+        }
+
         resp.json(toResponse(modelService.getAdditionalParameter(modelId)));
     }
+
+    private boolean isForwarded(Req req)
+    {
+        return req.header(ClusterService.FORWARDED_HEADER, null) != null;
+    }
+
+    private boolean isHandledLocally(String modelId, Req req)
+    {
+        return clusterService.isHandledLocally(modelId, isForwarded(req));
+    }
+
+    /**
+     * Forwards a request for a model which this node does not own to one of its owners, and passes on its response.
+     * Returns whether the request has been forwarded.
+     */
+    private boolean forwardToOwner(String modelId, Req req, Resp resp)
+    {
+        if (isHandledLocally(modelId, req))
+        {
+            return false;
+        }
+
+        render(resp, clusterService.forward(modelId, req.verb(), req.uri(), getForwardedHeaders(req), req.body()));
+        return true;
+    }
+
+    /**
+     * Sends a change of a model to the owners other than this node. Returns the response of an owner if this node does
+     * not own the model, or null if the request is not replicated by this node. Has to be called before anything is
+     * written to the response, because it throws if the change fails on some owners.
+     */
+    private ForwardedResponse replicateToOwners(String modelId, Req req)
+    {
+        if (!clusterService.isEnabled() || isForwarded(req))
+        {
+            return null;
+        }
+
+        return clusterService.replicate(modelId, req.verb(), req.uri(), getForwardedHeaders(req), req.body());
+    }
+
+    private Map<String, String> getForwardedHeaders(Req req)
+    {
+        Map<String, String> headers = new HashMap<>();
+
+        for (String header : Arrays.asList("Content-Type", DEADLINE_HEADER_FOR_SCORE))
+        {
+            String value = req.header(header, null);
+
+            if (value != null)
+            {
+                headers.put(header, value);
+            }
+        }
+        return headers;
+    }
+
+    private void render(Resp resp, ForwardedResponse response)
+    {
+        String contentType = response.getContentType();
+
+        resp.code(response.getStatus()).contentType(contentType == null ? MediaType.JSON : MediaType.of(contentType)).body(response.getBody());
+    }
+
+    /**
+     * The deadline header holds the number of milliseconds the client waits for the result. Zero means no deadline.
+     */
+    private long getDeadlineMillis(Req req)
+    {
+        String deadline = req.header(DEADLINE_HEADER_FOR_SCORE, null);
+
+        if (deadline == null)
+        {
+            return 0;
+        }
+
+        try
+        {
+            return Math.max(0, Long.parseLong(deadline.trim()));
+        } catch (NumberFormatException e)
+        {
+            throw new InvalidInputException("Header [" + DEADLINE_HEADER_FOR_SCORE + "] must be a number of milliseconds");
+        }
+    }
+
+    /**
+     * The format is given by the format parameter, or else by the content type of the request. Json is the default.
+     */
+    private StreamScoringService.Format getStreamFormat(Req req)
+    {
+        String format = req.params().get(FORMAT_PARAMETER_FOR_STREAM);
+
+        if (format == null)
+        {
+            format = req.header("Content-Type", "");
+        }
+
+        return format.toLowerCase().contains("csv") ? StreamScoringService.Format.CSV : StreamScoringService.Format.NDJSON;
+    }
 }
@@ -2,6 +2,7 @@ package controller;
 
 import domain.Response;
 import org.rapidoid.http.Req;
+import org.rapidoid.io.Upload;
 
 import java.util.List;
 import java.util.Map;
@@ -21,6 +22,13 @@ public class ParentController
                 .collect(Collectors.toMap(x -> x.getKey(), x -> x.getValue()));
     }
 
+    public Upload getUploadedFile(Req req, String fieldName)
+    {
+        List<Upload> uploads = req.files().get(fieldName);
+
+        return uploads == null || uploads.isEmpty() ? null : uploads.get(0);
+    }
+
     public boolean getRequestParamAsBoolean(Req req, String fieldName)
     {
         Map<String, String> params = req.params();
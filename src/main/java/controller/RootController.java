@@ -1,18 +1,45 @@
 package controller;
 
+import domain.PreloadStatus;
+import exception.NotReadyException;
 import org.rapidoid.annotation.Controller;
 import org.rapidoid.annotation.GET;
 import org.rapidoid.http.Resp;
+import service.impl.PreloadService;
+
+import javax.inject.Inject;
 
 @Controller
 public class RootController extends ParentController
 {
     private final static String WELCOME_MESSAGE = "I have come here to chew bubblegum and kick ass...";
 
+    private PreloadService preloadService;
+
+    @Inject
+    public RootController(PreloadService preloadService)
+    {
+        this.preloadService = preloadService;
+    }
+
     @GET("/")
     public void getWelcomeMessage(Resp resp)
     {
         resp.json(toResponse(WELCOME_MESSAGE));
     }
 
+    @GET("/ready")
+    public void getReadiness(Resp resp)
+    {
+        PreloadStatus status = preloadService.getStatus();
+
+        if (!status.isReady())
+        {
+            throw new NotReadyException("Models are being preloaded, [" + (status.getPreloadedCount() + status.getFailedCount())
+                    + "] of [" + status.getModelCount() + "] done");
+        }
+
+        resp.json(toResponse(status));
+    }
+
 }
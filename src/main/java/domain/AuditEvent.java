@@ -0,0 +1,70 @@
+package domain;
+
+import java.util.Map;
+
+/**
+ * A single scoring entry of the audit log. Input fields and results are referenced as they are, they are only
+ * serialized by the audit log writer.
+ */
+public class AuditEvent
+{
+    private final long timestamp;
+    private final String modelId;
+    private final long durationMicros;
+    private final Map<String, Object> fields;
+    private final Map<String, Object> result;
+    private final String exceptionType;
+    private final String exceptionMessage;
+
+    public AuditEvent(long timestamp, String modelId, long durationMicros, Map<String, Object> fields,
+                      Map<String, Object> result, Throwable error)
+    {
+        this.timestamp = timestamp;
+        this.modelId = modelId;
+        this.durationMicros = durationMicros;
+        this.fields = fields;
+        this.result = result;
+        this.exceptionType = error == null ? null : error.getClass().getSimpleName();
+        this.exceptionMessage = error == null ? null : error.getMessage();
+    }
+
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    public String getModelId()
+    {
+        return modelId;
+    }
+
+    public long getDurationMicros()
+    {
+        return durationMicros;
+    }
+
+    public Map<String, Object> getFields()
+    {
+        return fields;
+    }
+
+    public Map<String, Object> getResult()
+    {
+        return result;
+    }
+
+    public boolean isSuccess()
+    {
+        return exceptionType == null;
+    }
+
+    public String getExceptionType()
+    {
+        return exceptionType;
+    }
+
+    public String getExceptionMessage()
+    {
+        return exceptionMessage;
+    }
+}
@@ -0,0 +1,21 @@
+package domain;
+
+import java.io.Serializable;
+import java.util.List;
+
+public class BatchModelInputFields implements Serializable
+{
+    private static final long serialVersionUID = -4311795212464718392L;
+
+    private List<ModelInputFields> records;
+
+    public List<ModelInputFields> getRecords()
+    {
+        return records;
+    }
+
+    public void setRecords(List<ModelInputFields> records)
+    {
+        this.records = records;
+    }
+}
@@ -0,0 +1,30 @@
+package domain;
+
+import java.io.Serializable;
+import java.util.List;
+
+public class BatchScoringResult implements Serializable
+{
+    private static final long serialVersionUID = 2370546176419735042L;
+
+    private List<RecordScoringResult> results;
+
+    public BatchScoringResult()
+    {
+    }
+
+    public BatchScoringResult(List<RecordScoringResult> results)
+    {
+        this.results = results;
+    }
+
+    public List<RecordScoringResult> getResults()
+    {
+        return results;
+    }
+
+    public void setResults(List<RecordScoringResult> results)
+    {
+        this.results = results;
+    }
+}
@@ -0,0 +1,83 @@
+package domain;
+
+import java.io.Serializable;
+
+public class BulkDeployEntryResult implements Serializable
+{
+    private static final long serialVersionUID = -2915735098520866047L;
+
+    private String modelId;
+    private String file;
+    private boolean success = true;
+    private String exceptionType;
+    private String exceptionMessage;
+
+    public BulkDeployEntryResult()
+    {
+    }
+
+    public BulkDeployEntryResult(String modelId, String file)
+    {
+        this.modelId = modelId;
+        this.file = file;
+    }
+
+    public static BulkDeployEntryResult failure(String modelId, String file, Throwable error)
+    {
+        BulkDeployEntryResult entryResult = new BulkDeployEntryResult(modelId, file);
+        entryResult.setSuccess(false);
+        entryResult.setExceptionType(error.getClass().getSimpleName());
+        entryResult.setExceptionMessage(error.getMessage());
+        return entryResult;
+    }
+
+    public String getModelId()
+    {
+        return modelId;
+    }
+
+    public void setModelId(String modelId)
+    {
+        this.modelId = modelId;
+    }
+
+    public String getFile()
+    {
+        return file;
+    }
+
+    public void setFile(String file)
+    {
+        this.file = file;
+    }
+
+    public boolean isSuccess()
+    {
+        return success;
+    }
+
+    public void setSuccess(boolean success)
+    {
+        this.success = success;
+    }
+
+    public String getExceptionType()
+    {
+        return exceptionType;
+    }
+
+    public void setExceptionType(String exceptionType)
+    {
+        this.exceptionType = exceptionType;
+    }
+
+    public String getExceptionMessage()
+    {
+        return exceptionMessage;
+    }
+
+    public void setExceptionMessage(String exceptionMessage)
+    {
+        this.exceptionMessage = exceptionMessage;
+    }
+}
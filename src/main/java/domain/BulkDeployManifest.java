@@ -0,0 +1,72 @@
+package domain;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+public class BulkDeployManifest implements Serializable
+{
+    private static final long serialVersionUID = -5370384621577209844L;
+
+    private List<Entry> models;
+
+    public List<Entry> getModels()
+    {
+        return models;
+    }
+
+    public void setModels(List<Entry> models)
+    {
+        this.models = models;
+    }
+
+    public static class Entry implements Serializable
+    {
+        private static final long serialVersionUID = 8820151957126451930L;
+
+        private String modelId;
+        private String file;
+        private Map<String, String> additionalParameters;
+
+        public Entry()
+        {
+        }
+
+        public Entry(String modelId, String file, Map<String, String> additionalParameters)
+        {
+            this.modelId = modelId;
+            this.file = file;
+            this.additionalParameters = additionalParameters;
+        }
+
+        public String getModelId()
+        {
+            return modelId;
+        }
+
+        public void setModelId(String modelId)
+        {
+            this.modelId = modelId;
+        }
+
+        public String getFile()
+        {
+            return file;
+        }
+
+        public void setFile(String file)
+        {
+            this.file = file;
+        }
+
+        public Map<String, String> getAdditionalParameters()
+        {
+            return additionalParameters;
+        }
+
+        public void setAdditionalParameters(Map<String, String> additionalParameters)
+        {
+            this.additionalParameters = additionalParameters;
+        }
+    }
+}
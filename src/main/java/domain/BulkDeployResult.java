@@ -0,0 +1,76 @@
+package domain;
+
+import java.io.Serializable;
+import java.util.List;
+
+public class BulkDeployResult implements Serializable
+{
+    private static final long serialVersionUID = 1655108405914729620L;
+
+    private int deployedCount;
+    private int failedCount;
+    private long durationMillis;
+    private List<BulkDeployEntryResult> results;
+
+    public BulkDeployResult()
+    {
+    }
+
+    public BulkDeployResult(List<BulkDeployEntryResult> results, long durationMillis)
+    {
+        this.results = results;
+        this.durationMillis = durationMillis;
+
+        for (BulkDeployEntryResult result : results)
+        {
+            if (result.isSuccess())
+            {
+                deployedCount++;
+            }
+            else
+            {
+                failedCount++;
+            }
+        }
+    }
+
+    public int getDeployedCount()
+    {
+        return deployedCount;
+    }
+
+    public void setDeployedCount(int deployedCount)
+    {
+        this.deployedCount = deployedCount;
+    }
+
+    public int getFailedCount()
+    {
+        return failedCount;
+    }
+
+    public void setFailedCount(int failedCount)
+    {
+        this.failedCount = failedCount;
+    }
+
+    public long getDurationMillis()
+    {
+        return durationMillis;
+    }
+
+    public void setDurationMillis(long durationMillis)
+    {
+        this.durationMillis = durationMillis;
+    }
+
+    public List<BulkDeployEntryResult> getResults()
+    {
+        return results;
+    }
+
+    public void setResults(List<BulkDeployEntryResult> results)
+    {
+        this.results = results;
+    }
+}
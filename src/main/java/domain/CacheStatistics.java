@@ -0,0 +1,75 @@
+package domain;
+
+import java.io.Serializable;
+
+public class CacheStatistics implements Serializable
+{
+    private static final long serialVersionUID = 5307318458914264121L;
+
+    private boolean enabled;
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private double hitRate;
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public void setSize(long size)
+    {
+        this.size = size;
+    }
+
+    public long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public void setHitCount(long hitCount)
+    {
+        this.hitCount = hitCount;
+    }
+
+    public long getMissCount()
+    {
+        return missCount;
+    }
+
+    public void setMissCount(long missCount)
+    {
+        this.missCount = missCount;
+    }
+
+    public long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    public void setEvictionCount(long evictionCount)
+    {
+        this.evictionCount = evictionCount;
+    }
+
+    public double getHitRate()
+    {
+        return hitRate;
+    }
+
+    public void setHitRate(double hitRate)
+    {
+        this.hitRate = hitRate;
+    }
+}
@@ -0,0 +1,83 @@
+package domain;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Assigns keys to nodes by consistent hashing. Every node is placed on the ring at a number of virtual points, and
+ * the owners of a key are the first distinct nodes found clockwise from its hash. Adding or removing a node only
+ * moves the keys between it and its neighbours, and every process with the same nodes computes the same owners.
+ */
+public class ConsistentHashRing
+{
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final TreeMap<Long, String> points;
+    private final List<String> nodes;
+
+    public ConsistentHashRing(List<String> nodes, int virtualNodesPerNode)
+    {
+        this.points = new TreeMap<>();
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(nodes)));
+
+        for (String node : this.nodes)
+        {
+            for (int i = 0; i < Math.max(1, virtualNodesPerNode); i++)
+            {
+                points.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    public List<String> getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * Returns the nodes which own the key, at most replication factor many, the primary owner first.
+     */
+    public List<String> ownersOf(String key, int replicationFactor)
+    {
+        int ownerCount = Math.min(Math.max(1, replicationFactor), nodes.size());
+        Set<String> owners = new LinkedHashSet<>(ownerCount * 2);
+
+        if (ownerCount == 0)
+        {
+            return Collections.emptyList();
+        }
+
+        long hash = hash(key);
+
+        collect(points.tailMap(hash, true), owners, ownerCount);
+        collect(points.headMap(hash, false), owners, ownerCount);
+
+        return new ArrayList<>(owners);
+    }
+
+    private static void collect(Map<Long, String> range, Set<String> owners, int ownerCount)
+    {
+        for (String node : range.values())
+        {
+            if (owners.size() == ownerCount)
+            {
+                return;
+            }
+            owners.add(node);
+        }
+    }
+
+    private static long hash(String value)
+    {
+        return HASH_FUNCTION.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+}
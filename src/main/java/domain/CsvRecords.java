@@ -0,0 +1,116 @@
+package domain;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsing and writing of comma separated records. Values are quoted with double quotes when they contain a comma,
+ * a quote or a line break, and quotes inside quoted values are doubled.
+ */
+public final class CsvRecords
+{
+    private CsvRecords()
+    {
+    }
+
+    /**
+     * Moves the buffer past the next record and the line break which ends it, and returns the position where the
+     * record ends. Line breaks inside quoted values of csv records belong to the record, other records end at every
+     * line break. The last record of the buffer may have no line break.
+     */
+    public static int skipRecord(ByteBuffer buffer, boolean csv)
+    {
+        boolean quoted = false;
+
+        while (buffer.hasRemaining())
+        {
+            byte b = buffer.get();
+
+            if (b == '\n' && !quoted)
+            {
+                return buffer.position() - 1;
+            }
+
+            if (csv && b == '"')
+            {
+                quoted = !quoted;
+            }
+        }
+        return buffer.position();
+    }
+
+    /**
+     * Parses the values of the record between the given offsets of the utf-8 input. Values are trimmed.
+     */
+    public static List<String> parse(byte[] input, int from, int to)
+    {
+        String line = new String(input, from, to - from, StandardCharsets.UTF_8);
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++)
+        {
+            char c = line.charAt(i);
+
+            if (quoted)
+            {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"')
+                {
+                    value.append('"');
+                    i++;
+                }
+                else if (c == '"')
+                {
+                    quoted = false;
+                }
+                else
+                {
+                    value.append(c);
+                }
+            }
+            else if (c == '"')
+            {
+                quoted = true;
+            }
+            else if (c == ',')
+            {
+                values.add(value.toString().trim());
+                value.setLength(0);
+            }
+            else
+            {
+                value.append(c);
+            }
+        }
+
+        if (quoted)
+        {
+            throw new IllegalArgumentException("Csv record has an unterminated quote");
+        }
+
+        values.add(value.toString().trim());
+        return values;
+    }
+
+    /**
+     * Appends the value, quoted if necessary. Null is written as an empty value.
+     */
+    public static StringBuilder appendValue(StringBuilder record, Object value)
+    {
+        if (value == null)
+        {
+            return record;
+        }
+
+        String text = value.toString();
+
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0)
+        {
+            return record.append(text);
+        }
+        return record.append('"').append(text.replace("\"", "\"\"")).append('"');
+    }
+}
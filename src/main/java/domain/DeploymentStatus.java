@@ -0,0 +1,139 @@
+package domain;
+
+import java.io.Serializable;
+
+public class DeploymentStatus implements Serializable
+{
+    private static final long serialVersionUID = 4417961315502658734L;
+
+    public enum State
+    {
+        QUEUED, IN_PROGRESS, DEPLOYED, FAILED
+    }
+
+    private String ticket;
+    private String modelId;
+    private volatile State state;
+    private volatile String message;
+    private long submittedAt;
+    private volatile Long startedAt;
+    private volatile Long finishedAt;
+
+    public DeploymentStatus()
+    {
+    }
+
+    public DeploymentStatus(String ticket, String modelId)
+    {
+        this.ticket = ticket;
+        this.modelId = modelId;
+        this.state = State.QUEUED;
+        this.submittedAt = System.currentTimeMillis();
+    }
+
+    public void started()
+    {
+        startedAt = System.currentTimeMillis();
+        state = State.IN_PROGRESS;
+    }
+
+    public void deployed()
+    {
+        finishedAt = System.currentTimeMillis();
+        state = State.DEPLOYED;
+    }
+
+    public void failed(String message)
+    {
+        this.message = message;
+        finishedAt = System.currentTimeMillis();
+        state = State.FAILED;
+    }
+
+    public boolean isFinished()
+    {
+        return state == State.DEPLOYED || state == State.FAILED;
+    }
+
+    public String getTicket()
+    {
+        return ticket;
+    }
+
+    public void setTicket(String ticket)
+    {
+        this.ticket = ticket;
+    }
+
+    public String getModelId()
+    {
+        return modelId;
+    }
+
+    public void setModelId(String modelId)
+    {
+        this.modelId = modelId;
+    }
+
+    public State getState()
+    {
+        return state;
+    }
+
+    public void setState(State state)
+    {
+        this.state = state;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    public void setMessage(String message)
+    {
+        this.message = message;
+    }
+
+    public long getSubmittedAt()
+    {
+        return submittedAt;
+    }
+
+    public void setSubmittedAt(long submittedAt)
+    {
+        this.submittedAt = submittedAt;
+    }
+
+    public Long getStartedAt()
+    {
+        return startedAt;
+    }
+
+    public void setStartedAt(Long startedAt)
+    {
+        this.startedAt = startedAt;
+    }
+
+    public Long getFinishedAt()
+    {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Long finishedAt)
+    {
+        this.finishedAt = finishedAt;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder("DeploymentStatus{");
+        sb.append("ticket='").append(ticket).append('\'');
+        sb.append(", modelId='").append(modelId).append('\'');
+        sb.append(", state=").append(state);
+        sb.append(", message='").append(message).append('\'');
+        sb.append('}');
+        return sb.toString();
+    }
+}
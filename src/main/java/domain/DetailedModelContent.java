@@ -1,8 +1,10 @@
 package domain;
 
+import engine.ScoringEngine;
 import org.jpmml.evaluator.Evaluator;
 
 import java.io.Serializable;
+import java.nio.file.Path;
 import java.util.Map;
 
 public class DetailedModelContent implements Serializable
@@ -12,6 +14,18 @@ public class DetailedModelContent implements Serializable
     private String filename;
     private Map<String, String> additionalParameters;
     private Evaluator evaluator;
+    private ModelBindingPlan bindingPlan;
+    private transient ScoringResultCache resultCache;
+    private int version;
+    private long deployedAt;
+    private int warmupScorings;
+    private long warmupMillis;
+    private String contentHash;
+    private long footprint;
+    private transient SharedEvaluator sharedEvaluator;
+    private transient ScoringEngine scoringEngine;
+    private transient Path spillFile;
+    private transient volatile long lastAccessNanos;
 
     public String getFilename()
     {
@@ -42,4 +56,159 @@ public class DetailedModelContent implements Serializable
     {
         this.evaluator = evaluator;
     }
+
+    public ModelBindingPlan getBindingPlan()
+    {
+        return bindingPlan;
+    }
+
+    public void setBindingPlan(ModelBindingPlan bindingPlan)
+    {
+        this.bindingPlan = bindingPlan;
+    }
+
+    public ScoringResultCache getResultCache()
+    {
+        return resultCache;
+    }
+
+    public void setResultCache(ScoringResultCache resultCache)
+    {
+        this.resultCache = resultCache;
+    }
+
+    public int getVersion()
+    {
+        return version;
+    }
+
+    public void setVersion(int version)
+    {
+        this.version = version;
+    }
+
+    public long getDeployedAt()
+    {
+        return deployedAt;
+    }
+
+    public void setDeployedAt(long deployedAt)
+    {
+        this.deployedAt = deployedAt;
+    }
+
+    public int getWarmupScorings()
+    {
+        return warmupScorings;
+    }
+
+    public void setWarmupScorings(int warmupScorings)
+    {
+        this.warmupScorings = warmupScorings;
+    }
+
+    public long getWarmupMillis()
+    {
+        return warmupMillis;
+    }
+
+    public void setWarmupMillis(long warmupMillis)
+    {
+        this.warmupMillis = warmupMillis;
+    }
+
+    public String getContentHash()
+    {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash)
+    {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Returns the estimated heap bytes retained by the evaluator of this content.
+     */
+    public long getFootprint()
+    {
+        return footprint;
+    }
+
+    public void setFootprint(long footprint)
+    {
+        this.footprint = footprint;
+    }
+
+    /**
+     * Returns the file the evaluator has been written to when the content was evicted from the heap, or null if it
+     * has never been evicted.
+     */
+    public Path getSpillFile()
+    {
+        return spillFile;
+    }
+
+    public void setSpillFile(Path spillFile)
+    {
+        this.spillFile = spillFile;
+    }
+
+    public long getLastAccessNanos()
+    {
+        return lastAccessNanos;
+    }
+
+    public void setLastAccessNanos(long lastAccessNanos)
+    {
+        this.lastAccessNanos = lastAccessNanos;
+    }
+
+    /**
+     * Returns whether the evaluator is in the heap. Evicted contents only keep the metadata of the model.
+     */
+    public boolean isResident()
+    {
+        return evaluator != null;
+    }
+
+    /**
+     * Returns the engine which scores the model instead of the evaluator, or null if there is none.
+     */
+    public ScoringEngine getScoringEngine()
+    {
+        return scoringEngine;
+    }
+
+    public SharedEvaluator getSharedEvaluator()
+    {
+        return sharedEvaluator;
+    }
+
+    /**
+     * Uses the evaluator, binding plan and scoring engine of the shared evaluator. The reference held by this content is given back
+     * with {@link #releaseEvaluator()}.
+     */
+    public void setSharedEvaluator(SharedEvaluator sharedEvaluator)
+    {
+        this.sharedEvaluator = sharedEvaluator;
+        this.contentHash = sharedEvaluator.getContentHash();
+        this.footprint = sharedEvaluator.getFootprint();
+        this.evaluator = sharedEvaluator.getEvaluator();
+        this.bindingPlan = sharedEvaluator.getBindingPlan();
+        this.scoringEngine = sharedEvaluator.getScoringEngine();
+    }
+
+    /**
+     * Gives back the reference to the shared evaluator once this content is not deployed anymore. Releasing more than
+     * once has no effect.
+     */
+    public synchronized void releaseEvaluator()
+    {
+        if (sharedEvaluator != null)
+        {
+            sharedEvaluator.release();
+            sharedEvaluator = null;
+        }
+    }
 }
@@ -0,0 +1,45 @@
+package domain;
+
+/**
+ * Response of another node of the cluster to a forwarded request, passed on to the client as it is.
+ */
+public class ForwardedResponse
+{
+    private final String node;
+    private final int status;
+    private final String contentType;
+    private final byte[] body;
+
+    public ForwardedResponse(String node, int status, String contentType, byte[] body)
+    {
+        this.node = node;
+        this.status = status;
+        this.contentType = contentType;
+        this.body = body;
+    }
+
+    public String getNode()
+    {
+        return node;
+    }
+
+    public int getStatus()
+    {
+        return status;
+    }
+
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    public byte[] getBody()
+    {
+        return body;
+    }
+
+    public boolean isSuccessful()
+    {
+        return status >= 200 && status < 300;
+    }
+}
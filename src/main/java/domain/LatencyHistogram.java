@@ -0,0 +1,95 @@
+package domain;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with exponential buckets which can be recorded into from many threads without locking.
+ * Every bucket is a {@link LongAdder}, so concurrent recordings are spread over striped cells instead of contending
+ * on a single counter. Bucket upper bounds double from about 33 microseconds to about 34 seconds.
+ */
+public class LatencyHistogram
+{
+    private static final int FIRST_BUCKET_SHIFT = 15;
+    private static final int BUCKET_COUNT = 21;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final LongAdder[] buckets;
+    private final LongAdder overflow;
+    private final LongAdder sumNanos;
+
+    public LatencyHistogram()
+    {
+        buckets = new LongAdder[BUCKET_COUNT];
+
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            buckets[i] = new LongAdder();
+        }
+
+        overflow = new LongAdder();
+        sumNanos = new LongAdder();
+    }
+
+    public void record(long nanos)
+    {
+        int index = bucketIndex(nanos);
+
+        if (index < BUCKET_COUNT)
+        {
+            buckets[index].increment();
+        }
+        else
+        {
+            overflow.increment();
+        }
+
+        sumNanos.add(nanos);
+    }
+
+    public static int getBucketCount()
+    {
+        return BUCKET_COUNT;
+    }
+
+    /**
+     * Returns the inclusive upper bound of the given bucket in seconds.
+     */
+    public static double getUpperBoundSeconds(int bucket)
+    {
+        return (1L << (FIRST_BUCKET_SHIFT + bucket)) / NANOS_PER_SECOND;
+    }
+
+    /**
+     * Returns the number of recordings up to and including the given bucket.
+     * Buckets are read one after the other, so counts of concurrent recordings may be partially visible.
+     */
+    public long[] getCumulativeCounts()
+    {
+        long[] counts = new long[BUCKET_COUNT + 1];
+        long total = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+
+        counts[BUCKET_COUNT] = total + overflow.sum();
+        return counts;
+    }
+
+    public double getSumSeconds()
+    {
+        return sumNanos.sum() / NANOS_PER_SECOND;
+    }
+
+    private static int bucketIndex(long nanos)
+    {
+        if (nanos <= (1L << FIRST_BUCKET_SHIFT))
+        {
+            return 0;
+        }
+
+        return 64 - Long.numberOfLeadingZeros(nanos - 1) - FIRST_BUCKET_SHIFT;
+    }
+}
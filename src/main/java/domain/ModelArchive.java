@@ -0,0 +1,250 @@
+package domain;
+
+import com.google.common.io.ByteStreams;
+import exception.BulkDeployException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Files of a zip, tar or gzipped tar archive, keyed by their path in the archive. Directories are skipped.
+ * The format is detected from the content, not from the filename. The number of files and their total uncompressed
+ * size are limited while the archive is read, so that a small compressed archive cannot fill the heap.
+ */
+public final class ModelArchive
+{
+    private static final int TAR_BLOCK_SIZE = 512;
+    private static final int TAR_NAME_LENGTH = 100;
+    private static final int TAR_SIZE_OFFSET = 124;
+    private static final int TAR_SIZE_LENGTH = 12;
+    private static final int TAR_CHECKSUM_OFFSET = 148;
+    private static final int TAR_CHECKSUM_LENGTH = 8;
+    private static final int TAR_TYPE_OFFSET = 156;
+    private static final int TAR_PREFIX_OFFSET = 345;
+    private static final int TAR_PREFIX_LENGTH = 155;
+    private static final byte TAR_TYPE_FILE = '0';
+    private static final byte TAR_TYPE_FILE_OLD = 0;
+    private static final byte TAR_TYPE_LONG_NAME = 'L';
+    private static final int COPY_CHUNK_SIZE = 8192;
+
+    private ModelArchive()
+    {
+    }
+
+    /**
+     * Reads the files of the archive. Throws a {@link BulkDeployException} as soon as the archive has more than
+     * maxEntries files, or their uncompressed size exceeds maxBytes.
+     */
+    public static Map<String, byte[]> read(byte[] archive, long maxBytes, int maxEntries) throws IOException
+    {
+        Limits limits = new Limits(maxBytes, maxEntries);
+
+        if (archive.length >= 4 && archive[0] == 'P' && archive[1] == 'K' && archive[2] == 3 && archive[3] == 4)
+        {
+            return readZip(new ByteArrayInputStream(archive), limits);
+        }
+
+        if (archive.length >= 2 && (archive[0] & 0xFF) == 0x1F && (archive[1] & 0xFF) == 0x8B)
+        {
+            return readTar(new BufferedInputStream(new GZIPInputStream(new ByteArrayInputStream(archive))), limits);
+        }
+
+        return readTar(new ByteArrayInputStream(archive), limits);
+    }
+
+    private static Map<String, byte[]> readZip(InputStream inputStream, Limits limits) throws IOException
+    {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+
+        try (ZipInputStream zipInputStream = new ZipInputStream(inputStream))
+        {
+            ZipEntry entry;
+
+            while ((entry = zipInputStream.getNextEntry()) != null)
+            {
+                if (!entry.isDirectory())
+                {
+                    limits.countEntry();
+                    entries.put(entry.getName(), readLimited(zipInputStream, limits));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads ustar and GNU tar archives. Long names of GNU tar are supported, other extensions are skipped.
+     */
+    private static Map<String, byte[]> readTar(InputStream inputStream, Limits limits) throws IOException
+    {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        byte[] header = new byte[TAR_BLOCK_SIZE];
+        String longName = null;
+
+        try (InputStream tarInputStream = inputStream)
+        {
+            while (true)
+            {
+                int headerLength = ByteStreams.read(tarInputStream, header, 0, TAR_BLOCK_SIZE);
+
+                if (headerLength == 0 || (headerLength == TAR_BLOCK_SIZE && header[0] == 0))
+                {
+                    return entries;
+                }
+
+                if (headerLength < TAR_BLOCK_SIZE)
+                {
+                    throw new IOException("Not a valid tar archive");
+                }
+
+                long size = parseOctal(header, TAR_SIZE_OFFSET, TAR_SIZE_LENGTH);
+
+                if (parseOctal(header, TAR_CHECKSUM_OFFSET, TAR_CHECKSUM_LENGTH) != checksum(header) || size > Integer.MAX_VALUE)
+                {
+                    throw new IOException("Not a valid tar archive");
+                }
+
+                byte type = header[TAR_TYPE_OFFSET];
+
+                if (type == TAR_TYPE_FILE || type == TAR_TYPE_FILE_OLD)
+                {
+                    limits.countEntry();
+                }
+                limits.countBytes(size);
+
+                byte[] content = new byte[(int) size];
+                ByteStreams.readFully(tarInputStream, content);
+                ByteStreams.skipFully(tarInputStream, (TAR_BLOCK_SIZE - size % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE);
+
+                if (type == TAR_TYPE_LONG_NAME)
+                {
+                    longName = readString(content, 0, content.length);
+                }
+                else if (type == TAR_TYPE_FILE || type == TAR_TYPE_FILE_OLD)
+                {
+                    entries.put(longName != null ? longName : entryName(header), content);
+                    longName = null;
+                }
+                else
+                {
+                    longName = null;
+                }
+            }
+        }
+    }
+
+    private static byte[] readLimited(InputStream inputStream, Limits limits) throws IOException
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] chunk = new byte[COPY_CHUNK_SIZE];
+        int length;
+
+        while ((length = inputStream.read(chunk)) != -1)
+        {
+            limits.countBytes(length);
+            content.write(chunk, 0, length);
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * Sum of the header bytes, counting the checksum field itself as spaces.
+     */
+    private static long checksum(byte[] header)
+    {
+        long sum = 0;
+
+        for (int i = 0; i < header.length; i++)
+        {
+            boolean checksumField = i >= TAR_CHECKSUM_OFFSET && i < TAR_CHECKSUM_OFFSET + TAR_CHECKSUM_LENGTH;
+            sum += checksumField ? ' ' : header[i] & 0xFF;
+        }
+        return sum;
+    }
+
+    private static String entryName(byte[] header)
+    {
+        String name = readString(header, 0, TAR_NAME_LENGTH);
+        String prefix = readString(header, TAR_PREFIX_OFFSET, TAR_PREFIX_LENGTH);
+
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static String readString(byte[] bytes, int offset, int length)
+    {
+        int end = offset;
+
+        while (end < offset + length && bytes[end] != 0)
+        {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static long parseOctal(byte[] bytes, int offset, int length) throws IOException
+    {
+        long value = 0;
+
+        for (int i = offset; i < offset + length; i++)
+        {
+            byte b = bytes[i];
+
+            if (b == 0 || b == ' ')
+            {
+                if (value > 0)
+                {
+                    break;
+                }
+                continue;
+            }
+
+            if (b < '0' || b > '7')
+            {
+                throw new IOException("Not a valid tar archive");
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+    private static class Limits
+    {
+        private final long maxBytes;
+        private final int maxEntries;
+        private long bytes;
+        private int entries;
+
+        Limits(long maxBytes, int maxEntries)
+        {
+            this.maxBytes = maxBytes;
+            this.maxEntries = maxEntries;
+        }
+
+        void countEntry()
+        {
+            if (++entries > maxEntries)
+            {
+                throw new BulkDeployException("Model archive has more than [" + maxEntries + "] files");
+            }
+        }
+
+        void countBytes(long count)
+        {
+            bytes += count;
+
+            if (bytes > maxBytes)
+            {
+                throw new BulkDeployException("Model archive is larger than [" + maxBytes + "] bytes when uncompressed");
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package domain;
+
+import org.dmg.pmml.FieldName;
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.evaluator.FieldValue;
+import org.jpmml.evaluator.InputField;
+import org.jpmml.evaluator.ModelField;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Field bindings of a model which are computed once at deploy time so that scoring does not need to query the
+ * evaluator schema for every request.
+ * Arrays returned by the getters are shared and must not be modified.
+ */
+public class ModelBindingPlan implements Serializable
+{
+    private static final long serialVersionUID = -2637440725296180871L;
+
+    private final InputField[] activeFields;
+    private final FieldName[] activeFieldNames;
+    private final String[] activeFieldKeys;
+    private final FieldName[] targetFieldNames;
+    private final String[] targetFieldKeys;
+    private final FieldName[] outputFieldNames;
+    private final String[] outputFieldKeys;
+    private final Map<FieldName, Integer> activeFieldIndexes;
+
+    private transient ThreadLocal<double[]> reusableNumericInputs;
+
+    private transient ScoringResponseWriter responseWriter;
+
+    private transient ModelInputParser inputParser;
+
+    public ModelBindingPlan(Evaluator evaluator)
+    {
+        List<InputField> evaluatorActiveFields = evaluator.getActiveFields();
+
+        activeFields = evaluatorActiveFields.toArray(new InputField[0]);
+        activeFieldNames = namesOf(evaluatorActiveFields);
+        activeFieldKeys = keysOf(activeFieldNames);
+        targetFieldNames = namesOf(evaluator.getTargetFields());
+        targetFieldKeys = keysOf(targetFieldNames);
+        outputFieldNames = namesOf(evaluator.getOutputFields());
+        outputFieldKeys = keysOf(outputFieldNames);
+
+        activeFieldIndexes = new HashMap<>(activeFieldNames.length * 2);
+
+        for (int i = 0; i < activeFieldNames.length; i++)
+        {
+            activeFieldIndexes.put(activeFieldNames[i], i);
+        }
+    }
+
+    public InputField[] getActiveFields()
+    {
+        return activeFields;
+    }
+
+    public FieldName[] getActiveFieldNames()
+    {
+        return activeFieldNames;
+    }
+
+    public String[] getActiveFieldKeys()
+    {
+        return activeFieldKeys;
+    }
+
+    public FieldName[] getTargetFieldNames()
+    {
+        return targetFieldNames;
+    }
+
+    public String[] getTargetFieldKeys()
+    {
+        return targetFieldKeys;
+    }
+
+    public FieldName[] getOutputFieldNames()
+    {
+        return outputFieldNames;
+    }
+
+    public String[] getOutputFieldKeys()
+    {
+        return outputFieldKeys;
+    }
+
+    /**
+     * Returns an empty argument container for a single evaluation. Containers are not cached by the thread, because
+     * a cached container would keep its values and the field bindings of an undeployed model in the heap.
+     */
+    public EvaluationArguments newArguments()
+    {
+        return new EvaluationArguments(activeFieldNames, activeFieldIndexes);
+    }
+
+    /**
+     * Returns the array of the calling thread for the values of the active fields of a scoring engine. The values
+     * of its previous use are not cleared, every element has to be set before the array is read.
+     */
+    public double[] acquireNumericInputs()
+    {
+        ThreadLocal<double[]> threadInputs = reusableNumericInputs;
+
+        if (threadInputs == null)
+        {
+            threadInputs = ThreadLocal.withInitial(() -> new double[activeFields.length]);
+            reusableNumericInputs = threadInputs;
+        }
+        return threadInputs.get();
+    }
+
+    /**
+     * Returns the json writer for scoring responses of the model, or null if the target fields cannot be written
+     * by it and responses have to be rendered by Rapidoid.
+     */
+    public ScoringResponseWriter getResponseWriter()
+    {
+        ScoringResponseWriter writer = responseWriter;
+
+        if (writer == null && ScoringResponseWriter.supports(targetFieldKeys))
+        {
+            writer = new ScoringResponseWriter(targetFieldKeys);
+            responseWriter = writer;
+        }
+        return writer;
+    }
+
+    /**
+     * Returns the parser for scoring request bodies of the model.
+     */
+    public ModelInputParser getInputParser()
+    {
+        ModelInputParser parser = inputParser;
+
+        if (parser == null)
+        {
+            parser = new ModelInputParser(this);
+            inputParser = parser;
+        }
+        return parser;
+    }
+
+    private static FieldName[] namesOf(List<? extends ModelField> fields)
+    {
+        if (fields == null)
+        {
+            return new FieldName[0];
+        }
+
+        FieldName[] names = new FieldName[fields.size()];
+
+        for (int i = 0; i < names.length; i++)
+        {
+            names[i] = fields.get(i).getName();
+        }
+        return names;
+    }
+
+    private static String[] keysOf(FieldName[] names)
+    {
+        String[] keys = new String[names.length];
+
+        for (int i = 0; i < keys.length; i++)
+        {
+            keys[i] = names[i] == null ? null : names[i].getValue();
+        }
+        return keys;
+    }
+
+    /**
+     * Evaluator arguments backed by an array of active field values.
+     * Only lookups are cheap, iteration is supported for completeness.
+     */
+    public static class EvaluationArguments extends AbstractMap<FieldName, FieldValue>
+    {
+        private final FieldName[] activeFieldNames;
+        private final Map<FieldName, Integer> activeFieldIndexes;
+        private final FieldValue[] values;
+
+        EvaluationArguments(FieldName[] activeFieldNames, Map<FieldName, Integer> activeFieldIndexes)
+        {
+            this.activeFieldNames = activeFieldNames;
+            this.activeFieldIndexes = activeFieldIndexes;
+            this.values = new FieldValue[activeFieldNames.length];
+        }
+
+        public void set(int activeFieldIndex, FieldValue value)
+        {
+            values[activeFieldIndex] = value;
+        }
+
+        /**
+         * Returns a copy of the current values in active field order which can be used as a cache key.
+         */
+        public List<FieldValue> toKey()
+        {
+            return Arrays.asList(values.clone());
+        }
+
+        @Override
+        public FieldValue get(Object key)
+        {
+            Integer index = activeFieldIndexes.get(key);
+
+            return index == null ? null : values[index];
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return activeFieldIndexes.containsKey(key);
+        }
+
+        @Override
+        public void clear()
+        {
+            Arrays.fill(values, null);
+        }
+
+        @Override
+        public Set<Entry<FieldName, FieldValue>> entrySet()
+        {
+            Set<Entry<FieldName, FieldValue>> entries = new LinkedHashSet<>();
+
+            for (int i = 0; i < values.length; i++)
+            {
+                entries.add(new SimpleImmutableEntry<>(activeFieldNames[i], values[i]));
+            }
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package domain;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import exception.InvalidInputException;
+import org.dmg.pmml.DataField;
+import org.dmg.pmml.Field;
+import org.dmg.pmml.InvalidValueTreatmentMethod;
+import org.dmg.pmml.MiningField;
+import org.jpmml.evaluator.InputField;
+import org.jpmml.evaluator.TypeUtil;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the body of a scoring request with the active fields of a model, which are known when it is deployed.
+ * The body is tokenized once and the values of the active fields are converted to their data types and stored by
+ * field index, so that scoring does not look them up by name. Fields the model does not use are skipped without
+ * reading their values, or rejected if unknown fields are not allowed.
+ * Malformed bodies and values which cannot be converted to the data type of their field are rejected before
+ * scoring. Values of fields which declare valid, invalid or missing values, or which treat invalid values other
+ * than by returning invalid, are left to the evaluator.
+ */
+public class ModelInputParser
+{
+    private static final String FIELDS_PROPERTY = "fields";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final String[] activeFieldKeys;
+    private final InputField[] activeFields;
+    private final boolean[] strictlyTyped;
+    private final Map<String, Integer> activeFieldIndexes;
+
+    public ModelInputParser(ModelBindingPlan bindingPlan)
+    {
+        activeFieldKeys = bindingPlan.getActiveFieldKeys();
+        activeFields = bindingPlan.getActiveFields();
+        strictlyTyped = new boolean[activeFields.length];
+        activeFieldIndexes = new HashMap<>(activeFieldKeys.length * 2);
+
+        for (int i = 0; i < activeFields.length; i++)
+        {
+            strictlyTyped[i] = isStrictlyTyped(activeFields[i]);
+            activeFieldIndexes.put(activeFieldKeys[i], i);
+        }
+    }
+
+    /**
+     * Parses a body in the format of {@link ModelInputFields}. The fields of the result are null if the body has none.
+     */
+    public ModelInputFields parse(byte[] body, boolean rejectUnknownFields)
+    {
+        ModelInputFields inputFields = new ModelInputFields();
+
+        if (body == null || body.length == 0)
+        {
+            return inputFields;
+        }
+
+        try (JsonParser parser = JSON_FACTORY.createParser(body))
+        {
+            expect(parser.nextToken() == JsonToken.START_OBJECT, "Request body must be a json object");
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String property = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+
+                expect(FIELDS_PROPERTY.equals(property), "Unknown property [" + property + "] in request body");
+
+                if (token != JsonToken.VALUE_NULL)
+                {
+                    expect(token == JsonToken.START_OBJECT, "Property [fields] must be a json object");
+                    inputFields.setFields(parseFields(parser, rejectUnknownFields));
+                }
+            }
+
+            expect(parser.currentToken() == JsonToken.END_OBJECT && parser.nextToken() == null, "Request body must contain a single json object");
+        } catch (JsonProcessingException e)
+        {
+            JsonLocation location = e.getLocation();
+            throw new InvalidInputException(location == null ? "Request body is not valid json"
+                    : "Request body is not valid json at line " + location.getLineNr() + ", column " + location.getColumnNr(), e);
+        } catch (IOException e)
+        {
+            throw new InvalidInputException("Request body cannot be read", e);
+        }
+
+        return inputFields;
+    }
+
+    private ParsedFields parseFields(JsonParser parser, boolean rejectUnknownFields) throws IOException
+    {
+        Object[] values = new Object[activeFieldKeys.length];
+        int count = 0;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String key = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            Integer index = activeFieldIndexes.get(key);
+
+            if (index == null)
+            {
+                expect(!rejectUnknownFields, "Unknown input field [" + key + "]");
+                parser.skipChildren();
+                count++;
+                continue;
+            }
+
+            values[index] = convert(index, readScalar(parser, token, key));
+            count++;
+        }
+
+        return new ParsedFields(activeFieldKeys, activeFieldIndexes, values, count);
+    }
+
+    private Object readScalar(JsonParser parser, JsonToken token, String key) throws IOException
+    {
+        switch (token)
+        {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new InvalidInputException("Input field [" + key + "] must have a string, number, boolean or null value");
+        }
+    }
+
+    private Object convert(int index, Object value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return TypeUtil.parseOrCast(activeFields[index].getDataType(), value);
+        } catch (RuntimeException e)
+        {
+            expect(!strictlyTyped[index], "Value [" + value + "] of input field [" + activeFieldKeys[index] + "] is not a valid "
+                    + activeFields[index].getDataType().value());
+            return value;
+        }
+    }
+
+    private static boolean isStrictlyTyped(InputField inputField)
+    {
+        Field<?> field = inputField.getField();
+        MiningField miningField = inputField.getMiningField();
+
+        if (field instanceof DataField && ((DataField) field).hasValues())
+        {
+            return false;
+        }
+        return miningField == null || miningField.getInvalidValueTreatment() == InvalidValueTreatmentMethod.RETURN_INVALID;
+    }
+
+    private static void expect(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            throw new InvalidInputException(message);
+        }
+    }
+
+    /**
+     * Input fields backed by an array of active field values, in the order of the binding plan they are parsed for.
+     * Only the values of active fields are kept, but a body with only unused fields is not taken for an empty one.
+     */
+    public static class ParsedFields extends AbstractMap<String, Object> implements Serializable
+    {
+        private static final long serialVersionUID = -4452315982264207314L;
+
+        private final String[] keys;
+        private final Map<String, Integer> indexes;
+        private final Object[] values;
+        private final int parsedFieldCount;
+
+        ParsedFields(String[] keys, Map<String, Integer> indexes, Object[] values, int parsedFieldCount)
+        {
+            this.keys = keys;
+            this.indexes = indexes;
+            this.values = values;
+            this.parsedFieldCount = parsedFieldCount;
+        }
+
+        /**
+         * Returns the value of the active field with the given index in the binding plan.
+         */
+        public Object valueAt(int activeFieldIndex)
+        {
+            return values[activeFieldIndex];
+        }
+
+        public boolean isParsedFor(ModelBindingPlan bindingPlan)
+        {
+            return keys == bindingPlan.getActiveFieldKeys();
+        }
+
+        @Override
+        public Object get(Object key)
+        {
+            Integer index = indexes.get(key);
+
+            return index == null ? null : values[index];
+        }
+
+        @Override
+        public boolean isEmpty()
+        {
+            return parsedFieldCount == 0;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet()
+        {
+            Set<Entry<String, Object>> entries = new LinkedHashSet<>();
+
+            for (int i = 0; i < values.length; i++)
+            {
+                if (values[i] != null)
+                {
+                    entries.add(new SimpleImmutableEntry<>(keys[i], values[i]));
+                }
+            }
+            return entries;
+        }
+    }
+}
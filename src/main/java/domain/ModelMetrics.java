@@ -0,0 +1,58 @@
+package domain;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and error counters of the operations of a single model.
+ */
+public class ModelMetrics
+{
+    public enum Operation
+    {
+        DEPLOY, SCORE, SUMMARY, UNDEPLOY;
+
+        private final String label = name().toLowerCase();
+
+        public String getLabel()
+        {
+            return label;
+        }
+    }
+
+    private final LatencyHistogram[] latencies;
+    private final LongAdder[] errors;
+
+    public ModelMetrics()
+    {
+        Operation[] operations = Operation.values();
+
+        latencies = new LatencyHistogram[operations.length];
+        errors = new LongAdder[operations.length];
+
+        for (int i = 0; i < operations.length; i++)
+        {
+            latencies[i] = new LatencyHistogram();
+            errors[i] = new LongAdder();
+        }
+    }
+
+    public void record(Operation operation, long nanos, boolean success)
+    {
+        latencies[operation.ordinal()].record(nanos);
+
+        if (!success)
+        {
+            errors[operation.ordinal()].increment();
+        }
+    }
+
+    public LatencyHistogram getLatency(Operation operation)
+    {
+        return latencies[operation.ordinal()];
+    }
+
+    public long getErrorCount(Operation operation)
+    {
+        return errors[operation.ordinal()].sum();
+    }
+}
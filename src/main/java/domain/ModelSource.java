@@ -0,0 +1,81 @@
+package domain;
+
+import org.pmw.tinylog.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * PMML content of a model which is either kept in memory or spooled to a temporary file until it is parsed.
+ */
+public final class ModelSource
+{
+    private static final String SPOOL_FILE_PREFIX = "lightningscorer-";
+    private static final String SPOOL_FILE_SUFFIX = ".pmml";
+
+    private final String filename;
+    private final byte[] content;
+    private final Path spoolFile;
+    private final long size;
+
+    private ModelSource(String filename, byte[] content, Path spoolFile, long size)
+    {
+        this.filename = filename;
+        this.content = content;
+        this.spoolFile = spoolFile;
+        this.size = size;
+    }
+
+    public static ModelSource of(String filename, byte[] content)
+    {
+        return new ModelSource(filename, content, null, content.length);
+    }
+
+    public static ModelSource spool(String filename, byte[] content, Path directory) throws IOException
+    {
+        Path spoolFile = Files.createTempFile(directory, SPOOL_FILE_PREFIX, SPOOL_FILE_SUFFIX);
+        Files.write(spoolFile, content);
+
+        return new ModelSource(filename, null, spoolFile, content.length);
+    }
+
+    public String getFilename()
+    {
+        return filename;
+    }
+
+    public long size()
+    {
+        return size;
+    }
+
+    public InputStream open() throws IOException
+    {
+        if (content != null)
+        {
+            return new ByteArrayInputStream(content);
+        }
+
+        return new BufferedInputStream(Files.newInputStream(spoolFile));
+    }
+
+    public void release()
+    {
+        if (spoolFile == null)
+        {
+            return;
+        }
+
+        try
+        {
+            Files.deleteIfExists(spoolFile);
+        } catch (IOException e)
+        {
+            Logger.warn(e, "Spool file [{}] could not be deleted", spoolFile);
+        }
+    }
+}
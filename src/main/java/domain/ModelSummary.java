@@ -10,6 +10,11 @@ public class ModelSummary implements Serializable
     private String summary;
     private String inputFields;
     private String outputFields;
+    private Long retainedBytes;
+    private Long registryRetainedBytes;
+    private String engine;
+    private Integer flattenedNodes;
+    private Long flattenedBytes;
 
     public ModelSummary()
     {
@@ -50,6 +55,71 @@ public class ModelSummary implements Serializable
         this.outputFields = outputFields;
     }
 
+    /**
+     * Returns the estimated heap bytes retained by the evaluator and the PMML object graph of the model.
+     */
+    public Long getRetainedBytes()
+    {
+        return retainedBytes;
+    }
+
+    public void setRetainedBytes(Long retainedBytes)
+    {
+        this.retainedBytes = retainedBytes;
+    }
+
+    /**
+     * Returns the estimated heap bytes retained by all deployed models, counting shared evaluators once.
+     */
+    public Long getRegistryRetainedBytes()
+    {
+        return registryRetainedBytes;
+    }
+
+    public void setRegistryRetainedBytes(Long registryRetainedBytes)
+    {
+        this.registryRetainedBytes = registryRetainedBytes;
+    }
+
+    /**
+     * Returns the name of the scoring engine of the model, or interpreted if it is scored by the evaluator only.
+     */
+    public String getEngine()
+    {
+        return engine;
+    }
+
+    public void setEngine(String engine)
+    {
+        this.engine = engine;
+    }
+
+    /**
+     * Returns the number of tree nodes of a flattened model.
+     */
+    public Integer getFlattenedNodes()
+    {
+        return flattenedNodes;
+    }
+
+    public void setFlattenedNodes(Integer flattenedNodes)
+    {
+        this.flattenedNodes = flattenedNodes;
+    }
+
+    /**
+     * Returns the heap bytes of the arrays a flattened model is stored in.
+     */
+    public Long getFlattenedBytes()
+    {
+        return flattenedBytes;
+    }
+
+    public void setFlattenedBytes(Long flattenedBytes)
+    {
+        this.flattenedBytes = flattenedBytes;
+    }
+
     @Override
     public String toString()
     {
@@ -57,6 +127,11 @@ public class ModelSummary implements Serializable
         sb.append("summary='").append(summary).append('\'');
         sb.append(", inputFields='").append(inputFields).append('\'');
         sb.append(", outputFields='").append(outputFields).append('\'');
+        sb.append(", retainedBytes=").append(retainedBytes);
+        sb.append(", registryRetainedBytes=").append(registryRetainedBytes);
+        sb.append(", engine='").append(engine).append('\'');
+        sb.append(", flattenedNodes=").append(flattenedNodes);
+        sb.append(", flattenedBytes=").append(flattenedBytes);
         sb.append('}');
         return sb.toString();
     }
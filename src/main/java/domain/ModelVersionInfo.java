@@ -0,0 +1,115 @@
+package domain;
+
+import java.io.Serializable;
+
+public class ModelVersionInfo implements Serializable
+{
+    private static final long serialVersionUID = 4417829015693273305L;
+
+    private int version;
+    private boolean active;
+    private String filename;
+    private long deployedAt;
+    private int warmupScorings;
+    private long warmupMillis;
+    private String contentHash;
+
+    public ModelVersionInfo()
+    {
+    }
+
+    public ModelVersionInfo(DetailedModelContent content, boolean active)
+    {
+        this.version = content.getVersion();
+        this.active = active;
+        this.filename = content.getFilename();
+        this.deployedAt = content.getDeployedAt();
+        this.warmupScorings = content.getWarmupScorings();
+        this.warmupMillis = content.getWarmupMillis();
+        this.contentHash = content.getContentHash();
+    }
+
+    public int getVersion()
+    {
+        return version;
+    }
+
+    public void setVersion(int version)
+    {
+        this.version = version;
+    }
+
+    public boolean isActive()
+    {
+        return active;
+    }
+
+    public void setActive(boolean active)
+    {
+        this.active = active;
+    }
+
+    public String getFilename()
+    {
+        return filename;
+    }
+
+    public void setFilename(String filename)
+    {
+        this.filename = filename;
+    }
+
+    public long getDeployedAt()
+    {
+        return deployedAt;
+    }
+
+    public void setDeployedAt(long deployedAt)
+    {
+        this.deployedAt = deployedAt;
+    }
+
+    public int getWarmupScorings()
+    {
+        return warmupScorings;
+    }
+
+    public void setWarmupScorings(int warmupScorings)
+    {
+        this.warmupScorings = warmupScorings;
+    }
+
+    public long getWarmupMillis()
+    {
+        return warmupMillis;
+    }
+
+    public void setWarmupMillis(long warmupMillis)
+    {
+        this.warmupMillis = warmupMillis;
+    }
+
+    public String getContentHash()
+    {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash)
+    {
+        this.contentHash = contentHash;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ModelVersionInfo{" +
+                "version=" + version +
+                ", active=" + active +
+                ", filename='" + filename + '\'' +
+                ", deployedAt=" + deployedAt +
+                ", warmupScorings=" + warmupScorings +
+                ", warmupMillis=" + warmupMillis +
+                ", contentHash='" + contentHash + '\'' +
+                '}';
+    }
+}
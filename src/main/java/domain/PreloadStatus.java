@@ -0,0 +1,81 @@
+package domain;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PreloadStatus implements Serializable
+{
+    private static final long serialVersionUID = -2870348316716125046L;
+
+    private final String path;
+    private volatile boolean ready;
+    private volatile int modelCount;
+    private final AtomicInteger preloadedCount;
+    private final AtomicInteger failedCount;
+    private volatile int skippedCount;
+    private volatile Long durationMillis;
+
+    public PreloadStatus(String path)
+    {
+        this.path = path;
+        this.preloadedCount = new AtomicInteger();
+        this.failedCount = new AtomicInteger();
+    }
+
+    public void started(int modelCount, int skippedCount)
+    {
+        this.modelCount = modelCount;
+        this.skippedCount = skippedCount;
+    }
+
+    public void preloaded()
+    {
+        preloadedCount.incrementAndGet();
+    }
+
+    public void failed()
+    {
+        failedCount.incrementAndGet();
+    }
+
+    public void finished(long durationMillis)
+    {
+        this.durationMillis = durationMillis;
+        this.ready = true;
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    public boolean isReady()
+    {
+        return ready;
+    }
+
+    public int getModelCount()
+    {
+        return modelCount;
+    }
+
+    public int getPreloadedCount()
+    {
+        return preloadedCount.get();
+    }
+
+    public int getFailedCount()
+    {
+        return failedCount.get();
+    }
+
+    public int getSkippedCount()
+    {
+        return skippedCount;
+    }
+
+    public Long getDurationMillis()
+    {
+        return durationMillis;
+    }
+}
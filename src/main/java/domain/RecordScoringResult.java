@@ -0,0 +1,72 @@
+package domain;
+
+import java.io.Serializable;
+import java.util.Map;
+
+public class RecordScoringResult implements Serializable
+{
+    private static final long serialVersionUID = -6547097630948061273L;
+
+    private Map<String, Object> result;
+    private boolean success = true;
+    private String exceptionType;
+    private String exceptionMessage;
+
+    public RecordScoringResult()
+    {
+    }
+
+    public RecordScoringResult(Map<String, Object> result)
+    {
+        this.result = result;
+    }
+
+    public static RecordScoringResult failure(Throwable error)
+    {
+        RecordScoringResult recordScoringResult = new RecordScoringResult();
+        recordScoringResult.setSuccess(false);
+        recordScoringResult.setExceptionType(error.getClass().getSimpleName());
+        recordScoringResult.setExceptionMessage(error.getMessage());
+        return recordScoringResult;
+    }
+
+    public Map<String, Object> getResult()
+    {
+        return result;
+    }
+
+    public void setResult(Map<String, Object> result)
+    {
+        this.result = result;
+    }
+
+    public boolean isSuccess()
+    {
+        return success;
+    }
+
+    public void setSuccess(boolean success)
+    {
+        this.success = success;
+    }
+
+    public String getExceptionType()
+    {
+        return exceptionType;
+    }
+
+    public void setExceptionType(String exceptionType)
+    {
+        this.exceptionType = exceptionType;
+    }
+
+    public String getExceptionMessage()
+    {
+        return exceptionMessage;
+    }
+
+    public void setExceptionMessage(String exceptionMessage)
+    {
+        this.exceptionMessage = exceptionMessage;
+    }
+}
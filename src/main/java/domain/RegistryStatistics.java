@@ -0,0 +1,50 @@
+package domain;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the tiered model registry for a single model, used to tune the memory budget.
+ */
+public class RegistryStatistics
+{
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder reloadNanos = new LongAdder();
+
+    public void recordHit()
+    {
+        hits.increment();
+    }
+
+    public void recordEviction()
+    {
+        evictions.increment();
+    }
+
+    public void recordReload(long nanos)
+    {
+        reloads.increment();
+        reloadNanos.add(nanos);
+    }
+
+    public long getHitCount()
+    {
+        return hits.sum();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictions.sum();
+    }
+
+    public long getReloadCount()
+    {
+        return reloads.sum();
+    }
+
+    public double getReloadSeconds()
+    {
+        return reloadNanos.sum() / 1e9;
+    }
+}
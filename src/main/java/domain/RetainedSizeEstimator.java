@@ -0,0 +1,183 @@
+package domain;
+
+import java.lang.ref.Reference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Estimates the heap bytes retained by an object graph by walking its fields reflectively. Object layouts of a 64-bit
+ * JVM with compressed references are assumed, which is the default for heaps below 32 GB.
+ * Classes, class loaders, threads, enum constants and the referents of weak and soft references are not counted,
+ * because they are not owned by the graph. Objects which are shared with other graphs, such as interned strings,
+ * are counted by every graph referencing them.
+ */
+public final class RetainedSizeEstimator
+{
+    private static final int OBJECT_HEADER_BYTES = 12;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+    private static final int ALIGNMENT_BYTES = 8;
+
+    private static final ClassValue<ClassLayout> LAYOUTS = new ClassValue<ClassLayout>()
+    {
+        @Override
+        protected ClassLayout computeValue(Class<?> type)
+        {
+            return new ClassLayout(type);
+        }
+    };
+
+    private RetainedSizeEstimator()
+    {
+    }
+
+    public static long estimate(Object root)
+    {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> pending = new ArrayDeque<>();
+        long size = 0;
+
+        if (root != null && !isExcluded(root))
+        {
+            visited.add(root);
+            pending.push(root);
+        }
+
+        while (!pending.isEmpty())
+        {
+            Object object = pending.pop();
+            Class<?> type = object.getClass();
+
+            if (type.isArray())
+            {
+                size += arraySize(object, type.getComponentType());
+
+                if (!type.getComponentType().isPrimitive())
+                {
+                    for (Object element : (Object[]) object)
+                    {
+                        visit(element, visited, pending);
+                    }
+                }
+                continue;
+            }
+
+            ClassLayout layout = LAYOUTS.get(type);
+            size += layout.shallowSize;
+
+            if (object instanceof Reference)
+            {
+                continue;
+            }
+
+            for (Field field : layout.referenceFields)
+            {
+                try
+                {
+                    visit(field.get(object), visited, pending);
+                } catch (IllegalAccessException e)
+                {
+                    // not counted, the field is inaccessible
+                }
+            }
+        }
+        return size;
+    }
+
+    private static void visit(Object object, Set<Object> visited, Deque<Object> pending)
+    {
+        if (object != null && !isExcluded(object) && visited.add(object))
+        {
+            pending.push(object);
+        }
+    }
+
+    private static boolean isExcluded(Object object)
+    {
+        return object instanceof Class || object instanceof ClassLoader || object instanceof Thread || object instanceof Enum;
+    }
+
+    private static long arraySize(Object array, Class<?> componentType)
+    {
+        return align(ARRAY_HEADER_BYTES + (long) Array.getLength(array) * sizeOf(componentType));
+    }
+
+    private static int sizeOf(Class<?> type)
+    {
+        if (!type.isPrimitive())
+        {
+            return REFERENCE_BYTES;
+        }
+        if (type == long.class || type == double.class)
+        {
+            return 8;
+        }
+        if (type == int.class || type == float.class)
+        {
+            return 4;
+        }
+        if (type == short.class || type == char.class)
+        {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static long align(long size)
+    {
+        return (size + ALIGNMENT_BYTES - 1) / ALIGNMENT_BYTES * ALIGNMENT_BYTES;
+    }
+
+    private static class ClassLayout
+    {
+        private final long shallowSize;
+        private final Field[] referenceFields;
+
+        ClassLayout(Class<?> type)
+        {
+            long fieldBytes = 0;
+            List<Field> fields = new ArrayList<>();
+
+            for (Class<?> current = type; current != null; current = current.getSuperclass())
+            {
+                for (Field field : current.getDeclaredFields())
+                {
+                    if (Modifier.isStatic(field.getModifiers()))
+                    {
+                        continue;
+                    }
+
+                    fieldBytes += sizeOf(field.getType());
+
+                    if (!field.getType().isPrimitive() && trySetAccessible(field))
+                    {
+                        fields.add(field);
+                    }
+                }
+            }
+
+            shallowSize = align(OBJECT_HEADER_BYTES + fieldBytes);
+            referenceFields = fields.toArray(new Field[0]);
+        }
+
+        private static boolean trySetAccessible(Field field)
+        {
+            try
+            {
+                field.setAccessible(true);
+                return true;
+            } catch (RuntimeException e)
+            {
+                return false;
+            }
+        }
+    }
+}
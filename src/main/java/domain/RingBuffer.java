@@ -0,0 +1,93 @@
+package domain;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer for many producers and a single consumer.
+ * Every slot carries a sequence number, so producers claim slots with a single compare-and-set and never wait for
+ * each other or for the consumer. When the buffer is full, {@link #offer(Object)} fails instead of blocking.
+ */
+public class RingBuffer<E>
+{
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail;
+
+    private long head;
+
+    public RingBuffer(int requestedCapacity)
+    {
+        int capacity = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+
+        mask = capacity - 1;
+        elements = new AtomicReferenceArray<>(capacity);
+        sequences = new AtomicLongArray(capacity);
+        tail = new AtomicLong();
+
+        for (int i = 0; i < capacity; i++)
+        {
+            sequences.set(i, i);
+        }
+    }
+
+    public int capacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * Adds the element if there is a free slot. Can be called from any thread.
+     */
+    public boolean offer(E element)
+    {
+        long position = tail.get();
+
+        while (true)
+        {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0)
+            {
+                if (tail.compareAndSet(position, position + 1))
+                {
+                    elements.lazySet(index, element);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            }
+            else if (difference < 0)
+            {
+                return false;
+            }
+            else
+            {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest element or returns null if there is none. Must only be called from the consumer thread.
+     */
+    public E poll()
+    {
+        int index = (int) head & mask;
+
+        if (sequences.get(index) != head + 1)
+        {
+            return null;
+        }
+
+        E element = elements.get(index);
+        elements.lazySet(index, null);
+        sequences.lazySet(index, head + mask + 1);
+        head++;
+
+        return element;
+    }
+}
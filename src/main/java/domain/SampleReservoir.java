@@ -0,0 +1,49 @@
+package domain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed size set of recently scored inputs of a model, used to warm up new versions of the model.
+ * Only one in every capture interval offered inputs is kept, replacing a random earlier one, so capturing costs a
+ * random number on most requests and needs no shared counter.
+ */
+public class SampleReservoir
+{
+    private final AtomicReferenceArray<ModelInputFields> samples;
+    private final int captureInterval;
+
+    public SampleReservoir(int size, int captureInterval)
+    {
+        this.samples = new AtomicReferenceArray<>(size);
+        this.captureInterval = Math.max(1, captureInterval);
+    }
+
+    public void offer(ModelInputFields inputFields)
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        if (captureInterval == 1 || random.nextInt(captureInterval) == 0)
+        {
+            samples.lazySet(random.nextInt(samples.length()), inputFields);
+        }
+    }
+
+    public List<ModelInputFields> getSamples()
+    {
+        List<ModelInputFields> result = new ArrayList<>(samples.length());
+
+        for (int i = 0; i < samples.length(); i++)
+        {
+            ModelInputFields sample = samples.get(i);
+
+            if (sample != null)
+            {
+                result.add(sample);
+            }
+        }
+        return result;
+    }
+}
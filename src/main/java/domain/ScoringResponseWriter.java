@@ -0,0 +1,159 @@
+package domain;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.rapidoid.data.JSON;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Writes the json response of a scoring request without reflection. Everything but the values of the target fields
+ * is encoded once when the model is deployed, and strings, numbers and booleans are written directly to a buffer
+ * which is reused by the thread. Other values are written by the json mapper of Rapidoid, so the document is the
+ * same as the one rendered for {@code new Response(new ScoringResult(result))}, with the target fields in model order.
+ */
+public class ScoringResponseWriter
+{
+    private static final byte[] PREFIX = "{\"data\":{\"result\":{".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SUFFIX = "}},\"success\":true}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    private final String[] targetFieldKeys;
+    private final byte[][] encodedTargetFieldKeys;
+
+    public ScoringResponseWriter(String[] targetFieldKeys)
+    {
+        this.targetFieldKeys = targetFieldKeys;
+        this.encodedTargetFieldKeys = new byte[targetFieldKeys.length][];
+
+        for (int i = 0; i < targetFieldKeys.length; i++)
+        {
+            String separator = i == 0 ? "\"" : ",\"";
+            encodedTargetFieldKeys[i] = (separator + new String(JsonStringEncoder.getInstance().quoteAsString(targetFieldKeys[i])) + "\":")
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Returns whether the keys can be pre-encoded. Models with unnamed target fields are rendered by Rapidoid.
+     */
+    public static boolean supports(String[] targetFieldKeys)
+    {
+        for (String targetFieldKey : targetFieldKeys)
+        {
+            if (targetFieldKey == null)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public byte[] write(Map<String, Object> result)
+    {
+        Buffer buffer = BUFFERS.get();
+        buffer.length = 0;
+
+        buffer.write(PREFIX);
+
+        for (int i = 0; i < targetFieldKeys.length; i++)
+        {
+            buffer.write(encodedTargetFieldKeys[i]);
+            writeValue(buffer, result.get(targetFieldKeys[i]));
+        }
+
+        buffer.write(SUFFIX);
+
+        return Arrays.copyOf(buffer.bytes, buffer.length);
+    }
+
+    private void writeValue(Buffer buffer, Object value)
+    {
+        if (value == null)
+        {
+            buffer.write(NULL);
+        }
+        else if (value instanceof String)
+        {
+            writeString(buffer, (String) value);
+        }
+        else if (value instanceof Double && Double.isFinite((Double) value)
+                || value instanceof Float && Float.isFinite((Float) value)
+                || value instanceof Integer || value instanceof Long || value instanceof Boolean)
+        {
+            writeAscii(buffer, value.toString());
+        }
+        else
+        {
+            try
+            {
+                buffer.write(JSON.MAPPER.writeValueAsBytes(value));
+            } catch (JsonProcessingException e)
+            {
+                throw new IllegalStateException("Scoring result value could not be written as json", e);
+            }
+        }
+    }
+
+    private void writeString(Buffer buffer, String value)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            if (c < 0x20 || c > 0x7e || c == '"' || c == '\\')
+            {
+                buffer.write((byte) '"');
+                buffer.write(JsonStringEncoder.getInstance().quoteAsUTF8(value));
+                buffer.write((byte) '"');
+                return;
+            }
+        }
+
+        buffer.write((byte) '"');
+        writeAscii(buffer, value);
+        buffer.write((byte) '"');
+    }
+
+    private void writeAscii(Buffer buffer, String value)
+    {
+        buffer.ensureCapacity(value.length());
+
+        for (int i = 0; i < value.length(); i++)
+        {
+            buffer.bytes[buffer.length++] = (byte) value.charAt(i);
+        }
+    }
+
+    private static class Buffer
+    {
+        private byte[] bytes = new byte[INITIAL_BUFFER_SIZE];
+        private int length;
+
+        void write(byte b)
+        {
+            ensureCapacity(1);
+            bytes[length++] = b;
+        }
+
+        void write(byte[] source)
+        {
+            ensureCapacity(source.length);
+            System.arraycopy(source, 0, bytes, length, source.length);
+            length += source.length;
+        }
+
+        void ensureCapacity(int additional)
+        {
+            if (length + additional > bytes.length)
+            {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+            }
+        }
+    }
+}
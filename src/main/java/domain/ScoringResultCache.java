@@ -0,0 +1,63 @@
+package domain;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.jpmml.evaluator.FieldValue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size bounded cache of scoring results of a single model.
+ * Results are keyed on the prepared values of the active fields, so inputs which only differ in fields that the model
+ * does not read or in the representation of the same value share the same entry.
+ */
+public class ScoringResultCache
+{
+    private final Cache<List<FieldValue>, Map<String, Object>> cache;
+
+    public ScoringResultCache(long maximumSize, long timeToLiveSeconds)
+    {
+        CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats();
+
+        if (timeToLiveSeconds > 0)
+        {
+            cacheBuilder.expireAfterWrite(timeToLiveSeconds, TimeUnit.SECONDS);
+        }
+
+        cache = cacheBuilder.build();
+    }
+
+    public Map<String, Object> get(List<FieldValue> key)
+    {
+        return cache.getIfPresent(key);
+    }
+
+    public void put(List<FieldValue> key, Map<String, Object> result)
+    {
+        cache.put(key, result);
+    }
+
+    public void invalidateAll()
+    {
+        cache.invalidateAll();
+    }
+
+    public CacheStatistics getStatistics()
+    {
+        CacheStats stats = cache.stats();
+
+        CacheStatistics statistics = new CacheStatistics();
+        statistics.setEnabled(true);
+        statistics.setSize(cache.size());
+        statistics.setHitCount(stats.hitCount());
+        statistics.setMissCount(stats.missCount());
+        statistics.setEvictionCount(stats.evictionCount());
+        statistics.setHitRate(stats.hitRate());
+        return statistics;
+    }
+}
@@ -0,0 +1,100 @@
+package domain;
+
+import engine.ScoringEngine;
+import org.jpmml.evaluator.Evaluator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Evaluator, binding plan and scoring engine of a PMML content, shared by all deployed models with byte-identical content.
+ * It is registered under the hash of the content until the last model referencing it releases it.
+ * The footprint is the estimated number of heap bytes the evaluator retains.
+ */
+public class SharedEvaluator
+{
+    private final String contentHash;
+    private final Evaluator evaluator;
+    private final ModelBindingPlan bindingPlan;
+    private final ScoringEngine scoringEngine;
+    private final long footprint;
+    private final Consumer<SharedEvaluator> releaseListener;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    public SharedEvaluator(String contentHash, Evaluator evaluator, ModelBindingPlan bindingPlan, ScoringEngine scoringEngine,
+                           long footprint, Consumer<SharedEvaluator> releaseListener)
+    {
+        this.contentHash = contentHash;
+        this.evaluator = evaluator;
+        this.bindingPlan = bindingPlan;
+        this.scoringEngine = scoringEngine;
+        this.footprint = footprint;
+        this.releaseListener = releaseListener;
+    }
+
+    public String getContentHash()
+    {
+        return contentHash;
+    }
+
+    public Evaluator getEvaluator()
+    {
+        return evaluator;
+    }
+
+    public ModelBindingPlan getBindingPlan()
+    {
+        return bindingPlan;
+    }
+
+    /**
+     * Returns the engine compiled for the evaluator, or null if the model is scored by the evaluator only.
+     */
+    public ScoringEngine getScoringEngine()
+    {
+        return scoringEngine;
+    }
+
+    public long getFootprint()
+    {
+        return footprint;
+    }
+
+    public int getReferenceCount()
+    {
+        return references.get();
+    }
+
+    /**
+     * Adds a reference unless the last one has already been released, in which case the evaluator must not be
+     * handed out anymore.
+     */
+    public boolean tryAcquire()
+    {
+        while (true)
+        {
+            int count = references.get();
+
+            if (count == 0)
+            {
+                return false;
+            }
+
+            if (references.compareAndSet(count, count + 1))
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back a reference. The release listener is notified once the last reference is gone.
+     */
+    public void release()
+    {
+        if (references.decrementAndGet() == 0 && releaseListener != null)
+        {
+            releaseListener.accept(this);
+        }
+    }
+}
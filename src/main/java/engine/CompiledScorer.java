@@ -0,0 +1,51 @@
+package engine;
+
+/**
+ * Base class of the scorers generated by {@link ScorerCompiler}. The generated code refers to the values a model can
+ * predict by their index in the results, and to the weights of the segments of an ensemble by segment index.
+ */
+public abstract class CompiledScorer implements ScoringEngine
+{
+    public static final String NAME = "compiled";
+
+    protected final Object[] results;
+
+    protected final double[] weights;
+
+    protected CompiledScorer(Object[] results, double[] weights)
+    {
+        this.results = results;
+        this.weights = weights;
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    /**
+     * Returns the result with the highest sum of segment weights, given the result index every segment votes for.
+     * Ties go to the result which has been voted for first, as with the evaluator.
+     */
+    protected Object majorityVote(int[] votes)
+    {
+        double[] sums = new double[results.length];
+
+        for (int i = 0; i < votes.length; i++)
+        {
+            sums[votes[i]] += weights[i];
+        }
+
+        int winner = votes[0];
+
+        for (int i = 1; i < votes.length; i++)
+        {
+            if (sums[votes[i]] > sums[winner])
+            {
+                winner = votes[i];
+            }
+        }
+        return results[winner];
+    }
+}
@@ -0,0 +1,570 @@
+package engine;
+
+import org.dmg.pmml.CompoundPredicate;
+import org.dmg.pmml.False;
+import org.dmg.pmml.Model;
+import org.dmg.pmml.Predicate;
+import org.dmg.pmml.SimplePredicate;
+import org.dmg.pmml.True;
+import org.dmg.pmml.mining.MiningModel;
+import org.dmg.pmml.mining.Segment;
+import org.dmg.pmml.mining.Segmentation;
+import org.dmg.pmml.tree.Node;
+import org.dmg.pmml.tree.TreeModel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scores a tree model, or an ensemble voting or averaging over tree models, from arrays of primitives instead of the
+ * PMML object graph. The nodes of all trees are numbered so that the children of a node are next to each other, and
+ * the compared field, operator and threshold of every node, the position of its children and its prediction are
+ * stored at its number. Predictions are result indexes for classification and values for regression.
+ * Scoring walks the arrays without allocating. The votes of an ensemble are counted in arrays reused by the thread.
+ * As with {@link ScorerCompiler}, the ensemble returns null wherever the evaluator would return no prediction.
+ */
+public class FlatTreeEnsemble implements ScoringEngine
+{
+    public static final String NAME = "flattened";
+
+    private static final byte TRUE = 0;
+    private static final byte FALSE = 1;
+    private static final byte EQUAL = 2;
+    private static final byte NOT_EQUAL = 3;
+    private static final byte LESS_THAN = 4;
+    private static final byte LESS_OR_EQUAL = 5;
+    private static final byte GREATER_THAN = 6;
+    private static final byte GREATER_OR_EQUAL = 7;
+
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    private final int[] fields;
+    private final byte[] operators;
+    private final double[] thresholds;
+    private final int[] firstChildren;
+    private final int[] childCounts;
+    private final double[] predictions;
+    private final int[] roots;
+    private final boolean[] returnLastPredictions;
+    private final double[] weights;
+    private final double divisor;
+    private final boolean classification;
+    private final boolean voting;
+    private final Object[] results;
+    private final ThreadLocal<Votes> reusableVotes;
+
+    private FlatTreeEnsemble(Builder builder)
+    {
+        fields = builder.fields;
+        operators = builder.operators;
+        thresholds = builder.thresholds;
+        firstChildren = builder.firstChildren;
+        childCounts = builder.childCounts;
+        predictions = builder.predictions;
+        roots = builder.roots;
+        returnLastPredictions = builder.returnLastPredictions;
+        weights = builder.weights;
+        divisor = builder.divisor;
+        classification = builder.classification;
+        voting = builder.voting;
+        results = builder.resultIndexes.keySet().toArray();
+        reusableVotes = voting ? ThreadLocal.withInitial(() -> new Votes(roots.length, results.length)) : null;
+    }
+
+    /**
+     * Returns whether the model is a tree model or an ensemble of tree models, which may be flattened.
+     */
+    public static boolean isTreeBased(Model model)
+    {
+        return model instanceof TreeModel || model instanceof MiningModel;
+    }
+
+    /**
+     * Flattens the tree model or ensemble of tree models of the schema.
+     */
+    public static FlatTreeEnsemble of(ModelSchema schema) throws UnsupportedModelException
+    {
+        return new Builder(schema).build(schema.getModel());
+    }
+
+    @Override
+    public Object score(double[] activeFieldValues)
+    {
+        if (voting)
+        {
+            return vote(activeFieldValues);
+        }
+
+        if (classification)
+        {
+            double prediction = scoreTree(0, activeFieldValues);
+
+            return prediction < 0 ? null : results[(int) prediction];
+        }
+
+        double sum = 0.0;
+
+        for (int i = 0; i < roots.length; i++)
+        {
+            sum += weights[i] * scoreTree(i, activeFieldValues);
+        }
+
+        sum = sum / divisor;
+
+        return Double.isNaN(sum) ? null : Double.valueOf(sum);
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    public int getNodeCount()
+    {
+        return fields.length;
+    }
+
+    public int getTreeCount()
+    {
+        return roots.length;
+    }
+
+    /**
+     * Returns the heap bytes of the arrays the trees are stored in.
+     */
+    public long getRetainedBytes()
+    {
+        long nodes = fields.length;
+        long trees = roots.length;
+
+        return 6 * ARRAY_HEADER_BYTES + nodes * (4 + 1 + 8 + 4 + 4 + 8)
+                + 3 * ARRAY_HEADER_BYTES + trees * (4 + 1 + 8);
+    }
+
+    /**
+     * Returns the result with the highest sum of tree weights, with ties going to the result voted for first.
+     */
+    private Object vote(double[] activeFieldValues)
+    {
+        Votes votes = reusableVotes.get();
+
+        for (int i = 0; i < roots.length; i++)
+        {
+            double prediction = scoreTree(i, activeFieldValues);
+
+            if (prediction < 0)
+            {
+                return null;
+            }
+            votes.treeVotes[i] = (int) prediction;
+        }
+
+        double[] sums = votes.sums;
+
+        for (int i = 0; i < sums.length; i++)
+        {
+            sums[i] = 0.0;
+        }
+
+        for (int i = 0; i < roots.length; i++)
+        {
+            sums[votes.treeVotes[i]] += weights[i];
+        }
+
+        int winner = votes.treeVotes[0];
+
+        for (int i = 1; i < roots.length; i++)
+        {
+            if (sums[votes.treeVotes[i]] > sums[winner])
+            {
+                winner = votes.treeVotes[i];
+            }
+        }
+        return results[winner];
+    }
+
+    /**
+     * Returns the prediction of a tree, or -1 respectively NaN if it has none. Of the children of a node, the first
+     * one whose predicate is true is followed.
+     */
+    private double scoreTree(int tree, double[] activeFieldValues)
+    {
+        int node = roots[tree];
+
+        if (!test(node, activeFieldValues))
+        {
+            return noPrediction();
+        }
+
+        while (true)
+        {
+            int childCount = childCounts[node];
+
+            if (childCount == 0)
+            {
+                return predictions[node];
+            }
+
+            int child = firstChildren[node];
+            int end = child + childCount;
+
+            while (child < end && !test(child, activeFieldValues))
+            {
+                child++;
+            }
+
+            if (child == end)
+            {
+                return returnLastPredictions[tree] ? predictions[node] : noPrediction();
+            }
+            node = child;
+        }
+    }
+
+    private boolean test(int node, double[] activeFieldValues)
+    {
+        switch (operators[node])
+        {
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case EQUAL:
+                return activeFieldValues[fields[node]] == thresholds[node];
+            case NOT_EQUAL:
+                return activeFieldValues[fields[node]] != thresholds[node];
+            case LESS_THAN:
+                return activeFieldValues[fields[node]] < thresholds[node];
+            case LESS_OR_EQUAL:
+                return activeFieldValues[fields[node]] <= thresholds[node];
+            case GREATER_THAN:
+                return activeFieldValues[fields[node]] > thresholds[node];
+            default:
+                return activeFieldValues[fields[node]] >= thresholds[node];
+        }
+    }
+
+    private double noPrediction()
+    {
+        return classification ? -1 : Double.NaN;
+    }
+
+    private static class Votes
+    {
+        private final int[] treeVotes;
+        private final double[] sums;
+
+        Votes(int treeCount, int resultCount)
+        {
+            treeVotes = new int[treeCount];
+            sums = new double[resultCount];
+        }
+    }
+
+    /**
+     * Numbers the nodes of every tree breadth first and fills the arrays.
+     */
+    private static class Builder
+    {
+        private final ModelSchema schema;
+        private final Map<Object, Integer> resultIndexes = new LinkedHashMap<>();
+
+        private int[] fields;
+        private byte[] operators;
+        private double[] thresholds;
+        private int[] firstChildren;
+        private int[] childCounts;
+        private double[] predictions;
+        private int[] roots;
+        private boolean[] returnLastPredictions;
+        private double[] weights;
+        private double divisor = 1.0;
+        private boolean classification;
+        private boolean voting;
+        private int nodeCount;
+
+        Builder(ModelSchema schema)
+        {
+            this.schema = schema;
+        }
+
+        FlatTreeEnsemble build(Model model) throws UnsupportedModelException
+        {
+            schema.checkModel(model);
+            classification = schema.isClassification(model);
+
+            List<TreeModel> trees = model instanceof MiningModel ? treesOf((MiningModel) model) : Collections.singletonList(asTree(model));
+
+            if (weights == null)
+            {
+                weights = new double[]{1.0};
+            }
+
+            int totalNodeCount = 0;
+
+            for (TreeModel tree : trees)
+            {
+                if (tree.getMiningFunction() != model.getMiningFunction() || tree.getNode() == null)
+                {
+                    throw new UnsupportedModelException("Trees must have a root and the mining function of the ensemble");
+                }
+                schema.checkModel(tree);
+                totalNodeCount += countNodes(tree.getNode());
+            }
+
+            fields = new int[totalNodeCount];
+            operators = new byte[totalNodeCount];
+            thresholds = new double[totalNodeCount];
+            firstChildren = new int[totalNodeCount];
+            childCounts = new int[totalNodeCount];
+            predictions = new double[totalNodeCount];
+            roots = new int[trees.size()];
+            returnLastPredictions = new boolean[trees.size()];
+
+            for (int i = 0; i < trees.size(); i++)
+            {
+                TreeModel tree = trees.get(i);
+
+                roots[i] = nodeCount;
+                returnLastPredictions[i] = tree.getNoTrueChildStrategy() == TreeModel.NoTrueChildStrategy.RETURN_LAST_PREDICTION;
+                addTree(tree.getNode());
+            }
+            return new FlatTreeEnsemble(this);
+        }
+
+        private List<TreeModel> treesOf(MiningModel model) throws UnsupportedModelException
+        {
+            Segmentation segmentation = model.getSegmentation();
+
+            if (segmentation == null || !segmentation.hasSegments()
+                    || segmentation.getLocalTransformations() != null && segmentation.getLocalTransformations().hasDerivedFields())
+            {
+                throw new UnsupportedModelException("Segmentation is not supported");
+            }
+
+            Segmentation.MultipleModelMethod method = segmentation.getMultipleModelMethod();
+            boolean weighted = method == Segmentation.MultipleModelMethod.WEIGHTED_MAJORITY_VOTE
+                    || method == Segmentation.MultipleModelMethod.WEIGHTED_AVERAGE;
+
+            voting = method == Segmentation.MultipleModelMethod.MAJORITY_VOTE || method == Segmentation.MultipleModelMethod.WEIGHTED_MAJORITY_VOTE;
+
+            if (voting != classification || !voting && !weighted && method != Segmentation.MultipleModelMethod.SUM
+                    && method != Segmentation.MultipleModelMethod.AVERAGE)
+            {
+                throw new UnsupportedModelException("Multiple model method [" + method + "] is not supported");
+            }
+
+            List<Segment> segments = segmentation.getSegments();
+            List<TreeModel> trees = new ArrayList<>(segments.size());
+            double weightSum = 0.0;
+
+            weights = new double[segments.size()];
+
+            for (int i = 0; i < segments.size(); i++)
+            {
+                Segment segment = segments.get(i);
+
+                if (!(segment.getPredicate() instanceof True))
+                {
+                    throw new UnsupportedModelException("Segments must be always selected");
+                }
+
+                trees.add(asTree(segment.getModel()));
+                weights[i] = weighted ? segment.getWeight() : 1.0;
+                weightSum += weights[i];
+            }
+
+            divisor = method == Segmentation.MultipleModelMethod.SUM ? 1.0 : weighted ? weightSum : segments.size();
+            return trees;
+        }
+
+        private static TreeModel asTree(Model model) throws UnsupportedModelException
+        {
+            if (!(model instanceof TreeModel))
+            {
+                throw new UnsupportedModelException("Model type [" + model.getClass().getSimpleName() + "] cannot be flattened");
+            }
+            return (TreeModel) model;
+        }
+
+        private static int countNodes(Node root)
+        {
+            int count = 0;
+            Deque<Node> pending = new ArrayDeque<>();
+            pending.push(root);
+
+            while (!pending.isEmpty())
+            {
+                Node node = pending.pop();
+                count++;
+
+                if (node.hasNodes())
+                {
+                    node.getNodes().forEach(pending::push);
+                }
+            }
+            return count;
+        }
+
+        private void addTree(Node root) throws UnsupportedModelException
+        {
+            Deque<Node> pending = new ArrayDeque<>();
+
+            addNode(nodeCount++, root);
+            pending.add(root);
+
+            for (int index = nodeCount - 1; !pending.isEmpty(); index++)
+            {
+                Node node = pending.poll();
+
+                if (node.getEmbeddedModel() != null)
+                {
+                    throw new UnsupportedModelException("Embedded models are not supported");
+                }
+
+                firstChildren[index] = nodeCount;
+                childCounts[index] = node.hasNodes() ? node.getNodes().size() : 0;
+
+                if (node.hasNodes())
+                {
+                    for (Node child : node.getNodes())
+                    {
+                        addNode(nodeCount++, child);
+                        pending.add(child);
+                    }
+                }
+
+                if (childCounts[index] == 2 && complements(firstChildren[index], firstChildren[index] + 1))
+                {
+                    operators[firstChildren[index] + 1] = TRUE;
+                }
+            }
+        }
+
+        /**
+         * Returns whether the predicate of the second node is true whenever the one of the first node is false, so
+         * that it does not need to be tested if the nodes are siblings. This is the case for most binary splits.
+         */
+        private boolean complements(int first, int second)
+        {
+            if (fields[first] != fields[second] || thresholds[first] != thresholds[second])
+            {
+                return operators[second] == TRUE;
+            }
+
+            switch (operators[first])
+            {
+                case EQUAL:
+                    return operators[second] == NOT_EQUAL;
+                case NOT_EQUAL:
+                    return operators[second] == EQUAL;
+                case LESS_THAN:
+                    return operators[second] == GREATER_OR_EQUAL;
+                case LESS_OR_EQUAL:
+                    return operators[second] == GREATER_THAN;
+                case GREATER_THAN:
+                    return operators[second] == LESS_OR_EQUAL;
+                case GREATER_OR_EQUAL:
+                    return operators[second] == LESS_THAN;
+                default:
+                    return operators[second] == TRUE;
+            }
+        }
+
+        private void addNode(int index, Node node) throws UnsupportedModelException
+        {
+            Predicate predicate = node.getPredicate();
+
+            if (predicate instanceof CompoundPredicate
+                    && ((CompoundPredicate) predicate).getBooleanOperator() == CompoundPredicate.BooleanOperator.SURROGATE)
+            {
+                predicate = ((CompoundPredicate) predicate).getPredicates().get(0);
+            }
+
+            if (predicate instanceof True)
+            {
+                operators[index] = TRUE;
+            }
+            else if (predicate instanceof False)
+            {
+                operators[index] = FALSE;
+            }
+            else if (predicate instanceof SimplePredicate)
+            {
+                addSimplePredicate(index, (SimplePredicate) predicate);
+            }
+            else
+            {
+                throw new UnsupportedModelException("Predicate [" + (predicate == null ? null : predicate.getClass().getSimpleName())
+                        + "] cannot be flattened");
+            }
+
+            predictions[index] = prediction(node);
+        }
+
+        private void addSimplePredicate(int index, SimplePredicate predicate) throws UnsupportedModelException
+        {
+            switch (predicate.getOperator())
+            {
+                case IS_MISSING:
+                    operators[index] = FALSE;
+                    return;
+                case IS_NOT_MISSING:
+                    operators[index] = TRUE;
+                    return;
+                case EQUAL:
+                    operators[index] = EQUAL;
+                    break;
+                case NOT_EQUAL:
+                    operators[index] = NOT_EQUAL;
+                    break;
+                case LESS_THAN:
+                    operators[index] = LESS_THAN;
+                    break;
+                case LESS_OR_EQUAL:
+                    operators[index] = LESS_OR_EQUAL;
+                    break;
+                case GREATER_THAN:
+                    operators[index] = GREATER_THAN;
+                    break;
+                case GREATER_OR_EQUAL:
+                    operators[index] = GREATER_OR_EQUAL;
+                    break;
+                default:
+                    throw new UnsupportedModelException("Operator [" + predicate.getOperator() + "] is not supported");
+            }
+
+            fields[index] = schema.indexOf(predicate.getField());
+            thresholds[index] = schema.parseThreshold(predicate.getValue());
+        }
+
+        private double prediction(Node node) throws UnsupportedModelException
+        {
+            if (!node.hasScore())
+            {
+                return classification ? -1 : Double.NaN;
+            }
+
+            if (classification)
+            {
+                Object result = schema.parseTargetValue(node.getScore());
+
+                return resultIndexes.computeIfAbsent(result, key -> resultIndexes.size());
+            }
+
+            double score = schema.parseDouble(node.getScore());
+
+            if (Double.isNaN(score))
+            {
+                throw new UnsupportedModelException("Score [" + node.getScore() + "] is not supported");
+            }
+            return score;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package engine;
+
+import domain.ModelBindingPlan;
+import org.dmg.pmml.DataField;
+import org.dmg.pmml.DataType;
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.LocalTransformations;
+import org.dmg.pmml.MathContext;
+import org.dmg.pmml.MiningField;
+import org.dmg.pmml.MiningFunction;
+import org.dmg.pmml.MiningSchema;
+import org.dmg.pmml.Model;
+import org.dmg.pmml.OpType;
+import org.dmg.pmml.OutlierTreatmentMethod;
+import org.dmg.pmml.Targets;
+import org.dmg.pmml.TransformationDictionary;
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.evaluator.InputField;
+import org.jpmml.evaluator.ModelEvaluator;
+import org.jpmml.evaluator.TargetField;
+import org.jpmml.evaluator.TypeUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The parts of a model which engines rely on, checked once for every model an engine is built for.
+ * All active fields must be continuous doubles without valid value ranges or outlier treatment, so that every number
+ * is scored as it is. There must be a single target field without target transformations, and no derived fields.
+ */
+public class ModelSchema
+{
+    private final Model model;
+    private final Map<FieldName, Integer> activeFieldIndexes;
+    private final DataType targetDataType;
+
+    private ModelSchema(Model model, Map<FieldName, Integer> activeFieldIndexes, DataType targetDataType)
+    {
+        this.model = model;
+        this.activeFieldIndexes = activeFieldIndexes;
+        this.targetDataType = targetDataType;
+    }
+
+    public static ModelSchema of(Evaluator evaluator, ModelBindingPlan bindingPlan) throws UnsupportedModelException
+    {
+        if (!(evaluator instanceof ModelEvaluator))
+        {
+            throw new UnsupportedModelException("Evaluator does not expose its PMML");
+        }
+
+        ModelEvaluator<?> modelEvaluator = (ModelEvaluator<?>) evaluator;
+        TransformationDictionary transformationDictionary = modelEvaluator.getPMML().getTransformationDictionary();
+
+        if (transformationDictionary != null && (transformationDictionary.hasDerivedFields() || transformationDictionary.hasDefineFunctions()))
+        {
+            throw new UnsupportedModelException("Transformation dictionary is not supported");
+        }
+
+        if (evaluator.getTargetFields().size() != 1 || bindingPlan.getTargetFieldKeys()[0] == null)
+        {
+            throw new UnsupportedModelException("Model must have a single named target field");
+        }
+
+        TargetField targetField = evaluator.getTargetFields().get(0);
+
+        if (targetField.getTarget() != null)
+        {
+            throw new UnsupportedModelException("Target transformations are not supported");
+        }
+
+        InputField[] activeFields = bindingPlan.getActiveFields();
+        Map<FieldName, Integer> activeFieldIndexes = new HashMap<>(activeFields.length * 2);
+
+        for (int i = 0; i < activeFields.length; i++)
+        {
+            InputField activeField = activeFields[i];
+
+            if (activeField.getDataType() != DataType.DOUBLE || activeField.getOpType() != OpType.CONTINUOUS)
+            {
+                throw new UnsupportedModelException("Active field [" + activeField.getName() + "] is not a continuous double");
+            }
+
+            if (!(activeField.getField() instanceof DataField) || ((DataField) activeField.getField()).hasIntervals()
+                    || ((DataField) activeField.getField()).hasValues())
+            {
+                throw new UnsupportedModelException("Active field [" + activeField.getName() + "] has valid or invalid values");
+            }
+
+            checkMiningField(activeField.getMiningField());
+            activeFieldIndexes.put(activeField.getName(), i);
+        }
+
+        return new ModelSchema(modelEvaluator.getModel(), activeFieldIndexes, targetField.getDataType());
+    }
+
+    public Model getModel()
+    {
+        return model;
+    }
+
+    public DataType getTargetDataType()
+    {
+        return targetDataType;
+    }
+
+    public int getActiveFieldCount()
+    {
+        return activeFieldIndexes.size();
+    }
+
+    /**
+     * Returns the index of the active field in the binding plan.
+     */
+    public int indexOf(FieldName name) throws UnsupportedModelException
+    {
+        Integer index = activeFieldIndexes.get(name);
+
+        if (index == null)
+        {
+            throw new UnsupportedModelException("Field [" + name + "] is not an active field");
+        }
+        return index;
+    }
+
+    /**
+     * Checks the parts every model of an engine has in common, including the models of segments.
+     */
+    public void checkModel(Model model) throws UnsupportedModelException
+    {
+        LocalTransformations localTransformations = model.getLocalTransformations();
+        Targets targets = model.getTargets();
+        MiningSchema miningSchema = model.getMiningSchema();
+
+        if (localTransformations != null && localTransformations.hasDerivedFields())
+        {
+            throw new UnsupportedModelException("Local transformations are not supported");
+        }
+
+        if (targets != null && targets.hasTargets())
+        {
+            throw new UnsupportedModelException("Target transformations are not supported");
+        }
+
+        if (model.getMathContext() != MathContext.DOUBLE)
+        {
+            throw new UnsupportedModelException("Math context [" + model.getMathContext() + "] is not supported");
+        }
+
+        if (miningSchema != null && miningSchema.hasMiningFields())
+        {
+            for (MiningField miningField : miningSchema.getMiningFields())
+            {
+                checkMiningField(miningField);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the model is a classification, or a regression of a double target.
+     */
+    public boolean isClassification(Model model) throws UnsupportedModelException
+    {
+        if (model.getMiningFunction() == MiningFunction.CLASSIFICATION)
+        {
+            return true;
+        }
+
+        if (model.getMiningFunction() == MiningFunction.REGRESSION)
+        {
+            if (targetDataType != DataType.DOUBLE)
+            {
+                throw new UnsupportedModelException("Regression target must be a double");
+            }
+            return false;
+        }
+        throw new UnsupportedModelException("Mining function [" + model.getMiningFunction() + "] is not supported");
+    }
+
+    /**
+     * Parses the value a field is compared with. Values which the evaluator compares differently from primitive
+     * doubles are not supported.
+     */
+    public double parseThreshold(String value) throws UnsupportedModelException
+    {
+        double threshold = parseDouble(value);
+
+        if (Double.isNaN(threshold) || Double.doubleToRawLongBits(threshold) == Double.doubleToRawLongBits(-0.0))
+        {
+            throw new UnsupportedModelException("Comparison with [" + value + "] is not supported");
+        }
+        return threshold;
+    }
+
+    /**
+     * Parses a value of the model into the data type of the target field, the same way the evaluator does.
+     */
+    public Object parseTargetValue(String value) throws UnsupportedModelException
+    {
+        if (value == null)
+        {
+            throw new UnsupportedModelException("Prediction without a value is not supported");
+        }
+
+        try
+        {
+            return TypeUtil.parseOrCast(targetDataType, value);
+        } catch (RuntimeException e)
+        {
+            throw new UnsupportedModelException("Value [" + value + "] cannot be parsed as " + targetDataType.value());
+        }
+    }
+
+    /**
+     * Parses a numeric value of the model, the same way the evaluator does for double fields.
+     */
+    public double parseDouble(String value) throws UnsupportedModelException
+    {
+        try
+        {
+            return (Double) TypeUtil.parse(DataType.DOUBLE, value);
+        } catch (RuntimeException e)
+        {
+            throw new UnsupportedModelException("Value [" + value + "] cannot be parsed as double");
+        }
+    }
+
+    private static void checkMiningField(MiningField miningField) throws UnsupportedModelException
+    {
+        if (miningField != null && miningField.getOutlierTreatment() != null
+                && miningField.getOutlierTreatment() != OutlierTreatmentMethod.AS_IS)
+        {
+            throw new UnsupportedModelException("Outlier treatment of field [" + miningField.getName() + "] is not supported");
+        }
+    }
+}
@@ -0,0 +1,653 @@
+package engine;
+
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import javassist.NotFoundException;
+import org.dmg.pmml.CompoundPredicate;
+import org.dmg.pmml.False;
+import org.dmg.pmml.FieldName;
+import org.dmg.pmml.MiningFunction;
+import org.dmg.pmml.Model;
+import org.dmg.pmml.Predicate;
+import org.dmg.pmml.SimplePredicate;
+import org.dmg.pmml.True;
+import org.dmg.pmml.general_regression.CovariateList;
+import org.dmg.pmml.general_regression.FactorList;
+import org.dmg.pmml.general_regression.GeneralRegressionModel;
+import org.dmg.pmml.general_regression.PCell;
+import org.dmg.pmml.general_regression.PPCell;
+import org.dmg.pmml.general_regression.PPMatrix;
+import org.dmg.pmml.general_regression.ParamMatrix;
+import org.dmg.pmml.general_regression.Predictor;
+import org.dmg.pmml.mining.MiningModel;
+import org.dmg.pmml.mining.Segment;
+import org.dmg.pmml.mining.Segmentation;
+import org.dmg.pmml.regression.NumericPredictor;
+import org.dmg.pmml.regression.RegressionModel;
+import org.dmg.pmml.regression.RegressionTable;
+import org.dmg.pmml.tree.Node;
+import org.dmg.pmml.tree.TreeModel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates a scorer class for a model and loads it in a class loader of its own, so that it is unloaded once the
+ * model is not deployed anymore. Tree models, ensembles of trees with voting or averaging, and regression models
+ * on continuous fields are supported.
+ * Trees become nested comparisons of the active field values with constants, and are split into methods of a
+ * bounded number of nodes which the JIT still compiles. The predicted values are parsed when the model is compiled.
+ * Wherever the evaluator would return no prediction, or decide with something else than the tree, the scorer
+ * returns null and the evaluator scores the input instead. Sums are computed in the order of the evaluator.
+ */
+public class ScorerCompiler
+{
+    private static final String GENERATED_PACKAGE = "engine.generated.";
+    private static final int MAX_NODES_PER_METHOD = 160;
+    private static final int MAX_DEPTH_PER_METHOD = 32;
+    private static final double MAX_SOFTMAX_VALUE = 700.0;
+
+    private static final AtomicInteger SCORER_COUNT = new AtomicInteger();
+
+    private final ModelSchema schema;
+    private final List<String> methods = new ArrayList<>();
+    private final Map<Object, Integer> resultIndexes = new LinkedHashMap<>();
+    private final Map<Node, Integer> subtreeSizes = new IdentityHashMap<>();
+    private double[] weights = new double[0];
+    private int methodCount;
+
+    private ScorerCompiler(ModelSchema schema)
+    {
+        this.schema = schema;
+    }
+
+    /**
+     * Generates and loads the scorer of the model of the schema.
+     */
+    public static ScoringEngine compile(ModelSchema schema) throws UnsupportedModelException
+    {
+        ScorerCompiler compiler = new ScorerCompiler(schema);
+        String scoreBody = compiler.generateModel(schema.getModel());
+
+        return compiler.define(scoreBody);
+    }
+
+    private String generateModel(Model model) throws UnsupportedModelException
+    {
+        schema.checkModel(model);
+
+        if (model instanceof TreeModel)
+        {
+            String method = generateTree((TreeModel) model, model.getMiningFunction());
+
+            return schema.isClassification(model)
+                    ? "{ int r = " + method + "(x); if (r < 0) { return null; } return results[r]; }"
+                    : "{ double r = " + method + "(x); if (Double.isNaN(r)) { return null; } return Double.valueOf(r); }";
+        }
+        else if (model instanceof MiningModel)
+        {
+            return generateMiningModel((MiningModel) model);
+        }
+        else if (model instanceof RegressionModel)
+        {
+            return generateRegressionModel((RegressionModel) model);
+        }
+        else if (model instanceof GeneralRegressionModel)
+        {
+            return generateGeneralRegressionModel((GeneralRegressionModel) model);
+        }
+        throw new UnsupportedModelException("Model type [" + model.getClass().getSimpleName() + "] is not supported");
+    }
+
+    /**
+     * Generates the methods of a tree and returns the name of the one to call. It returns the index of the predicted
+     * result for classification, the predicted value for regression, and -1 or NaN if there is no prediction.
+     */
+    private String generateTree(TreeModel tree, MiningFunction miningFunction) throws UnsupportedModelException
+    {
+        schema.checkModel(tree);
+
+        if (tree.getMiningFunction() != miningFunction)
+        {
+            throw new UnsupportedModelException("Segments must have the mining function of the ensemble");
+        }
+
+        boolean classification = schema.isClassification(tree);
+        boolean returnLastPrediction = tree.getNoTrueChildStrategy() == TreeModel.NoTrueChildStrategy.RETURN_LAST_PREDICTION;
+        Node root = tree.getNode();
+
+        if (root == null)
+        {
+            throw new UnsupportedModelException("Tree has no root node");
+        }
+
+        String rootMethod = generateNodeMethod(root, classification, returnLastPrediction);
+        String name = "tree" + methodCount++;
+
+        methods.add("private " + (classification ? "int " : "double ") + name + "(double[] x) { if (" + predicate(root.getPredicate())
+                + ") { return " + rootMethod + "(x); } return " + noPrediction(classification) + "; }");
+
+        return name;
+    }
+
+    /**
+     * Generates a method returning the prediction of a node whose predicate is true.
+     */
+    private String generateNodeMethod(Node node, boolean classification, boolean returnLastPrediction) throws UnsupportedModelException
+    {
+        String name = "node" + methodCount++;
+        StringBuilder body = new StringBuilder();
+
+        generateNode(node, classification, returnLastPrediction, body, 0, new int[1]);
+
+        methods.add("private " + (classification ? "int " : "double ") + name + "(double[] x) { " + body + " }");
+
+        return name;
+    }
+
+    private void generateNode(Node node, boolean classification, boolean returnLastPrediction, StringBuilder body, int depth,
+                              int[] methodNodeCount) throws UnsupportedModelException
+    {
+        methodNodeCount[0]++;
+
+        if (node.getEmbeddedModel() != null)
+        {
+            throw new UnsupportedModelException("Embedded models are not supported");
+        }
+
+        if (node.hasNodes())
+        {
+            for (Node child : node.getNodes())
+            {
+                body.append("if (").append(predicate(child.getPredicate())).append(") { ");
+
+                int childSize = subtreeSize(child);
+
+                if (childSize > 1 && (depth >= MAX_DEPTH_PER_METHOD || methodNodeCount[0] + childSize > MAX_NODES_PER_METHOD))
+                {
+                    body.append("return ").append(generateNodeMethod(child, classification, returnLastPrediction)).append("(x);");
+                }
+                else
+                {
+                    generateNode(child, classification, returnLastPrediction, body, depth + 1, methodNodeCount);
+                }
+                body.append(" } ");
+            }
+
+            body.append("return ").append(returnLastPrediction ? prediction(node, classification) : noPrediction(classification)).append(';');
+        }
+        else
+        {
+            body.append("return ").append(prediction(node, classification)).append(';');
+        }
+    }
+
+    private String prediction(Node node, boolean classification) throws UnsupportedModelException
+    {
+        if (!node.hasScore())
+        {
+            return noPrediction(classification);
+        }
+
+        if (classification)
+        {
+            return String.valueOf(resultIndex(schema.parseTargetValue(node.getScore())));
+        }
+
+        double score = schema.parseDouble(node.getScore());
+
+        if (Double.isNaN(score))
+        {
+            throw new UnsupportedModelException("Score [" + node.getScore() + "] is not supported");
+        }
+        return literal(score);
+    }
+
+    private static String noPrediction(boolean classification)
+    {
+        return classification ? "-1" : "Double.NaN";
+    }
+
+    private int subtreeSize(Node node)
+    {
+        Integer size = subtreeSizes.get(node);
+
+        if (size == null)
+        {
+            size = 1;
+
+            if (node.hasNodes())
+            {
+                for (Node child : node.getNodes())
+                {
+                    size += subtreeSize(child);
+                }
+            }
+            subtreeSizes.put(node, size);
+        }
+        return size;
+    }
+
+    /**
+     * Generates a boolean expression of a predicate. Input values are never missing, so surrogate predicates are
+     * decided by their first predicate.
+     */
+    private String predicate(Predicate predicate) throws UnsupportedModelException
+    {
+        if (predicate instanceof True)
+        {
+            return "true";
+        }
+        else if (predicate instanceof False)
+        {
+            return "false";
+        }
+        else if (predicate instanceof SimplePredicate)
+        {
+            return simplePredicate((SimplePredicate) predicate);
+        }
+        else if (predicate instanceof CompoundPredicate)
+        {
+            return compoundPredicate((CompoundPredicate) predicate);
+        }
+        throw new UnsupportedModelException("Predicate [" + (predicate == null ? null : predicate.getClass().getSimpleName())
+                + "] is not supported");
+    }
+
+    private String simplePredicate(SimplePredicate predicate) throws UnsupportedModelException
+    {
+        String operator;
+
+        switch (predicate.getOperator())
+        {
+            case IS_MISSING:
+                return "false";
+            case IS_NOT_MISSING:
+                return "true";
+            case EQUAL:
+                operator = " == ";
+                break;
+            case NOT_EQUAL:
+                operator = " != ";
+                break;
+            case LESS_THAN:
+                operator = " < ";
+                break;
+            case LESS_OR_EQUAL:
+                operator = " <= ";
+                break;
+            case GREATER_THAN:
+                operator = " > ";
+                break;
+            case GREATER_OR_EQUAL:
+                operator = " >= ";
+                break;
+            default:
+                throw new UnsupportedModelException("Operator [" + predicate.getOperator() + "] is not supported");
+        }
+
+        return "x[" + schema.indexOf(predicate.getField()) + "]" + operator + literal(schema.parseThreshold(predicate.getValue()));
+    }
+
+    private String compoundPredicate(CompoundPredicate predicate) throws UnsupportedModelException
+    {
+        List<Predicate> predicates = predicate.getPredicates();
+        String operator;
+
+        switch (predicate.getBooleanOperator())
+        {
+            case SURROGATE:
+                return predicate(predicates.get(0));
+            case AND:
+                operator = " && ";
+                break;
+            case OR:
+                operator = " || ";
+                break;
+            case XOR:
+                operator = " != ";
+                break;
+            default:
+                throw new UnsupportedModelException("Boolean operator [" + predicate.getBooleanOperator() + "] is not supported");
+        }
+
+        StringBuilder expression = new StringBuilder("(");
+
+        for (int i = 0; i < predicates.size(); i++)
+        {
+            expression.append(i == 0 ? "(" : operator + "(").append(predicate(predicates.get(i))).append(')');
+        }
+        return expression.append(')').toString();
+    }
+
+    private String generateMiningModel(MiningModel model) throws UnsupportedModelException
+    {
+        Segmentation segmentation = model.getSegmentation();
+
+        if (segmentation == null || !segmentation.hasSegments()
+                || segmentation.getLocalTransformations() != null && segmentation.getLocalTransformations().hasDerivedFields())
+        {
+            throw new UnsupportedModelException("Segmentation is not supported");
+        }
+
+        boolean classification = schema.isClassification(model);
+        Segmentation.MultipleModelMethod method = segmentation.getMultipleModelMethod();
+        boolean weighted;
+
+        switch (method)
+        {
+            case MAJORITY_VOTE:
+            case SUM:
+            case AVERAGE:
+                weighted = false;
+                break;
+            case WEIGHTED_MAJORITY_VOTE:
+            case WEIGHTED_AVERAGE:
+                weighted = true;
+                break;
+            default:
+                throw new UnsupportedModelException("Multiple model method [" + method + "] is not supported");
+        }
+
+        boolean voting = method == Segmentation.MultipleModelMethod.MAJORITY_VOTE || method == Segmentation.MultipleModelMethod.WEIGHTED_MAJORITY_VOTE;
+
+        if (voting != classification)
+        {
+            throw new UnsupportedModelException("Multiple model method [" + method + "] does not match the mining function");
+        }
+
+        List<Segment> segments = segmentation.getSegments();
+        weights = new double[segments.size()];
+        double weightSum = 0.0;
+        StringBuilder body = new StringBuilder(classification ? "{ int[] v = new int[" + segments.size() + "]; " : "{ double s = 0.0; ");
+
+        for (int i = 0; i < segments.size(); i++)
+        {
+            Segment segment = segments.get(i);
+
+            if (!(segment.getPredicate() instanceof True) || !(segment.getModel() instanceof TreeModel))
+            {
+                throw new UnsupportedModelException("Segments must be tree models which are always selected");
+            }
+
+            weights[i] = weighted ? segment.getWeight() : 1.0;
+            weightSum += weights[i];
+
+            String tree = generateTree((TreeModel) segment.getModel(), model.getMiningFunction());
+
+            if (classification)
+            {
+                body.append("v[").append(i).append("] = ").append(tree).append("(x); if (v[").append(i).append("] < 0) { return null; } ");
+            }
+            else if (weighted)
+            {
+                body.append("s += weights[").append(i).append("] * ").append(tree).append("(x); ");
+            }
+            else
+            {
+                body.append("s += ").append(tree).append("(x); ");
+            }
+        }
+
+        if (classification)
+        {
+            return body.append("return majorityVote(v); }").toString();
+        }
+
+        if (method != Segmentation.MultipleModelMethod.SUM)
+        {
+            body.append("s = s / ").append(literal(weighted ? weightSum : segments.size())).append("; ");
+        }
+        return body.append("if (Double.isNaN(s)) { return null; } return Double.valueOf(s); }").toString();
+    }
+
+    private String generateRegressionModel(RegressionModel model) throws UnsupportedModelException
+    {
+        boolean classification = schema.isClassification(model);
+        List<RegressionTable> tables = model.getRegressionTables();
+        RegressionModel.NormalizationMethod normalizationMethod = model.getNormalizationMethod();
+
+        if (!classification)
+        {
+            if (tables.size() != 1 || normalizationMethod != RegressionModel.NormalizationMethod.NONE)
+            {
+                throw new UnsupportedModelException("Regression must have a single table without normalization");
+            }
+            return "{ double y = " + linearPredictor(tables.get(0)) + "; if (Double.isNaN(y)) { return null; } return Double.valueOf(y); }";
+        }
+
+        if (tables.size() < 3 || normalizationMethod != RegressionModel.NormalizationMethod.SOFTMAX
+                && normalizationMethod != RegressionModel.NormalizationMethod.NONE)
+        {
+            throw new UnsupportedModelException("Classification must be multinomial with softmax or without normalization");
+        }
+
+        StringBuilder body = new StringBuilder("{ ");
+        Set<Object> categories = new HashSet<>();
+
+        for (int i = 0; i < tables.size(); i++)
+        {
+            Object category = schema.parseTargetValue(tables.get(i).getTargetCategory());
+
+            if (!categories.add(category))
+            {
+                throw new UnsupportedModelException("Target category [" + category + "] has more than one table");
+            }
+
+            body.append("double y").append(i).append(" = ").append(linearPredictor(tables.get(i))).append("; ");
+            body.append(normalizationMethod == RegressionModel.NormalizationMethod.SOFTMAX
+                    ? "if (!(Math.abs(y" + i + ") < " + literal(MAX_SOFTMAX_VALUE) + ")) { return null; } "
+                    : "if (Double.isNaN(y" + i + ")) { return null; } ");
+        }
+
+        body.append("int r = ").append(resultIndex(schema.parseTargetValue(tables.get(0).getTargetCategory()))).append("; double m = y0; ");
+
+        for (int i = 1; i < tables.size(); i++)
+        {
+            body.append("if (y").append(i).append(" > m) { m = y").append(i).append("; r = ")
+                    .append(resultIndex(schema.parseTargetValue(tables.get(i).getTargetCategory()))).append("; } ");
+        }
+        return body.append("return results[r]; }").toString();
+    }
+
+    private String linearPredictor(RegressionTable table) throws UnsupportedModelException
+    {
+        if (table.hasCategoricalPredictors() || table.hasPredictorTerms())
+        {
+            throw new UnsupportedModelException("Categorical predictors and predictor terms are not supported");
+        }
+
+        StringBuilder expression = new StringBuilder("0.0");
+
+        for (NumericPredictor predictor : table.getNumericPredictors())
+        {
+            int exponent = predictor.getExponent();
+            String value = "x[" + schema.indexOf(predictor.getField()) + "]";
+
+            expression.insert(0, '(').append(" + ").append(literal(predictor.getCoefficient())).append(" * ")
+                    .append(exponent == 1 ? value : "Math.pow(" + value + ", " + literal(exponent) + ")").append(')');
+        }
+        return "(" + expression + " + " + literal(table.getIntercept()) + ")";
+    }
+
+    private String generateGeneralRegressionModel(GeneralRegressionModel model) throws UnsupportedModelException
+    {
+        if (schema.isClassification(model))
+        {
+            throw new UnsupportedModelException("General regression classification is not supported");
+        }
+
+        GeneralRegressionModel.ModelType modelType = model.getModelType();
+        FactorList factorList = model.getFactorList();
+        CovariateList covariateList = model.getCovariateList();
+        PPMatrix ppMatrix = model.getPPMatrix();
+        ParamMatrix paramMatrix = model.getParamMatrix();
+
+        if (modelType != GeneralRegressionModel.ModelType.REGRESSION && modelType != GeneralRegressionModel.ModelType.GENERAL_LINEAR
+                && modelType != GeneralRegressionModel.ModelType.GENERALIZED_LINEAR)
+        {
+            throw new UnsupportedModelException("General regression model type [" + modelType + "] is not supported");
+        }
+
+        if (factorList != null && factorList.hasPredictors() || model.getOffsetVariable() != null || model.getOffsetValue() != null
+                || model.getTrialsVariable() != null || model.getTrialsValue() != null || paramMatrix == null)
+        {
+            throw new UnsupportedModelException("Factors, offsets and trials are not supported");
+        }
+
+        Set<FieldName> covariates = new HashSet<>();
+
+        if (covariateList != null && covariateList.hasPredictors())
+        {
+            for (Predictor predictor : covariateList.getPredictors())
+            {
+                covariates.add(predictor.getField());
+            }
+        }
+
+        Map<String, List<PPCell>> rows = new LinkedHashMap<>();
+
+        if (ppMatrix != null && ppMatrix.hasPPCells())
+        {
+            for (PPCell cell : ppMatrix.getPPCells())
+            {
+                if (cell.getTargetCategory() != null || !covariates.contains(cell.getField()))
+                {
+                    throw new UnsupportedModelException("Predictor [" + cell.getField() + "] is not a covariate");
+                }
+                rows.computeIfAbsent(cell.getParameterName(), parameterName -> new ArrayList<>()).add(cell);
+            }
+        }
+
+        String eta = "0.0";
+
+        for (PCell cell : paramMatrix.getPCells())
+        {
+            if (cell.getTargetCategory() != null)
+            {
+                throw new UnsupportedModelException("Parameters of target categories are not supported");
+            }
+
+            List<PPCell> row = rows.get(cell.getParameterName());
+
+            if (row == null)
+            {
+                eta = "(" + eta + " + " + literal(cell.getBeta()) + ")";
+                continue;
+            }
+
+            String product = "1.0";
+
+            for (PPCell rowCell : row)
+            {
+                double exponent = schema.parseDouble(rowCell.getValue());
+                String value = "x[" + schema.indexOf(rowCell.getField()) + "]";
+
+                product = "(" + product + " * " + (exponent == 1.0 ? value : "Math.pow(" + value + ", " + literal(exponent) + ")") + ")";
+            }
+            eta = "(" + eta + " + " + literal(cell.getBeta()) + " * " + product + ")";
+        }
+
+        String prediction = modelType == GeneralRegressionModel.ModelType.GENERALIZED_LINEAR ? link(model, eta) : eta;
+
+        return "{ double y = " + prediction + "; if (Double.isNaN(y)) { return null; } return Double.valueOf(y); }";
+    }
+
+    private static String link(GeneralRegressionModel model, String eta) throws UnsupportedModelException
+    {
+        GeneralRegressionModel.LinkFunction linkFunction = model.getLinkFunction();
+
+        if (linkFunction == GeneralRegressionModel.LinkFunction.IDENTITY)
+        {
+            return eta;
+        }
+        else if (linkFunction == GeneralRegressionModel.LinkFunction.LOG)
+        {
+            return "Math.exp(" + eta + ")";
+        }
+        else if (linkFunction == GeneralRegressionModel.LinkFunction.LOGIT)
+        {
+            return "(1.0 / (1.0 + Math.exp(-" + eta + ")))";
+        }
+        throw new UnsupportedModelException("Link function [" + linkFunction + "] is not supported");
+    }
+
+    private int resultIndex(Object result)
+    {
+        return resultIndexes.computeIfAbsent(result, key -> resultIndexes.size());
+    }
+
+    private static String literal(double value)
+    {
+        if (Double.isInfinite(value))
+        {
+            return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        }
+
+        String literal = Double.toString(value);
+
+        return literal.startsWith("-") ? "(" + literal + ")" : literal;
+    }
+
+    /**
+     * Compiles the generated methods in the order they have been generated, which is the order in which they call
+     * each other, and creates the scorer.
+     */
+    private ScoringEngine define(String scoreBody) throws UnsupportedModelException
+    {
+        String simpleName = "Scorer" + SCORER_COUNT.incrementAndGet();
+        ClassPool classPool = new ClassPool(true);
+        classPool.appendClassPath(new LoaderClassPath(CompiledScorer.class.getClassLoader()));
+
+        CtClass scorerClass = classPool.makeClass(GENERATED_PACKAGE + simpleName);
+
+        try
+        {
+            scorerClass.setSuperclass(classPool.get(CompiledScorer.class.getName()));
+            scorerClass.addConstructor(CtNewConstructor.make("public " + simpleName + "(Object[] results, double[] weights) "
+                    + "{ super(results, weights); }", scorerClass));
+
+            for (String method : methods)
+            {
+                scorerClass.addMethod(CtNewMethod.make(method, scorerClass));
+            }
+            scorerClass.addMethod(CtNewMethod.make("public Object score(double[] x) " + scoreBody, scorerClass));
+
+            byte[] bytecode = scorerClass.toBytecode();
+            Class<?> type = new ScorerClassLoader(CompiledScorer.class.getClassLoader()).define(scorerClass.getName(), bytecode);
+
+            return (ScoringEngine) type.getConstructor(Object[].class, double[].class)
+                    .newInstance(resultIndexes.keySet().toArray(), weights);
+        } catch (CannotCompileException | NotFoundException | IOException | ReflectiveOperationException | LinkageError e)
+        {
+            throw new UnsupportedModelException("Scorer cannot be generated: " + e.getMessage());
+        } finally
+        {
+            scorerClass.detach();
+        }
+    }
+
+    private static class ScorerClassLoader extends ClassLoader
+    {
+        ScorerClassLoader(ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytecode)
+        {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}
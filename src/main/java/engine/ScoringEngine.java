@@ -0,0 +1,19 @@
+package engine;
+
+/**
+ * Scores a model on the values of its active fields, in the order of the binding plan, without going through the
+ * PMML object graph. Engines only exist for models whose active fields are all continuous doubles, and they are
+ * only used for inputs which have a value for each of them.
+ */
+public interface ScoringEngine
+{
+    /**
+     * Returns the value of the target field for the given active field values. The array must not be modified.
+     */
+    Object score(double[] activeFieldValues);
+
+    /**
+     * Returns the name of the engine, as reported in the model summary.
+     */
+    String getName();
+}
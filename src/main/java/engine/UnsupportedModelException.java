@@ -0,0 +1,15 @@
+package engine;
+
+/**
+ * Thrown when a model uses a construct which cannot be scored by an engine. The model is scored by the JPMML
+ * evaluator then.
+ */
+public class UnsupportedModelException extends Exception
+{
+    private static final long serialVersionUID = -3862013518437312417L;
+
+    public UnsupportedModelException(String message)
+    {
+        super(message);
+    }
+}
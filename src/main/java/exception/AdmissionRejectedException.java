@@ -0,0 +1,19 @@
+package exception;
+
+public class AdmissionRejectedException extends LightingScorerException
+{
+    private static final long serialVersionUID = 4021873265190137465L;
+
+    private static final int SERVICE_UNAVAILABLE = 503;
+
+    public AdmissionRejectedException(String message)
+    {
+        super(message);
+    }
+
+    @Override
+    public int getHttpStatus()
+    {
+        return SERVICE_UNAVAILABLE;
+    }
+}
@@ -0,0 +1,16 @@
+package exception;
+
+public class BulkDeployException extends LightingScorerException
+{
+    private static final long serialVersionUID = 6035213784271640927L;
+
+    public BulkDeployException(String message)
+    {
+        super(message);
+    }
+
+    public BulkDeployException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
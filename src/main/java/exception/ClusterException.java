@@ -0,0 +1,19 @@
+package exception;
+
+public class ClusterException extends LightingScorerException
+{
+    private static final long serialVersionUID = 3305190723117514821L;
+
+    private static final int BAD_GATEWAY = 502;
+
+    public ClusterException(String message)
+    {
+        super(message);
+    }
+
+    @Override
+    public int getHttpStatus()
+    {
+        return BAD_GATEWAY;
+    }
+}
@@ -0,0 +1,19 @@
+package exception;
+
+public class DeadlineExceededException extends LightingScorerException
+{
+    private static final long serialVersionUID = -8120957736201484467L;
+
+    private static final int GATEWAY_TIMEOUT = 504;
+
+    public DeadlineExceededException(String message)
+    {
+        super(message);
+    }
+
+    @Override
+    public int getHttpStatus()
+    {
+        return GATEWAY_TIMEOUT;
+    }
+}
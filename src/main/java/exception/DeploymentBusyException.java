@@ -0,0 +1,24 @@
+package exception;
+
+public class DeploymentBusyException extends LightingScorerException
+{
+    private static final long serialVersionUID = -3187392470616651294L;
+
+    private static final int SERVICE_UNAVAILABLE = 503;
+
+    public DeploymentBusyException(String message)
+    {
+        super(message);
+    }
+
+    public DeploymentBusyException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+
+    @Override
+    public int getHttpStatus()
+    {
+        return SERVICE_UNAVAILABLE;
+    }
+}
@@ -0,0 +1,16 @@
+package exception;
+
+public class DeploymentNotFoundException extends LightingScorerException
+{
+    private static final long serialVersionUID = 6402913786537119024L;
+
+    public DeploymentNotFoundException(String message)
+    {
+        super(message);
+    }
+
+    public DeploymentNotFoundException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,16 @@
+package exception;
+
+public class InvalidInputException extends LightingScorerException
+{
+    private static final long serialVersionUID = 7309564410368211573L;
+
+    public InvalidInputException(String message)
+    {
+        super(message);
+    }
+
+    public InvalidInputException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
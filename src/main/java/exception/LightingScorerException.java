@@ -2,6 +2,8 @@ package exception;
 
 public class LightingScorerException extends RuntimeException
 {
+    private static final int BAD_REQUEST = 400;
+
     public LightingScorerException(String message)
     {
         super(message);
@@ -11,4 +13,9 @@ public class LightingScorerException extends RuntimeException
     {
         super(message, cause);
     }
+
+    public int getHttpStatus()
+    {
+        return BAD_REQUEST;
+    }
 }
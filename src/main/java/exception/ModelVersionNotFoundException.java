@@ -0,0 +1,11 @@
+package exception;
+
+public class ModelVersionNotFoundException extends LightingScorerException
+{
+    private static final long serialVersionUID = -3196051428812204371L;
+
+    public ModelVersionNotFoundException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,19 @@
+package exception;
+
+public class NotReadyException extends LightingScorerException
+{
+    private static final long serialVersionUID = 6185209374407321953L;
+
+    private static final int SERVICE_UNAVAILABLE = 503;
+
+    public NotReadyException(String message)
+    {
+        super(message);
+    }
+
+    @Override
+    public int getHttpStatus()
+    {
+        return SERVICE_UNAVAILABLE;
+    }
+}
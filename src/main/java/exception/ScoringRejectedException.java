@@ -0,0 +1,19 @@
+package exception;
+
+public class ScoringRejectedException extends LightingScorerException
+{
+    private static final long serialVersionUID = 2716004551360848219L;
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    public ScoringRejectedException(String message)
+    {
+        super(message);
+    }
+
+    @Override
+    public int getHttpStatus()
+    {
+        return TOO_MANY_REQUESTS;
+    }
+}
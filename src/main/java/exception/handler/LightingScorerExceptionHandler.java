@@ -17,7 +17,7 @@ public class LightingScorerExceptionHandler implements ErrorHandler
         {
             if (error instanceof LightingScorerException)
             {
-                resp.code(400);
+                resp.code(((LightingScorerException) error).getHttpStatus());
             }
 
             return U.map("data", null, "success", false,
@@ -0,0 +1,268 @@
+package service.impl;
+
+import domain.DetailedModelContent;
+import domain.SharedEvaluator;
+import exception.AdmissionRejectedException;
+import org.pmw.tinylog.Logger;
+import org.rapidoid.annotation.Service;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control of deploys against a limit on the estimated heap bytes of the evaluators in use.
+ * Before a model is parsed its footprint is predicted from the size of its PMML and the ratio observed on earlier
+ * deploys, and reserved until the parsed model is admitted, so concurrent deploys cannot overshoot the limit together.
+ * The reject policy refuses the deploy right away if it would not fit, the queue policy waits until undeploys,
+ * evictions or other deploys free enough memory. Only deploys which do not block a request thread may wait.
+ * After parsing, a model which does not fit is rejected by both policies.
+ * Models sharing the evaluator of an already deployed model do not take additional memory and are always admitted.
+ */
+@Service
+public class AdmissionService
+{
+    public enum Policy
+    {
+        NONE, REJECT, QUEUE
+    }
+
+    private static final double DEFAULT_MEMORY_LIMIT_RATIO = 0.7;
+    private static final long DEFAULT_QUEUE_TIMEOUT_MILLIS = 30000;
+
+    private ConfigurationService configuration;
+
+    private ModelLoaderService modelLoaderService;
+
+    private Policy policy;
+
+    private long memoryLimit;
+
+    private long queueTimeoutMillis;
+
+    private AtomicLong observedSourceBytes;
+
+    private AtomicLong observedFootprintBytes;
+
+    private LongAdder rejections;
+
+    private ReentrantLock capacityLock;
+
+    private Condition capacityFreed;
+
+    private long reservedBytes;
+
+    @Inject
+    public AdmissionService(ConfigurationService configuration, ModelLoaderService modelLoaderService)
+    {
+        this.configuration = configuration;
+        this.modelLoaderService = modelLoaderService;
+    }
+
+    @PostConstruct
+    private void initialize()
+    {
+        String configuredPolicy = configuration.getString("admission.policy", Policy.NONE.name());
+
+        try
+        {
+            policy = Policy.valueOf(configuredPolicy.toUpperCase());
+        } catch (IllegalArgumentException e)
+        {
+            Logger.error("Unknown admission policy [{}]. Deploys are admitted without limit", configuredPolicy);
+            policy = Policy.NONE;
+        }
+
+        memoryLimit = configuration.getLong("admission.memoryLimit", (long) (Runtime.getRuntime().maxMemory() * DEFAULT_MEMORY_LIMIT_RATIO));
+        queueTimeoutMillis = configuration.getLong("admission.queueTimeoutMillis", DEFAULT_QUEUE_TIMEOUT_MILLIS);
+        observedSourceBytes = new AtomicLong();
+        observedFootprintBytes = new AtomicLong();
+        rejections = new LongAdder();
+        capacityLock = new ReentrantLock();
+        capacityFreed = capacityLock.newCondition();
+
+        modelLoaderService.addReleaseListener(this::signalCapacityFreed);
+
+        if (policy != Policy.NONE)
+        {
+            Logger.info("Deploys above a memory limit of [{}] bytes are handled with admission policy [{}]", memoryLimit, policy);
+        }
+    }
+
+    public Policy getPolicy()
+    {
+        return policy;
+    }
+
+    public long getMemoryLimit()
+    {
+        return memoryLimit;
+    }
+
+    public long getRejectionCount()
+    {
+        return rejections.sum();
+    }
+
+    /**
+     * Reserves the predicted footprint of a model before it is parsed, and returns the reserved bytes which have to be
+     * released with {@link #release} once the model is admitted or has failed. If waiting is allowed, the queue
+     * policy blocks the calling thread until the model fits or the queue timeout expires, otherwise a model which
+     * does not fit is rejected right away.
+     */
+    public long awaitCapacity(String modelId, long sourceBytes, boolean mayWait)
+    {
+        if (policy == Policy.NONE)
+        {
+            return 0;
+        }
+
+        long predictedFootprint = predictFootprint(sourceBytes);
+
+        capacityLock.lock();
+
+        try
+        {
+            if (tryReserve(predictedFootprint))
+            {
+                return predictedFootprint;
+            }
+
+            if (policy == Policy.REJECT || !mayWait || predictedFootprint > memoryLimit)
+            {
+                reject(modelId, predictedFootprint);
+            }
+
+            Logger.info("Deployment of model id [{}] waits for [{}] bytes of memory", modelId, predictedFootprint);
+
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+
+            while (!tryReserve(predictedFootprint))
+            {
+                if (remainingNanos <= 0)
+                {
+                    reject(modelId, predictedFootprint);
+                }
+                remainingNanos = capacityFreed.awaitNanos(remainingNanos);
+            }
+            return predictedFootprint;
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            reject(modelId, predictedFootprint);
+            return 0;
+        } finally
+        {
+            capacityLock.unlock();
+        }
+    }
+
+    /**
+     * Checks a loaded model, whose evaluator is already counted, before it is activated. The bytes reserved for the
+     * model itself are not counted again. The caller releases the evaluator if the model is rejected.
+     */
+    public void admit(String modelId, DetailedModelContent content, long sourceBytes, long reservedFootprint)
+    {
+        if (policy == Policy.NONE)
+        {
+            return;
+        }
+
+        SharedEvaluator sharedEvaluator = content.getSharedEvaluator();
+
+        if (sharedEvaluator != null && sharedEvaluator.getReferenceCount() > 1)
+        {
+            return;
+        }
+
+        observedSourceBytes.addAndGet(sourceBytes);
+        observedFootprintBytes.addAndGet(content.getFootprint());
+
+        capacityLock.lock();
+
+        try
+        {
+            if (modelLoaderService.getResidentBytes() + reservedBytes - reservedFootprint > memoryLimit)
+            {
+                reject(modelId, content.getFootprint());
+            }
+        } finally
+        {
+            capacityLock.unlock();
+        }
+    }
+
+    /**
+     * Releases bytes reserved by {@link #awaitCapacity} and wakes up deploys waiting for memory.
+     */
+    public void release(long reservedFootprint)
+    {
+        if (reservedFootprint == 0)
+        {
+            return;
+        }
+
+        capacityLock.lock();
+
+        try
+        {
+            reservedBytes -= reservedFootprint;
+            capacityFreed.signalAll();
+        } finally
+        {
+            capacityLock.unlock();
+        }
+    }
+
+    private long predictFootprint(long sourceBytes)
+    {
+        long sourceTotal = observedSourceBytes.get();
+
+        return sourceTotal == 0 ? sourceBytes : (long) (sourceBytes * ((double) observedFootprintBytes.get() / sourceTotal));
+    }
+
+    /**
+     * Reserves the footprint if it fits next to the evaluators in use and the other reservations. Called with the
+     * capacity lock held.
+     */
+    private boolean tryReserve(long footprint)
+    {
+        if (modelLoaderService.getResidentBytes() + reservedBytes + footprint > memoryLimit)
+        {
+            return false;
+        }
+
+        reservedBytes += footprint;
+        return true;
+    }
+
+    private void signalCapacityFreed()
+    {
+        if (policy != Policy.QUEUE)
+        {
+            return;
+        }
+
+        capacityLock.lock();
+
+        try
+        {
+            capacityFreed.signalAll();
+        } finally
+        {
+            capacityLock.unlock();
+        }
+    }
+
+    private void reject(String modelId, long footprint)
+    {
+        rejections.increment();
+        Logger.warn("Deployment of model id [{}] with an estimated footprint of [{}] bytes is rejected, [{}] of [{}] bytes are in use",
+                modelId, footprint, modelLoaderService.getResidentBytes(), memoryLimit);
+        throw new AdmissionRejectedException("Deployment would exceed the memory limit of the model registry");
+    }
+}
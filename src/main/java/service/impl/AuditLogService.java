@@ -0,0 +1,317 @@
+package service.impl;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.CountingOutputStream;
+import domain.AuditEvent;
+import domain.RingBuffer;
+import org.pmw.tinylog.Logger;
+import org.rapidoid.annotation.Service;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Optional audit log of scoring requests.
+ * Scoring threads only decide whether a request is sampled and put a reference to its inputs and results into a
+ * bounded ring buffer. A background writer serializes the events as newline delimited json into a rolling file.
+ * If the writer falls behind and the buffer is full, events are dropped and counted instead of slowing down scoring.
+ */
+@Service
+public class AuditLogService
+{
+    private static final String LOG_FILENAME = "scoring-audit.ndjson";
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final long DEFAULT_MAX_FILE_SIZE = 100L * 1024 * 1024;
+    private static final int DEFAULT_MAX_FILES = 10;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+    private ConfigurationService configuration;
+
+    private boolean enabled;
+
+    private double sampleRate;
+
+    private RingBuffer<AuditEvent> buffer;
+
+    private Path directory;
+
+    private long maxFileSize;
+
+    private int maxFiles;
+
+    private ObjectMapper objectMapper;
+
+    private CountingOutputStream output;
+
+    private JsonGenerator generator;
+
+    private Thread writer;
+
+    private volatile boolean running;
+
+    private final LongAdder sampledOutCount = new LongAdder();
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    private final LongAdder writtenCount = new LongAdder();
+
+    private final LongAdder failedCount = new LongAdder();
+
+    @Inject
+    public AuditLogService(ConfigurationService configuration)
+    {
+        this.configuration = configuration;
+    }
+
+    @PostConstruct
+    private void initialize()
+    {
+        enabled = configuration.getBoolean("audit.enabled", false);
+
+        if (!enabled)
+        {
+            return;
+        }
+
+        sampleRate = Math.min(1.0, Math.max(0.0, configuration.getDouble("audit.sampleRate", 1.0)));
+        buffer = new RingBuffer<>(configuration.getInt("audit.bufferSize", DEFAULT_BUFFER_SIZE));
+        maxFileSize = configuration.getLong("audit.maxFileSize", DEFAULT_MAX_FILE_SIZE);
+        maxFiles = Math.max(1, configuration.getInt("audit.maxFiles", DEFAULT_MAX_FILES));
+        objectMapper = new ObjectMapper();
+
+        try
+        {
+            directory = Paths.get(configuration.getString("audit.path", "audit"));
+            Files.createDirectories(directory);
+            openLogFile();
+        } catch (IOException e)
+        {
+            Logger.error(e, "Audit log could not be opened. Scoring requests will not be audited");
+            enabled = false;
+            return;
+        }
+
+        running = true;
+        writer = new Thread(this::write, "scoring-audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "scoring-audit-shutdown"));
+
+        Logger.info("Scoring audit log is written to [{}] with sample rate [{}]", directory.toAbsolutePath(), sampleRate);
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Records a scoring request if the audit log is enabled and the request is sampled. Failed requests are always
+     * recorded. Never blocks the calling thread.
+     */
+    public void record(String modelId, Map<String, Object> fields, Map<String, Object> result, Throwable error, long startNanos)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+
+        if (error == null && sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate)
+        {
+            sampledOutCount.increment();
+            return;
+        }
+
+        long durationMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+
+        if (!buffer.offer(new AuditEvent(System.currentTimeMillis(), modelId, durationMicros, fields, result, error)))
+        {
+            droppedCount.increment();
+        }
+    }
+
+    public long getSampledOutCount()
+    {
+        return sampledOutCount.sum();
+    }
+
+    public long getDroppedCount()
+    {
+        return droppedCount.sum();
+    }
+
+    public long getWrittenCount()
+    {
+        return writtenCount.sum();
+    }
+
+    public long getFailedCount()
+    {
+        return failedCount.sum();
+    }
+
+    private void write()
+    {
+        while (running)
+        {
+            if (!drain())
+            {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Writes all buffered events and flushes the file. Returns false if there was nothing to write.
+     */
+    private boolean drain()
+    {
+        AuditEvent event = buffer.poll();
+
+        if (event == null)
+        {
+            return false;
+        }
+
+        while (event != null)
+        {
+            try
+            {
+                writeEvent(event);
+                writtenCount.increment();
+
+                if (output.getCount() >= maxFileSize)
+                {
+                    rollLogFile();
+                }
+            } catch (Exception e)
+            {
+                failedCount.increment();
+                Logger.warn(e, "Audit event of model id [{}] could not be written", event.getModelId());
+                resetGenerator();
+            }
+            event = buffer.poll();
+        }
+
+        try
+        {
+            generator.flush();
+        } catch (IOException e)
+        {
+            Logger.warn(e, "Audit log could not be flushed");
+        }
+        return true;
+    }
+
+    private void writeEvent(AuditEvent event) throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeNumberField("timestamp", event.getTimestamp());
+        generator.writeStringField("modelId", event.getModelId());
+        generator.writeNumberField("durationMicros", event.getDurationMicros());
+        generator.writeBooleanField("success", event.isSuccess());
+        generator.writeObjectField("fields", event.getFields());
+
+        if (event.isSuccess())
+        {
+            generator.writeObjectField("result", event.getResult());
+        }
+        else
+        {
+            generator.writeStringField("exceptionType", event.getExceptionType());
+            generator.writeStringField("exceptionMessage", event.getExceptionMessage());
+        }
+
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    private void openLogFile() throws IOException
+    {
+        output = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(directory.resolve(LOG_FILENAME),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), OUTPUT_BUFFER_SIZE));
+        generator = createGenerator();
+    }
+
+    private JsonGenerator createGenerator() throws IOException
+    {
+        JsonGenerator jsonGenerator = objectMapper.getFactory().createGenerator(output, JsonEncoding.UTF8);
+        jsonGenerator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        jsonGenerator.setRootValueSeparator(null);
+        return jsonGenerator;
+    }
+
+    /**
+     * A generator which failed in the middle of an event cannot continue, so the partial line is terminated and
+     * writing continues with a new generator on the same file.
+     */
+    private void resetGenerator()
+    {
+        try
+        {
+            generator = createGenerator();
+            generator.writeRaw('\n');
+        } catch (IOException e)
+        {
+            Logger.warn(e, "Audit log writer could not be reset");
+        }
+    }
+
+    /**
+     * Renames the current file to scoring-audit.ndjson.1, shifting older files by one and deleting the oldest.
+     */
+    private void rollLogFile() throws IOException
+    {
+        generator.close();
+        output.close();
+
+        Files.deleteIfExists(directory.resolve(LOG_FILENAME + "." + maxFiles));
+
+        for (int i = maxFiles - 1; i >= 1; i--)
+        {
+            Path rolledFile = directory.resolve(LOG_FILENAME + "." + i);
+
+            if (Files.exists(rolledFile))
+            {
+                Files.move(rolledFile, directory.resolve(LOG_FILENAME + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        Files.move(directory.resolve(LOG_FILENAME), directory.resolve(LOG_FILENAME + ".1"), StandardCopyOption.REPLACE_EXISTING);
+
+        openLogFile();
+    }
+
+    private void close()
+    {
+        running = false;
+
+        try
+        {
+            writer.join(SHUTDOWN_TIMEOUT_MILLIS);
+            generator.close();
+            output.close();
+        } catch (Exception e)
+        {
+            Logger.error(e, "Exception during closing of audit log");
+        }
+    }
+}
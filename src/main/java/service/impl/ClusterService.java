@@ -0,0 +1,322 @@
+package service.impl;
+
+import com.google.common.io.ByteStreams;
+import domain.ConsistentHashRing;
+import domain.ForwardedResponse;
+import exception.ClusterException;
+import org.pmw.tinylog.Logger;
+import org.rapidoid.annotation.Service;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Shards model ids over the nodes of a cluster, if cluster mode is enabled. Every node is configured with the same
+ * list of nodes, and model ids are assigned to replication factor many of them by consistent hashing, so all nodes
+ * agree on the owners of a model id without talking to each other.
+ * Requests are sent to other nodes as they are received, with a header which marks them as forwarded. A node always
+ * handles a forwarded request itself, so requests are never forwarded twice. Connections to other nodes are kept
+ * alive between requests.
+ */
+@Service
+public class ClusterService
+{
+    public static final String FORWARDED_HEADER = "X-LightningScorer-Forwarded";
+
+    private static final int DEFAULT_REPLICATION_FACTOR = 2;
+    private static final int DEFAULT_VIRTUAL_NODES = 128;
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+
+    private ConfigurationService configuration;
+
+    private boolean enabled;
+
+    private String self;
+
+    private int replicationFactor;
+
+    private int connectTimeoutMillis;
+
+    private int readTimeoutMillis;
+
+    private ConsistentHashRing ring;
+
+    private ExecutorService replicationExecutor;
+
+    private AtomicInteger nextOwner;
+
+    private LongAdder forwardedCount;
+
+    private LongAdder failedForwardCount;
+
+    @Inject
+    public ClusterService(ConfigurationService configuration)
+    {
+        this.configuration = configuration;
+    }
+
+    @PostConstruct
+    private void initialize()
+    {
+        enabled = configuration.getBoolean("cluster.enabled", false);
+        nextOwner = new AtomicInteger();
+        forwardedCount = new LongAdder();
+        failedForwardCount = new LongAdder();
+
+        if (!enabled)
+        {
+            return;
+        }
+
+        List<String> nodes = parseNodes(configuration.getString("cluster.nodes", ""));
+        self = normalize(configuration.getString("cluster.self", ""));
+
+        if (!nodes.contains(self))
+        {
+            throw new IllegalStateException("Cluster node [" + self + "] is not one of the cluster nodes " + nodes);
+        }
+
+        replicationFactor = Math.max(1, configuration.getInt("cluster.replicationFactor", DEFAULT_REPLICATION_FACTOR));
+        connectTimeoutMillis = Math.max(1, configuration.getInt("cluster.connectTimeoutMillis", DEFAULT_CONNECT_TIMEOUT_MILLIS));
+        readTimeoutMillis = Math.max(1, configuration.getInt("cluster.readTimeoutMillis", DEFAULT_READ_TIMEOUT_MILLIS));
+        ring = new ConsistentHashRing(nodes, configuration.getInt("cluster.virtualNodes", DEFAULT_VIRTUAL_NODES));
+
+        replicationExecutor = Executors.newFixedThreadPool(nodes.size(), runnable ->
+        {
+            Thread thread = new Thread(runnable, "cluster-replication");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Logger.info("Cluster node [{}] of {} with replication factor [{}]", self, nodes, Math.min(replicationFactor, nodes.size()));
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public List<String> getOwners(String modelId)
+    {
+        return enabled ? ring.ownersOf(modelId, replicationFactor) : Collections.emptyList();
+    }
+
+    /**
+     * Returns whether this node handles a request for the model id itself, which it does if cluster mode is off, the
+     * request has been forwarded by another node or this node owns the model id.
+     */
+    public boolean isHandledLocally(String modelId, boolean forwarded)
+    {
+        return !enabled || forwarded || getOwners(modelId).contains(self);
+    }
+
+    /**
+     * Sends a request for a model id to one of its owners. The owners take turns, and the next one is tried if an
+     * owner cannot be reached. The response of the owner is returned whatever its status.
+     */
+    public ForwardedResponse forward(String modelId, String method, String uri, Map<String, String> headers, byte[] body)
+    {
+        List<String> owners = getOwners(modelId);
+        int first = Math.floorMod(nextOwner.getAndIncrement(), owners.size());
+
+        for (int i = 0; i < owners.size(); i++)
+        {
+            String owner = owners.get((first + i) % owners.size());
+
+            try
+            {
+                ForwardedResponse response = send(owner, method, uri, headers, body);
+                forwardedCount.increment();
+                return response;
+            } catch (IOException e)
+            {
+                failedForwardCount.increment();
+                Logger.warn("Request for model id [{}] could not be forwarded to [{}]: [{}]", modelId, owner, e.getMessage());
+            }
+        }
+
+        throw new ClusterException("No owner of model id [" + modelId + "] can be reached, owners are " + owners);
+    }
+
+    /**
+     * Sends a request which changes a model id, such as a deploy or an undeploy, to all owners but this node, in
+     * parallel. This node applies the request before, if it owns the model id. If this node does not own the model id
+     * and all owners reject the request, the response of the first owner is returned so the client sees why. If only
+     * some owners fail, the replicas differ and an exception names the owners on which the request took effect,
+     * including this node, and the owners on which it failed.
+     */
+    public ForwardedResponse replicate(String modelId, String method, String uri, Map<String, String> headers, byte[] body)
+    {
+        List<String> owners = getOwners(modelId);
+        List<String> remoteOwners = owners.stream().filter(owner -> !owner.equals(self)).collect(Collectors.toList());
+        List<ForwardedResponse> responses = sendToAll(remoteOwners, method, uri, headers, body);
+        boolean handledBySelf = owners.contains(self);
+
+        List<String> failedOwners = new ArrayList<>();
+        boolean allRejected = !handledBySelf;
+
+        for (int i = 0; i < remoteOwners.size(); i++)
+        {
+            ForwardedResponse response = responses.get(i);
+
+            if (response == null || !response.isSuccessful())
+            {
+                failedOwners.add(remoteOwners.get(i));
+            }
+            allRejected &= response != null && !response.isSuccessful();
+        }
+
+        if (allRejected)
+        {
+            return responses.get(0);
+        }
+
+        if (!failedOwners.isEmpty())
+        {
+            List<String> succeededOwners = owners.stream().filter(owner -> !failedOwners.contains(owner)).collect(Collectors.toList());
+
+            throw new ClusterException("Request for model id [" + modelId + "] took effect on owners " + succeededOwners
+                    + " but failed on owners " + failedOwners);
+        }
+
+        return handledBySelf ? null : responses.get(0);
+    }
+
+    /**
+     * Sends a request to all other nodes, in parallel, for requests which concern every model id.
+     */
+    public void broadcast(String method, String uri, Map<String, String> headers, byte[] body)
+    {
+        List<String> otherNodes = ring.getNodes().stream().filter(node -> !node.equals(self)).collect(Collectors.toList());
+        List<ForwardedResponse> responses = sendToAll(otherNodes, method, uri, headers, body);
+        List<String> failedNodes = new ArrayList<>();
+
+        for (int i = 0; i < otherNodes.size(); i++)
+        {
+            if (responses.get(i) == null || !responses.get(i).isSuccessful())
+            {
+                failedNodes.add(otherNodes.get(i));
+            }
+        }
+
+        if (!failedNodes.isEmpty())
+        {
+            throw new ClusterException("Request failed on cluster nodes " + failedNodes);
+        }
+    }
+
+    public long getForwardedCount()
+    {
+        return forwardedCount.sum();
+    }
+
+    public long getFailedForwardCount()
+    {
+        return failedForwardCount.sum();
+    }
+
+    /**
+     * Returns the responses in the order of the nodes, null for the nodes which could not be reached.
+     */
+    private List<ForwardedResponse> sendToAll(List<String> nodes, String method, String uri, Map<String, String> headers, byte[] body)
+    {
+        List<CompletableFuture<ForwardedResponse>> futures = new ArrayList<>(nodes.size());
+
+        for (String node : nodes)
+        {
+            futures.add(CompletableFuture.supplyAsync(() ->
+            {
+                try
+                {
+                    ForwardedResponse response = send(node, method, uri, headers, body);
+                    forwardedCount.increment();
+                    return response;
+                } catch (IOException e)
+                {
+                    failedForwardCount.increment();
+                    Logger.warn("Request [{} {}] could not be sent to [{}]: [{}]", method, uri, node, e.getMessage());
+                    return null;
+                }
+            }, replicationExecutor));
+        }
+
+        return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    }
+
+    private ForwardedResponse send(String node, String method, String uri, Map<String, String> headers, byte[] body) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL(node + uri).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setRequestProperty(FORWARDED_HEADER, self);
+        headers.forEach(connection::setRequestProperty);
+
+        if (body != null && body.length > 0 && !"GET".equals(method) && !"DELETE".equals(method))
+        {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+
+            try (OutputStream out = connection.getOutputStream())
+            {
+                out.write(body);
+            }
+        }
+
+        int status = connection.getResponseCode();
+        byte[] responseBody;
+
+        try (InputStream in = status >= HttpURLConnection.HTTP_BAD_REQUEST ? connection.getErrorStream() : connection.getInputStream())
+        {
+            responseBody = in == null ? new byte[0] : ByteStreams.toByteArray(in);
+        }
+
+        return new ForwardedResponse(node, status, connection.getContentType(), responseBody);
+    }
+
+    /**
+     * The nodes are base urls separated by commas, such as {@code http://localhost:8095,http://localhost:8096}.
+     */
+    private static List<String> parseNodes(String nodes)
+    {
+        List<String> parsed = new ArrayList<>();
+
+        for (String node : nodes.replace("[", "").replace("]", "").split(","))
+        {
+            if (!node.trim().isEmpty() && !parsed.contains(normalize(node)))
+            {
+                parsed.add(normalize(node));
+            }
+        }
+
+        if (parsed.isEmpty())
+        {
+            throw new IllegalStateException("Cluster mode needs at least one node in [scorer.cluster.nodes]");
+        }
+
+        return parsed;
+    }
+
+    private static String normalize(String node)
+    {
+        String trimmed = node.trim();
+
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+}
@@ -0,0 +1,91 @@
+package service.impl;
+
+import org.pmw.tinylog.Logger;
+import org.rapidoid.annotation.Service;
+import org.rapidoid.config.Conf;
+import org.rapidoid.config.Config;
+
+@Service
+public class ConfigurationService
+{
+    private static final String ROOT_SECTION = "scorer";
+
+    public String getString(String key, String defaultValue)
+    {
+        String value = getValue(key);
+
+        return value == null ? defaultValue : value;
+    }
+
+    public int getInt(String key, int defaultValue)
+    {
+        return (int) getLong(key, defaultValue);
+    }
+
+    public long getLong(String key, long defaultValue)
+    {
+        String value = getValue(key);
+
+        if (value == null)
+        {
+            return defaultValue;
+        }
+
+        try
+        {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e)
+        {
+            Logger.warn("Configuration [{}.{}] is not a number: [{}]. Using default [{}]", ROOT_SECTION, key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public double getDouble(String key, double defaultValue)
+    {
+        String value = getValue(key);
+
+        if (value == null)
+        {
+            return defaultValue;
+        }
+
+        try
+        {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e)
+        {
+            Logger.warn("Configuration [{}.{}] is not a number: [{}]. Using default [{}]", ROOT_SECTION, key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue)
+    {
+        String value = getValue(key);
+
+        if (value == null)
+        {
+            return defaultValue;
+        }
+
+        value = value.trim().toLowerCase();
+        return value.equals("true") || value.equals("1");
+    }
+
+    private String getValue(String key)
+    {
+        String[] path = key.split("\\.");
+
+        Config config = Conf.section(ROOT_SECTION);
+
+        for (int i = 0; i < path.length - 1; i++)
+        {
+            config = config.sub(path[i]);
+        }
+
+        Object value = config.get(path[path.length - 1]);
+
+        return value == null ? null : String.valueOf(value);
+    }
+}
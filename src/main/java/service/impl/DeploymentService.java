@@ -0,0 +1,490 @@
+package service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import domain.BulkDeployEntryResult;
+import domain.BulkDeployManifest;
+import domain.BulkDeployResult;
+import domain.DeploymentStatus;
+import domain.DetailedModelContent;
+import domain.ModelArchive;
+import domain.ModelInputFields;
+import domain.ModelMetrics;
+import domain.ModelSource;
+import exception.BulkDeployException;
+import exception.DeploymentBusyException;
+import exception.DeploymentNotFoundException;
+import org.pmw.tinylog.Logger;
+import org.rapidoid.annotation.Service;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deploy pipeline of models. Models are parsed and verified either on the calling thread or on a dedicated bounded
+ * executor, warmed up, and they are put into the model holder only after they are ready to be scored.
+ */
+@Service
+public class DeploymentService
+{
+    private static final int DEFAULT_QUEUE_SIZE = 64;
+    private static final long DEFAULT_SPOOL_THRESHOLD = 1024 * 1024;
+    private static final long DEFAULT_MAX_ARCHIVE_BYTES = 256L * 1024 * 1024;
+    private static final int DEFAULT_MAX_ARCHIVE_ENTRIES = 10000;
+    private static final String MANIFEST_FILENAME = "manifest.json";
+    private static final List<String> MODEL_FILE_EXTENSIONS = Arrays.asList(".xml", ".pmml");
+
+    private ModelHolderService modelHolderService;
+
+    private ModelLoaderService modelLoaderService;
+
+    private ModelStoreService modelStoreService;
+
+    private ConfigurationService configuration;
+
+    private MetricsService metricsService;
+
+    private WarmupService warmupService;
+
+    private AdmissionService admissionService;
+
+    private ThreadPoolExecutor deploymentExecutor;
+
+    private ExecutorService bulkDeploymentExecutor;
+
+    private ObjectMapper objectMapper;
+
+    private ConcurrentHashMap<String, DeploymentStatus> modelIdToDeploymentStatusMap;
+
+    private long spoolThreshold;
+
+    private Path spoolDirectory;
+
+    private long maxArchiveBytes;
+
+    private int maxArchiveEntries;
+
+    @Inject
+    public DeploymentService(ModelHolderService modelHolderService, ModelLoaderService modelLoaderService,
+                             ModelStoreService modelStoreService, ConfigurationService configuration,
+                             MetricsService metricsService, WarmupService warmupService, AdmissionService admissionService)
+    {
+        this.modelHolderService = modelHolderService;
+        this.modelLoaderService = modelLoaderService;
+        this.modelStoreService = modelStoreService;
+        this.configuration = configuration;
+        this.metricsService = metricsService;
+        this.warmupService = warmupService;
+        this.admissionService = admissionService;
+    }
+
+    @PostConstruct
+    private void initialize()
+    {
+        int parallelism = configuration.getInt("deploy.parallelism", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        int queueSize = configuration.getInt("deploy.queueSize", DEFAULT_QUEUE_SIZE);
+
+        AtomicInteger threadCount = new AtomicInteger();
+
+        deploymentExecutor = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "model-deployer-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+
+        AtomicInteger bulkThreadCount = new AtomicInteger();
+
+        bulkDeploymentExecutor = Executors.newFixedThreadPool(
+                configuration.getInt("deploy.bulkParallelism", Runtime.getRuntime().availableProcessors()), runnable -> {
+                    Thread thread = new Thread(runnable, "bulk-model-deployer-" + bulkThreadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        objectMapper = new ObjectMapper();
+        modelIdToDeploymentStatusMap = new ConcurrentHashMap<>();
+
+        spoolThreshold = configuration.getLong("deploy.spoolThreshold", DEFAULT_SPOOL_THRESHOLD);
+        spoolDirectory = Paths.get(configuration.getString("deploy.spoolPath", System.getProperty("java.io.tmpdir")));
+        maxArchiveBytes = configuration.getLong("deploy.maxArchiveBytes", DEFAULT_MAX_ARCHIVE_BYTES);
+        maxArchiveEntries = configuration.getInt("deploy.maxArchiveEntries", DEFAULT_MAX_ARCHIVE_ENTRIES);
+    }
+
+    /**
+     * Deploys the model from the given source as a new version of the model id. The new version is warmed up with the
+     * given samples, or with samples captured from recent requests if there are none, before it replaces the active
+     * version. Ownership of the source is passed to this method, it is released as soon as it is not needed anymore.
+     * Deploys which hold a request thread must not wait for memory, they are rejected by the queue admission policy
+     * like by the reject policy.
+     */
+    public void deploy(String modelId, ModelSource source, Map<String, String> additionalParameters, List<ModelInputFields> warmupSamples,
+                       boolean mayWaitForMemory)
+    {
+        long startNanos = System.nanoTime();
+        DetailedModelContent content = null;
+
+        try
+        {
+            long reservedFootprint = admissionService.awaitCapacity(modelId, source.size(), mayWaitForMemory);
+
+            try
+            {
+                content = modelLoaderService.load(modelId, source, additionalParameters);
+                admissionService.admit(modelId, content, source.size(), reservedFootprint);
+            } finally
+            {
+                admissionService.release(reservedFootprint);
+            }
+            warmupService.warmUp(modelId, content, warmupSamples);
+        } catch (RuntimeException e)
+        {
+            if (content != null)
+            {
+                content.releaseEvaluator();
+            }
+            source.release();
+            metricsService.record(modelId, ModelMetrics.Operation.DEPLOY, startNanos, false);
+            throw e;
+        }
+
+        DetailedModelContent deployedContent = content;
+
+        modelHolderService.put(modelId, content, () -> modelStoreService.save(modelId, deployedContent, source));
+        metricsService.record(modelId, ModelMetrics.Operation.DEPLOY, startNanos, true);
+
+        Logger.info("Model uploaded with model id: [{}]", modelId);
+    }
+
+    /**
+     * Deploys all models of a zip or tar archive. Models are parsed and verified in parallel, and the ones which are
+     * ready are committed together in a single step once all of them are done, so requests never see only some of them.
+     * If atomic is set, nothing is committed unless every model of the archive can be deployed.
+     * Model ids and additional parameters are read from the given manifest, or from a manifest.json in the archive.
+     * Without a manifest, every .xml and .pmml file is deployed with its name without extension as model id.
+     */
+    public BulkDeployResult deployArchive(byte[] archive, byte[] manifest, boolean atomic)
+    {
+        long start = System.nanoTime();
+
+        Map<String, byte[]> files = readArchive(archive);
+        List<BulkDeployManifest.Entry> entries = readManifest(files, manifest);
+
+        int entryCount = entries.size();
+        BulkDeployEntryResult[] results = new BulkDeployEntryResult[entryCount];
+        List<Future<DetailedModelContent>> loads = new ArrayList<>(entryCount);
+        long[] startNanos = new long[entryCount];
+        Set<String> modelIds = new HashSet<>();
+
+        for (int i = 0; i < entryCount; i++)
+        {
+            BulkDeployManifest.Entry entry = entries.get(i);
+            String modelId = entry.getModelId();
+            byte[] content = entry.getFile() == null ? null : files.get(entry.getFile());
+            Future<DetailedModelContent> load = null;
+
+            if (Strings.isNullOrEmpty(modelId))
+            {
+                results[i] = BulkDeployEntryResult.failure(modelId, entry.getFile(), new IllegalArgumentException("Model id is empty"));
+            }
+            else if (!modelIds.add(modelId))
+            {
+                results[i] = BulkDeployEntryResult.failure(modelId, entry.getFile(), new IllegalArgumentException("Model id is listed more than once"));
+            }
+            else if (content == null)
+            {
+                results[i] = BulkDeployEntryResult.failure(modelId, entry.getFile(), new IllegalArgumentException("File not found in archive"));
+            }
+            else
+            {
+                int index = i;
+
+                load = bulkDeploymentExecutor.submit(() -> {
+                    startNanos[index] = System.nanoTime();
+                    long reservedFootprint = admissionService.awaitCapacity(modelId, content.length, false);
+                    DetailedModelContent loadedContent = null;
+
+                    try
+                    {
+                        loadedContent = modelLoaderService.load(modelId, ModelSource.of(entry.getFile(), content), entry.getAdditionalParameters());
+                        admissionService.admit(modelId, loadedContent, content.length, reservedFootprint);
+                        admissionService.release(reservedFootprint);
+                        reservedFootprint = 0;
+                        warmupService.warmUp(modelId, loadedContent, null);
+                    } catch (RuntimeException e)
+                    {
+                        admissionService.release(reservedFootprint);
+
+                        if (loadedContent != null)
+                        {
+                            loadedContent.releaseEvaluator();
+                        }
+                        throw e;
+                    }
+                    return loadedContent;
+                });
+            }
+            loads.add(load);
+        }
+
+        DetailedModelContent[] contents = new DetailedModelContent[entryCount];
+        boolean allLoaded = true;
+
+        for (int i = 0; i < entryCount; i++)
+        {
+            BulkDeployManifest.Entry entry = entries.get(i);
+
+            if (loads.get(i) == null)
+            {
+                allLoaded = false;
+                continue;
+            }
+
+            try
+            {
+                contents[i] = loads.get(i).get();
+                results[i] = new BulkDeployEntryResult(entry.getModelId(), entry.getFile());
+            } catch (ExecutionException e)
+            {
+                allLoaded = false;
+                metricsService.record(entry.getModelId(), ModelMetrics.Operation.DEPLOY, startNanos[i], false);
+                results[i] = BulkDeployEntryResult.failure(entry.getModelId(), entry.getFile(), e.getCause());
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new BulkDeployException("Bulk deployment is interrupted", e);
+            }
+        }
+
+        if (atomic && !allLoaded)
+        {
+            BulkDeployException notCommitted = new BulkDeployException("Not deployed, because other models of the archive failed");
+
+            for (int i = 0; i < entryCount; i++)
+            {
+                if (contents[i] != null)
+                {
+                    contents[i].releaseEvaluator();
+                    results[i] = BulkDeployEntryResult.failure(entries.get(i).getModelId(), entries.get(i).getFile(), notCommitted);
+                }
+            }
+        }
+        else
+        {
+            Map<String, DetailedModelContent> modelIdToContentMap = new LinkedHashMap<>();
+            Map<String, String> modelIdToFileMap = new HashMap<>();
+
+            for (int i = 0; i < entryCount; i++)
+            {
+                if (contents[i] != null)
+                {
+                    modelIdToContentMap.put(entries.get(i).getModelId(), contents[i]);
+                    modelIdToFileMap.put(entries.get(i).getModelId(), entries.get(i).getFile());
+                }
+            }
+
+            modelHolderService.putAll(modelIdToContentMap, (modelId, content) -> modelStoreService.save(modelId, content,
+                    ModelSource.of(modelIdToFileMap.get(modelId), files.get(modelIdToFileMap.get(modelId)))));
+
+            for (int i = 0; i < entryCount; i++)
+            {
+                if (contents[i] != null)
+                {
+                    metricsService.record(entries.get(i).getModelId(), ModelMetrics.Operation.DEPLOY, startNanos[i], true);
+                }
+            }
+        }
+
+        BulkDeployResult result = new BulkDeployResult(Arrays.asList(results), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        Logger.info("Bulk deployment finished with [{}] deployed and [{}] failed models in [{}] ms",
+                result.getDeployedCount(), result.getFailedCount(), result.getDurationMillis());
+
+        return result;
+    }
+
+    public DeploymentStatus submit(String modelId, String filename, byte[] pmmlContent, Map<String, String> additionalParameters,
+                                   List<ModelInputFields> warmupSamples)
+    {
+        DeploymentStatus status = new DeploymentStatus(UUID.randomUUID().toString(), modelId);
+
+        ModelSource source = toQueuedSource(modelId, filename, pmmlContent);
+
+        DeploymentStatus previousStatus = modelIdToDeploymentStatusMap.put(modelId, status);
+
+        try
+        {
+            deploymentExecutor.execute(() -> {
+                status.started();
+
+                try
+                {
+                    deploy(modelId, source, additionalParameters, warmupSamples, true);
+                    status.deployed();
+                } catch (Exception e)
+                {
+                    Logger.error(e, "Asynchronous deployment of model id [{}] failed", modelId);
+                    status.failed(e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e)
+        {
+            source.release();
+            restoreStatus(modelId, status, previousStatus);
+            Logger.warn("Deployment queue is full. Deployment of model id [{}] is rejected", modelId);
+            throw new DeploymentBusyException("Deployment queue is full, try again later", e);
+        }
+
+        Logger.info("Deployment of model id [{}] is queued with ticket [{}]", modelId, status.getTicket());
+
+        return status;
+    }
+
+    /**
+     * Puts back the status of the earlier deployment of the model id after a rejected submit, which may still be
+     * queued or running, unless a later submit has replaced the status meanwhile.
+     */
+    private void restoreStatus(String modelId, DeploymentStatus rejectedStatus, DeploymentStatus previousStatus)
+    {
+        if (previousStatus == null)
+        {
+            modelIdToDeploymentStatusMap.remove(modelId, rejectedStatus);
+        }
+        else
+        {
+            modelIdToDeploymentStatusMap.replace(modelId, rejectedStatus, previousStatus);
+        }
+    }
+
+    /**
+     * Large uploads are spooled to disk while they wait in the deployment queue, so that their content does not stay
+     * on the heap until a deployer thread picks them up.
+     */
+    private ModelSource toQueuedSource(String modelId, String filename, byte[] pmmlContent)
+    {
+        if (pmmlContent.length < spoolThreshold)
+        {
+            return ModelSource.of(filename, pmmlContent);
+        }
+
+        try
+        {
+            return ModelSource.spool(filename, pmmlContent, spoolDirectory);
+        } catch (IOException e)
+        {
+            Logger.warn(e, "Upload of model id [{}] could not be spooled to disk, it will be kept in memory", modelId);
+            return ModelSource.of(filename, pmmlContent);
+        }
+    }
+
+    private Map<String, byte[]> readArchive(byte[] archive)
+    {
+        try
+        {
+            return ModelArchive.read(archive, maxArchiveBytes, maxArchiveEntries);
+        } catch (IOException e)
+        {
+            Logger.error(e, "Model archive could not be read");
+            throw new BulkDeployException("Model archive could not be read", e);
+        }
+    }
+
+    private List<BulkDeployManifest.Entry> readManifest(Map<String, byte[]> files, byte[] manifest)
+    {
+        byte[] archivedManifest = files.remove(MANIFEST_FILENAME);
+        byte[] manifestContent = manifest != null ? manifest : archivedManifest;
+
+        if (manifestContent == null)
+        {
+            List<BulkDeployManifest.Entry> entries = new ArrayList<>();
+
+            for (String file : files.keySet())
+            {
+                String modelId = modelIdOf(file);
+
+                if (modelId != null)
+                {
+                    entries.add(new BulkDeployManifest.Entry(modelId, file, null));
+                }
+            }
+            return entries;
+        }
+
+        try
+        {
+            List<BulkDeployManifest.Entry> entries = objectMapper.readValue(manifestContent, BulkDeployManifest.class).getModels();
+
+            if (entries == null)
+            {
+                throw new BulkDeployException("Manifest does not list any models");
+            }
+            return entries;
+        } catch (IOException e)
+        {
+            Logger.error(e, "Manifest of model archive could not be read");
+            throw new BulkDeployException("Manifest of model archive could not be read", e);
+        }
+    }
+
+    /**
+     * Returns the name of a model file without its extension, or null if the file is not a model file.
+     */
+    static String modelIdOf(String file)
+    {
+        String name = file.substring(file.lastIndexOf('/') + 1);
+
+        for (String extension : MODEL_FILE_EXTENSIONS)
+        {
+            if (name.length() > extension.length() && name.toLowerCase().endsWith(extension))
+            {
+                return name.substring(0, name.length() - extension.length());
+            }
+        }
+        return null;
+    }
+
+    public DeploymentStatus getStatus(String modelId)
+    {
+        DeploymentStatus status = modelIdToDeploymentStatusMap.get(modelId);
+
+        if (status == null)
+        {
+            Logger.error("No asynchronous deployment found for model id: [{}]", modelId);
+            throw new DeploymentNotFoundException("No asynchronous deployment found for model id: " + modelId);
+        }
+
+        return status;
+    }
+
+    public void forget(String modelId)
+    {
+        modelIdToDeploymentStatusMap.computeIfPresent(modelId, (id, status) -> status.isFinished() ? null : status);
+    }
+
+    public void forgetAll()
+    {
+        modelIdToDeploymentStatusMap.values().removeIf(DeploymentStatus::isFinished);
+    }
+}
@@ -0,0 +1,346 @@
+package service.impl;
+
+import domain.LatencyHistogram;
+import domain.ModelMetrics;
+import domain.RegistryStatistics;
+import org.rapidoid.annotation.Service;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-model latency and error metrics of deploy, score, summary and undeploy operations.
+ * A model gets its own series with its first successful operation and loses them when it is undeployed. Operations
+ * of models which are not deployed, including undeploy itself, are recorded in the series with an empty model label.
+ */
+@Service
+public class MetricsService
+{
+    private static final String LATENCY_METRIC = "lightningscorer_operation_duration_seconds";
+    private static final String ERROR_METRIC = "lightningscorer_operation_errors_total";
+    private static final String DEPLOYED_MODELS_METRIC = "lightningscorer_models_deployed";
+    private static final String SHARED_EVALUATORS_METRIC = "lightningscorer_shared_evaluators";
+    private static final String RESIDENT_BYTES_METRIC = "lightningscorer_registry_resident_bytes";
+    private static final String MEMORY_BUDGET_METRIC = "lightningscorer_registry_memory_budget_bytes";
+    private static final String EVICTED_MODELS_METRIC = "lightningscorer_registry_evicted_models";
+    private static final String REGISTRY_HITS_METRIC = "lightningscorer_registry_hits_total";
+    private static final String REGISTRY_EVICTIONS_METRIC = "lightningscorer_registry_evictions_total";
+    private static final String REGISTRY_RELOADS_METRIC = "lightningscorer_registry_reloads_total";
+    private static final String REGISTRY_RELOAD_SECONDS_METRIC = "lightningscorer_registry_reload_seconds_total";
+    private static final String ADMISSION_REJECTIONS_METRIC = "lightningscorer_admission_rejections_total";
+    private static final String SCHEDULER_QUEUE_DEPTH_METRIC = "lightningscorer_scheduler_queue_depth";
+    private static final String SCHEDULER_ACTIVE_THREADS_METRIC = "lightningscorer_scheduler_active_threads";
+    private static final String SCHEDULER_SHED_METRIC = "lightningscorer_scheduler_shed_total";
+    private static final String SCHEDULER_EXPIRED_METRIC = "lightningscorer_scheduler_expired_total";
+    private static final String MICROBATCH_BATCHES_METRIC = "lightningscorer_microbatch_batches_total";
+    private static final String MICROBATCH_RECORDS_METRIC = "lightningscorer_microbatch_records_total";
+    private static final String CLUSTER_FORWARDED_METRIC = "lightningscorer_cluster_forwarded_total";
+    private static final String CLUSTER_FORWARD_FAILURES_METRIC = "lightningscorer_cluster_forward_failures_total";
+    private static final String AUDIT_EVENTS_METRIC = "lightningscorer_audit_events_total";
+    private static final String UNTRACKED_MODEL_ID = "";
+
+    private ModelHolderService modelHolderService;
+
+    private AuditLogService auditLogService;
+
+    private ModelLoaderService modelLoaderService;
+
+    private AdmissionService admissionService;
+
+    private ScoringSchedulerService scoringScheduler;
+
+    private MicroBatchingService microBatchingService;
+
+    private ClusterService clusterService;
+
+    private ConcurrentHashMap<String, ModelMetrics> modelIdToMetricsMap;
+
+    private ModelMetrics untrackedMetrics;
+
+    private String[] bucketLabels;
+
+    @Inject
+    public MetricsService(ModelHolderService modelHolderService, AuditLogService auditLogService, ModelLoaderService modelLoaderService,
+                          AdmissionService admissionService, ScoringSchedulerService scoringScheduler,
+                          MicroBatchingService microBatchingService, ClusterService clusterService)
+    {
+        this.modelHolderService = modelHolderService;
+        this.auditLogService = auditLogService;
+        this.modelLoaderService = modelLoaderService;
+        this.admissionService = admissionService;
+        this.scoringScheduler = scoringScheduler;
+        this.microBatchingService = microBatchingService;
+        this.clusterService = clusterService;
+    }
+
+    @PostConstruct
+    private void initialize()
+    {
+        modelIdToMetricsMap = new ConcurrentHashMap<>();
+        untrackedMetrics = new ModelMetrics();
+
+        bucketLabels = new String[LatencyHistogram.getBucketCount() + 1];
+
+        for (int i = 0; i < LatencyHistogram.getBucketCount(); i++)
+        {
+            bucketLabels[i] = String.valueOf(LatencyHistogram.getUpperBoundSeconds(i));
+        }
+        bucketLabels[LatencyHistogram.getBucketCount()] = "+Inf";
+    }
+
+    public void record(String modelId, ModelMetrics.Operation operation, long startNanos, boolean success)
+    {
+        long nanos = System.nanoTime() - startNanos;
+
+        metricsOf(modelId, operation, success).record(operation, nanos, success);
+    }
+
+    public void forget(String modelId)
+    {
+        if (modelId != null)
+        {
+            modelIdToMetricsMap.remove(modelId);
+        }
+    }
+
+    public void forgetAll()
+    {
+        modelIdToMetricsMap.clear();
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text exposition format. Operations which have not been recorded yet for a
+     * model are left out.
+     */
+    public String getPrometheusText()
+    {
+        StringBuilder text = new StringBuilder(4096);
+
+        text.append("# HELP ").append(LATENCY_METRIC).append(" Latency of model operations in seconds.\n");
+        text.append("# TYPE ").append(LATENCY_METRIC).append(" histogram\n");
+
+        appendLatencies(text, UNTRACKED_MODEL_ID, untrackedMetrics);
+        modelIdToMetricsMap.forEach((modelId, metrics) -> appendLatencies(text, modelId, metrics));
+
+        text.append("# HELP ").append(ERROR_METRIC).append(" Failed model operations.\n");
+        text.append("# TYPE ").append(ERROR_METRIC).append(" counter\n");
+
+        appendErrors(text, UNTRACKED_MODEL_ID, untrackedMetrics);
+        modelIdToMetricsMap.forEach((modelId, metrics) -> appendErrors(text, modelId, metrics));
+
+        text.append("# HELP ").append(DEPLOYED_MODELS_METRIC).append(" Number of deployed models.\n");
+        text.append("# TYPE ").append(DEPLOYED_MODELS_METRIC).append(" gauge\n");
+        text.append(DEPLOYED_MODELS_METRIC).append(' ').append(modelHolderService.size()).append('\n');
+
+        text.append("# HELP ").append(SHARED_EVALUATORS_METRIC).append(" Number of distinct evaluators shared by models with identical content.\n");
+        text.append("# TYPE ").append(SHARED_EVALUATORS_METRIC).append(" gauge\n");
+        text.append(SHARED_EVALUATORS_METRIC).append(' ').append(modelLoaderService.getSharedEvaluatorCount()).append('\n');
+
+        text.append("# HELP ").append(RESIDENT_BYTES_METRIC).append(" Estimated heap bytes retained by the evaluators in use.\n");
+        text.append("# TYPE ").append(RESIDENT_BYTES_METRIC).append(" gauge\n");
+        text.append(RESIDENT_BYTES_METRIC).append(' ').append(modelLoaderService.getResidentBytes()).append('\n');
+
+        if (modelHolderService.isTiered())
+        {
+            appendRegistryStatistics(text);
+        }
+
+        if (admissionService.getPolicy() != AdmissionService.Policy.NONE)
+        {
+            text.append("# HELP ").append(ADMISSION_REJECTIONS_METRIC).append(" Deploys rejected because they would exceed the memory limit.\n");
+            text.append("# TYPE ").append(ADMISSION_REJECTIONS_METRIC).append(" counter\n");
+            text.append(ADMISSION_REJECTIONS_METRIC).append(' ').append(admissionService.getRejectionCount()).append('\n');
+        }
+
+        if (scoringScheduler.isEnabled())
+        {
+            text.append("# HELP ").append(SCHEDULER_QUEUE_DEPTH_METRIC).append(" Scoring requests waiting for a scorer thread.\n");
+            text.append("# TYPE ").append(SCHEDULER_QUEUE_DEPTH_METRIC).append(" gauge\n");
+            text.append(SCHEDULER_QUEUE_DEPTH_METRIC).append(' ').append(scoringScheduler.getQueueDepth()).append('\n');
+
+            text.append("# HELP ").append(SCHEDULER_ACTIVE_THREADS_METRIC).append(" Scorer threads which are scoring a request.\n");
+            text.append("# TYPE ").append(SCHEDULER_ACTIVE_THREADS_METRIC).append(" gauge\n");
+            text.append(SCHEDULER_ACTIVE_THREADS_METRIC).append(' ').append(scoringScheduler.getActiveThreadCount()).append('\n');
+
+            text.append("# HELP ").append(SCHEDULER_SHED_METRIC).append(" Scoring requests rejected because the scoring queue was full.\n");
+            text.append("# TYPE ").append(SCHEDULER_SHED_METRIC).append(" counter\n");
+            text.append(SCHEDULER_SHED_METRIC).append(' ').append(scoringScheduler.getShedCount()).append('\n');
+        }
+
+        text.append("# HELP ").append(SCHEDULER_EXPIRED_METRIC).append(" Scoring requests dropped or abandoned because their deadline had passed.\n");
+        text.append("# TYPE ").append(SCHEDULER_EXPIRED_METRIC).append(" counter\n");
+        text.append(SCHEDULER_EXPIRED_METRIC).append(' ').append(scoringScheduler.getExpiredCount()).append('\n');
+
+        if (microBatchingService.isEnabled())
+        {
+            text.append("# HELP ").append(MICROBATCH_BATCHES_METRIC).append(" Micro-batches of concurrent scoring requests.\n");
+            text.append("# TYPE ").append(MICROBATCH_BATCHES_METRIC).append(" counter\n");
+            text.append(MICROBATCH_BATCHES_METRIC).append(' ').append(microBatchingService.getBatchCount()).append('\n');
+
+            text.append("# HELP ").append(MICROBATCH_RECORDS_METRIC).append(" Scoring requests scored in micro-batches.\n");
+            text.append("# TYPE ").append(MICROBATCH_RECORDS_METRIC).append(" counter\n");
+            text.append(MICROBATCH_RECORDS_METRIC).append(' ').append(microBatchingService.getBatchedRecordCount()).append('\n');
+        }
+
+        if (clusterService.isEnabled())
+        {
+            text.append("# HELP ").append(CLUSTER_FORWARDED_METRIC).append(" Requests sent to other cluster nodes.\n");
+            text.append("# TYPE ").append(CLUSTER_FORWARDED_METRIC).append(" counter\n");
+            text.append(CLUSTER_FORWARDED_METRIC).append(' ').append(clusterService.getForwardedCount()).append('\n');
+
+            text.append("# HELP ").append(CLUSTER_FORWARD_FAILURES_METRIC).append(" Requests which could not be sent to another cluster node.\n");
+            text.append("# TYPE ").append(CLUSTER_FORWARD_FAILURES_METRIC).append(" counter\n");
+            text.append(CLUSTER_FORWARD_FAILURES_METRIC).append(' ').append(clusterService.getFailedForwardCount()).append('\n');
+        }
+
+        if (auditLogService.isEnabled())
+        {
+            text.append("# HELP ").append(AUDIT_EVENTS_METRIC).append(" Scoring audit events by outcome.\n");
+            text.append("# TYPE ").append(AUDIT_EVENTS_METRIC).append(" counter\n");
+            appendAuditEvents(text, "written", auditLogService.getWrittenCount());
+            appendAuditEvents(text, "sampled_out", auditLogService.getSampledOutCount());
+            appendAuditEvents(text, "dropped", auditLogService.getDroppedCount());
+            appendAuditEvents(text, "failed", auditLogService.getFailedCount());
+        }
+
+        return text.toString();
+    }
+
+    private ModelMetrics metricsOf(String modelId, ModelMetrics.Operation operation, boolean success)
+    {
+        if (modelId == null)
+        {
+            return untrackedMetrics;
+        }
+
+        ModelMetrics metrics = modelIdToMetricsMap.get(modelId);
+
+        if (metrics == null && success && operation != ModelMetrics.Operation.UNDEPLOY)
+        {
+            metrics = modelIdToMetricsMap.computeIfAbsent(modelId, id -> new ModelMetrics());
+        }
+
+        return metrics == null ? untrackedMetrics : metrics;
+    }
+
+    private void appendLatencies(StringBuilder text, String modelId, ModelMetrics metrics)
+    {
+        for (ModelMetrics.Operation operation : ModelMetrics.Operation.values())
+        {
+            LatencyHistogram latency = metrics.getLatency(operation);
+            long[] cumulativeCounts = latency.getCumulativeCounts();
+            long count = cumulativeCounts[cumulativeCounts.length - 1];
+
+            if (count == 0)
+            {
+                continue;
+            }
+
+            for (int i = 0; i < cumulativeCounts.length; i++)
+            {
+                text.append(LATENCY_METRIC).append("_bucket");
+                appendLabels(text, modelId, operation);
+                text.append(",le=\"").append(bucketLabels[i]).append("\"} ").append(cumulativeCounts[i]).append('\n');
+            }
+
+            text.append(LATENCY_METRIC).append("_sum");
+            appendLabels(text, modelId, operation);
+            text.append("} ").append(latency.getSumSeconds()).append('\n');
+
+            text.append(LATENCY_METRIC).append("_count");
+            appendLabels(text, modelId, operation);
+            text.append("} ").append(count).append('\n');
+        }
+    }
+
+    private void appendErrors(StringBuilder text, String modelId, ModelMetrics metrics)
+    {
+        for (ModelMetrics.Operation operation : ModelMetrics.Operation.values())
+        {
+            long errorCount = metrics.getErrorCount(operation);
+
+            if (errorCount == 0)
+            {
+                continue;
+            }
+
+            text.append(ERROR_METRIC);
+            appendLabels(text, modelId, operation);
+            text.append("} ").append(errorCount).append('\n');
+        }
+    }
+
+    private void appendRegistryStatistics(StringBuilder text)
+    {
+        text.append("# HELP ").append(MEMORY_BUDGET_METRIC).append(" Heap bytes above which models are evicted.\n");
+        text.append("# TYPE ").append(MEMORY_BUDGET_METRIC).append(" gauge\n");
+        text.append(MEMORY_BUDGET_METRIC).append(' ').append(modelHolderService.getMemoryBudget()).append('\n');
+
+        text.append("# HELP ").append(EVICTED_MODELS_METRIC).append(" Number of deployed models evicted from the heap.\n");
+        text.append("# TYPE ").append(EVICTED_MODELS_METRIC).append(" gauge\n");
+        text.append(EVICTED_MODELS_METRIC).append(' ').append(modelHolderService.getEvictedModelCount()).append('\n');
+
+        Map<String, RegistryStatistics> statistics = modelHolderService.getRegistryStatistics();
+
+        text.append("# HELP ").append(REGISTRY_HITS_METRIC).append(" Model lookups served from the heap.\n");
+        text.append("# TYPE ").append(REGISTRY_HITS_METRIC).append(" counter\n");
+        statistics.forEach((modelId, modelStatistics) -> appendModelValue(text, REGISTRY_HITS_METRIC, modelId, modelStatistics.getHitCount()));
+
+        text.append("# HELP ").append(REGISTRY_EVICTIONS_METRIC).append(" Evictions of the model from the heap.\n");
+        text.append("# TYPE ").append(REGISTRY_EVICTIONS_METRIC).append(" counter\n");
+        statistics.forEach((modelId, modelStatistics) -> appendModelValue(text, REGISTRY_EVICTIONS_METRIC, modelId, modelStatistics.getEvictionCount()));
+
+        text.append("# HELP ").append(REGISTRY_RELOADS_METRIC).append(" Reloads of the evicted model.\n");
+        text.append("# TYPE ").append(REGISTRY_RELOADS_METRIC).append(" counter\n");
+        statistics.forEach((modelId, modelStatistics) -> appendModelValue(text, REGISTRY_RELOADS_METRIC, modelId, modelStatistics.getReloadCount()));
+
+        text.append("# HELP ").append(REGISTRY_RELOAD_SECONDS_METRIC).append(" Time spent reloading the evicted model in seconds.\n");
+        text.append("# TYPE ").append(REGISTRY_RELOAD_SECONDS_METRIC).append(" counter\n");
+        statistics.forEach((modelId, modelStatistics) -> appendModelValue(text, REGISTRY_RELOAD_SECONDS_METRIC, modelId, modelStatistics.getReloadSeconds()));
+    }
+
+    private void appendModelValue(StringBuilder text, String metric, String modelId, Object value)
+    {
+        text.append(metric).append("{model=\"");
+        appendEscaped(text, modelId);
+        text.append("\"} ").append(value).append('\n');
+    }
+
+    private void appendAuditEvents(StringBuilder text, String outcome, long count)
+    {
+        text.append(AUDIT_EVENTS_METRIC).append("{outcome=\"").append(outcome).append("\"} ").append(count).append('\n');
+    }
+
+    /**
+     * Appends the opening brace and the model and operation labels, the caller closes the label set.
+     */
+    private void appendLabels(StringBuilder text, String modelId, ModelMetrics.Operation operation)
+    {
+        text.append("{model=\"");
+        appendEscaped(text, modelId);
+        text.append("\",operation=\"").append(operation.getLabel()).append('"');
+    }
+
+    private void appendEscaped(StringBuilder text, String value)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            if (c == '\\' || c == '"')
+            {
+                text.append('\\').append(c);
+            }
+            else if (c == '\n')
+            {
+                text.append("\\n");
+            }
+            else
+            {
+                text.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package service.impl;
+
+import domain.DetailedModelContent;
+import domain.ModelInputFields;
+import exception.ScoringException;
+import org.rapidoid.annotation.Service;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Coalesces concurrent single-record scoring requests for the same model id into micro-batches, if it is enabled.
+ * The first request of a batch waits for others until the batch window has passed or the batch is full, and then
+ * scores all records of the batch one after the other on its own thread, while the other callers wait for their
+ * results. Every caller gets its own result or exception.
+ * Records of a batch share no scoring work, so batching does not raise throughput, it only limits the number of
+ * threads which score the same model at the same time.
+ * Requests are only batched while at least a minimum number of them are in progress for the model, below that they
+ * are scored on their own thread as if micro-batching were disabled. A batch is closed as soon as every request in
+ * progress has joined it, so it only waits for the window while more requests can still join.
+ */
+@Service
+public class MicroBatchingService
+{
+    private static final long DEFAULT_WINDOW_MICROS = 200;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 16;
+    private static final int DEFAULT_MIN_CONCURRENT_REQUESTS = 8;
+
+    private ConfigurationService configuration;
+
+    private ScoringService scoringService;
+
+    private boolean enabled;
+
+    private long windowNanos;
+
+    private int maxBatchSize;
+
+    private int minConcurrentRequests;
+
+    private ConcurrentHashMap<String, ModelBatcher> modelIdToBatcherMap;
+
+    private LongAdder batchCount;
+
+    private LongAdder batchedRecordCount;
+
+    @Inject
+    public MicroBatchingService(ConfigurationService configuration, ScoringService scoringService)
+    {
+        this.configuration = configuration;
+        this.scoringService = scoringService;
+    }
+
+    @PostConstruct
+    private void initialize()
+    {
+        enabled = configuration.getBoolean("microbatch.enabled", false);
+        windowNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, configuration.getLong("microbatch.windowMicros", DEFAULT_WINDOW_MICROS)));
+        maxBatchSize = Math.max(1, configuration.getInt("microbatch.maxBatchSize", DEFAULT_MAX_BATCH_SIZE));
+        minConcurrentRequests = Math.max(1, configuration.getInt("microbatch.minConcurrentRequests", DEFAULT_MIN_CONCURRENT_REQUESTS));
+        modelIdToBatcherMap = new ConcurrentHashMap<>();
+        batchCount = new LongAdder();
+        batchedRecordCount = new LongAdder();
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Scores the input fields with the given content of the model, in a batch with concurrent requests for the same
+     * model id if micro-batching is enabled.
+     */
+    public Map<String, Object> score(String modelId, DetailedModelContent detailedModelContent, ModelInputFields inputFields)
+    {
+        if (!enabled)
+        {
+            return scoringService.score(detailedModelContent, inputFields);
+        }
+
+        ModelBatcher batcher = modelIdToBatcherMap.get(modelId);
+
+        if (batcher == null)
+        {
+            batcher = modelIdToBatcherMap.computeIfAbsent(modelId, id -> new ModelBatcher());
+        }
+
+        return batcher.score(detailedModelContent, inputFields);
+    }
+
+    public long getBatchCount()
+    {
+        return batchCount.sum();
+    }
+
+    public long getBatchedRecordCount()
+    {
+        return batchedRecordCount.sum();
+    }
+
+    public void forget(String modelId)
+    {
+        modelIdToBatcherMap.remove(modelId);
+    }
+
+    public void forgetAll()
+    {
+        modelIdToBatcherMap.clear();
+    }
+
+    private class ModelBatcher
+    {
+        private int inFlightCount;
+
+        private Batch openBatch;
+
+        Map<String, Object> score(DetailedModelContent detailedModelContent, ModelInputFields inputFields)
+        {
+            BatchEntry entry = new BatchEntry(detailedModelContent, inputFields);
+            Batch batch;
+
+            synchronized (this)
+            {
+                inFlightCount++;
+                batch = openBatch;
+
+                if (batch == null && inFlightCount < minConcurrentRequests)
+                {
+                    batch = Batch.UNBATCHED;
+                }
+                else
+                {
+                    if (batch == null)
+                    {
+                        batch = new Batch(Thread.currentThread());
+                        openBatch = batch;
+                    }
+
+                    batch.entries.add(entry);
+
+                    if (batch.entries.size() >= maxBatchSize || inFlightCount <= batch.entries.size())
+                    {
+                        close(batch);
+
+                        if (batch.leader != Thread.currentThread())
+                        {
+                            LockSupport.unpark(batch.leader);
+                        }
+                    }
+                }
+            }
+
+            try
+            {
+                if (batch == Batch.UNBATCHED)
+                {
+                    return scoringService.score(detailedModelContent, inputFields);
+                }
+
+                if (batch.leader == Thread.currentThread())
+                {
+                    lead(batch);
+                }
+
+                return entry.result.get();
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new ScoringException("Scoring request is interrupted", e);
+            } catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof RuntimeException)
+                {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new ScoringException("Exception during scoring", e.getCause());
+            } finally
+            {
+                finished();
+            }
+        }
+
+        /**
+         * Counts a request as done. The open batch is closed as soon as every request in progress has joined it,
+         * since no other caller can join it before the window has passed.
+         */
+        private synchronized void finished()
+        {
+            inFlightCount--;
+
+            if (openBatch != null && inFlightCount <= openBatch.entries.size())
+            {
+                Batch batch = openBatch;
+
+                close(batch);
+                LockSupport.unpark(batch.leader);
+            }
+        }
+
+        /**
+         * Waits until the batch is full or the window has passed. The batch is closed right away if no request for
+         * the model is in progress outside of it.
+         */
+        private void awaitBatch(Batch batch)
+        {
+            long deadline = System.nanoTime() + windowNanos;
+
+            while (true)
+            {
+                long remainingNanos;
+
+                synchronized (this)
+                {
+                    remainingNanos = deadline - System.nanoTime();
+
+                    if (batch.closed)
+                    {
+                        return;
+                    }
+
+                    if (remainingNanos <= 0 || inFlightCount <= batch.entries.size())
+                    {
+                        close(batch);
+                        return;
+                    }
+                }
+
+                LockSupport.parkNanos(this, remainingNanos);
+            }
+        }
+
+        /**
+         * Waits for the batch and scores it. Whatever the leader throws, every entry is completed, so that no other
+         * caller waits for its result forever.
+         */
+        private void lead(Batch batch)
+        {
+            Throwable failure = null;
+
+            try
+            {
+                awaitBatch(batch);
+                evaluate(batch);
+            } catch (Throwable e)
+            {
+                failure = e;
+                throw e;
+            } finally
+            {
+                synchronized (this)
+                {
+                    close(batch);
+                }
+
+                for (BatchEntry entry : batch.entries)
+                {
+                    if (!entry.result.isDone())
+                    {
+                        entry.result.completeExceptionally(failure == null ? new ScoringException("Batch has not been scored") : failure);
+                    }
+                }
+            }
+        }
+
+        private void close(Batch batch)
+        {
+            batch.closed = true;
+
+            if (openBatch == batch)
+            {
+                openBatch = null;
+            }
+        }
+
+        private void evaluate(Batch batch)
+        {
+            batchCount.increment();
+            batchedRecordCount.add(batch.entries.size());
+
+            for (BatchEntry entry : batch.entries)
+            {
+                try
+                {
+                    entry.result.complete(scoringService.score(entry.detailedModelContent, entry.inputFields));
+                } catch (RuntimeException e)
+                {
+                    entry.result.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records of a batch. Entries are only added while the batch is open and read by the leader after it is closed.
+     */
+    private static class Batch
+    {
+        /**
+         * Stands for requests which are scored on their own thread, because too few requests are in progress.
+         */
+        private static final Batch UNBATCHED = new Batch(null);
+
+        private final Thread leader;
+        private final List<BatchEntry> entries = new ArrayList<>();
+        private boolean closed;
+
+        Batch(Thread leader)
+        {
+            this.leader = leader;
+        }
+    }
+
+    private static class BatchEntry
+    {
+        private final DetailedModelContent detailedModelContent;
+        private final ModelInputFields inputFields;
+        private final CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+
+        BatchEntry(DetailedModelContent detailedModelContent, ModelInputFields inputFields)
+        {
+            this.detailedModelContent = detailedModelContent;
+            this.inputFields = inputFields;
+        }
+    }
+}
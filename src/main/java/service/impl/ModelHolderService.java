@@ -1,80 +1,363 @@
 package service.impl;
 
 import domain.DetailedModelContent;
+import domain.RegistryStatistics;
 import exception.AdditionalParametersException;
 import exception.ModelNotFoundException;
+import exception.ModelVersionNotFoundException;
 import org.pmw.tinylog.Logger;
 import org.rapidoid.annotation.Service;
 
 import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+/**
+ * Registry of deployed models. Every model id has an active version which is scored and, unless disabled, the
+ * version it replaced, so that it can be activated again without parsing the model.
+ * <p>
+ * With a memory budget the registry is tiered: when the evaluators in the heap exceed the budget, the previous versions
+ * and then the least recently used active versions are evicted to a snapshot on local disk. Evicted models stay
+ * deployed and are reloaded by the next {@link #get(String)} or rollback, concurrent requests for the same model wait
+ * for a single reload.
+ */
 @Service
 public class ModelHolderService
 {
-    private ConcurrentHashMap<String, DetailedModelContent> modelIdToDetailContentMap;
+    private static final String SPILL_FILE_PREFIX = "model-";
+    private static final String SPILL_FILE_SUFFIX = ".evaluator";
+    private static final long ACCESS_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private ConfigurationService configuration;
+
+    private ModelLoaderService modelLoaderService;
+
+    private ConcurrentHashMap<String, VersionedModel> modelIdToVersionedModelMap;
+
+    private boolean retainPreviousVersion;
+
+    private boolean tiered;
+
+    private long memoryBudget;
+
+    private Path evictionDirectory;
+
+    private ConcurrentHashMap<String, CompletableFuture<DetailedModelContent>> modelIdToReloadMap;
+
+    private ExecutorService evictor;
+
+    private AtomicBoolean evictionScheduled;
+
+    private StampedLock commitLock;
+
+    @Inject
+    public ModelHolderService(ConfigurationService configuration, ModelLoaderService modelLoaderService)
+    {
+        this.configuration = configuration;
+        this.modelLoaderService = modelLoaderService;
+    }
 
     @PostConstruct
     private void initialize()
     {
-        modelIdToDetailContentMap = new ConcurrentHashMap<>();
+        modelIdToVersionedModelMap = new ConcurrentHashMap<>();
+        commitLock = new StampedLock();
+        retainPreviousVersion = configuration.getBoolean("versions.retainPrevious", true);
+        memoryBudget = configuration.getLong("registry.memoryBudget", 0);
+
+        if (memoryBudget <= 0)
+        {
+            return;
+        }
+
+        try
+        {
+            evictionDirectory = Paths.get(configuration.getString("registry.evictionPath", "evicted"));
+            Files.createDirectories(evictionDirectory);
+            deleteStaleSpillFiles();
+        } catch (IOException e)
+        {
+            Logger.error(e, "Eviction directory could not be created. All models are kept in the heap");
+            return;
+        }
+
+        tiered = true;
+        modelIdToReloadMap = new ConcurrentHashMap<>();
+        evictionScheduled = new AtomicBoolean();
+        evictor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "model-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Logger.info("Models are evicted to [{}] above a memory budget of [{}] bytes", evictionDirectory.toAbsolutePath(), memoryBudget);
+    }
+
+    public boolean isTiered()
+    {
+        return tiered;
+    }
+
+    public long getMemoryBudget()
+    {
+        return memoryBudget;
     }
 
+    /**
+     * Activates the given content as the next version of the model id in a single step.
+     */
     public void put(String modelId, DetailedModelContent detailedModelContent)
     {
-        DetailedModelContent previousModelContent = modelIdToDetailContentMap.put(modelId, detailedModelContent);
+        put(modelId, detailedModelContent, null);
+    }
+
+    /**
+     * Activates the given content as the next version of the model id in a single step, and runs the given action
+     * within that step once the version is assigned. Changes of the same model id run their actions in the order in
+     * which they are applied, so the action can hand the change on, such as to the model store journal.
+     */
+    public void put(String modelId, DetailedModelContent detailedModelContent, Runnable onActivated)
+    {
+        VersionedModel[] replaced = new VersionedModel[1];
+
+        modelIdToVersionedModelMap.compute(modelId, (id, current) -> {
+            detailedModelContent.setVersion(current == null ? 1 : current.latestVersion() + 1);
+            detailedModelContent.setDeployedAt(System.currentTimeMillis());
+            detailedModelContent.setLastAccessNanos(System.nanoTime());
+
+            if (onActivated != null)
+            {
+                onActivated.run();
+            }
+
+            replaced[0] = current;
+            DetailedModelContent previous = current != null && retainPreviousVersion ? current.active : null;
+            return new VersionedModel(detailedModelContent, previous, current == null ? new RegistryStatistics() : current.statistics);
+        });
+
+        VersionedModel previousVersions = replaced[0];
+
+        if (previousVersions != null)
+        {
+            invalidateResultCache(previousVersions.active);
+            releaseEvaluator(retainPreviousVersion ? previousVersions.previous : previousVersions.active);
+            Logger.info("Model id [{}] replaced with new model version [{}]", modelId, detailedModelContent.getVersion());
+        }
+
+        scheduleEviction();
+    }
+
+    /**
+     * Activates the given contents as the next versions of their model ids together. Lookups which happen meanwhile
+     * wait until all of them are active, so no request sees only some of them. The given action runs for every model
+     * id like the action of {@link #put(String, DetailedModelContent, Runnable)}.
+     */
+    public void putAll(Map<String, DetailedModelContent> modelIdToContentMap, BiConsumer<String, DetailedModelContent> onActivated)
+    {
+        long stamp = commitLock.writeLock();
+
+        try
+        {
+            modelIdToContentMap.forEach((modelId, content) -> put(modelId, content, () -> onActivated.accept(modelId, content)));
+        } finally
+        {
+            commitLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Activates content restored from the model store, keeping the version it had when it was stored.
+     */
+    public void restore(String modelId, DetailedModelContent detailedModelContent)
+    {
+        detailedModelContent.setDeployedAt(System.currentTimeMillis());
+        detailedModelContent.setLastAccessNanos(System.nanoTime());
 
-        if (previousModelContent != null)
+        VersionedModel replaced = modelIdToVersionedModelMap.put(modelId, new VersionedModel(detailedModelContent, null, new RegistryStatistics()));
+
+        if (replaced != null)
         {
-            Logger.info("Model id [{}] replaced with new model", modelId);
+            invalidateResultCache(replaced.active);
+            releaseEvaluators(replaced);
         }
+
+        scheduleEviction();
     }
 
     public DetailedModelContent get(String modelId)
     {
         validateModelAvailability(modelId);
 
-        DetailedModelContent detailedModelContent = modelIdToDetailContentMap.get(modelId);
+        VersionedModel versionedModel = lookUp(modelId);
 
-        if (detailedModelContent == null)
+        if (versionedModel == null)
         {
             Logger.error("Model with given id cant be found: [{}]", modelId);
             throw new IllegalArgumentException("Model with given id cant be found");
         }
 
-        return detailedModelContent;
+        return tiered ? resident(modelId, versionedModel) : versionedModel.active;
+    }
+
+    /**
+     * Returns the active version of the model id followed by the previous version if it is retained.
+     */
+    public List<DetailedModelContent> getVersions(String modelId)
+    {
+        validateModelAvailability(modelId);
+
+        VersionedModel versionedModel = lookUp(modelId);
+        List<DetailedModelContent> versions = new ArrayList<>(2);
+
+        if (versionedModel != null)
+        {
+            versions.add(versionedModel.active);
+
+            if (versionedModel.previous != null)
+            {
+                versions.add(versionedModel.previous);
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Swaps the active and the previous version of the model id and returns the version which is active now.
+     * Rolling back twice activates the newer version again. The given action runs with the version which is
+     * activated, within the same step as the swap.
+     */
+    public DetailedModelContent rollback(String modelId, Consumer<DetailedModelContent> onRolledBack)
+    {
+        validateModelAvailability(modelId);
+
+        VersionedModel versionedModel = modelIdToVersionedModelMap.computeIfPresent(modelId, (id, current) -> {
+            if (current.previous == null)
+            {
+                return current;
+            }
+
+            onRolledBack.accept(current.previous);
+            return new VersionedModel(current.previous, current.active, current.statistics);
+        });
+
+        if (versionedModel == null || versionedModel.previous == null)
+        {
+            Logger.error("Model id [{}] has no previous version to roll back to", modelId);
+            throw new ModelVersionNotFoundException("Model id has no previous version to roll back to: " + modelId);
+        }
+
+        invalidateResultCache(versionedModel.previous);
+        Logger.info("Model id [{}] rolled back to version [{}]", modelId, versionedModel.active.getVersion());
+
+        return tiered ? resident(modelId, versionedModel) : versionedModel.active;
     }
 
-    public void remove(String modelId)
+    /**
+     * Removes the model id and runs the given action within the same step, if the model id is still deployed.
+     */
+    public void remove(String modelId, Runnable onRemoved)
     {
         validateModelAvailability(modelId);
 
-        DetailedModelContent removedContent = modelIdToDetailContentMap.remove(modelId);
+        VersionedModel removedModel = removeVersions(modelId, onRemoved);
 
-        if (removedContent == null)
+        if (removedModel == null)
         {
             Logger.warn("Could not remove model with model id: [{}]", modelId);
         }
         else
         {
+            invalidateResultCache(removedModel.active);
+            releaseEvaluators(removedModel);
             Logger.info("Model removed with model id: [{}]", modelId);
         }
     }
 
 
-    public void clear()
+    /**
+     * Removes all model ids one by one, running the given action with each model id within the step which removes it.
+     */
+    public void clear(Consumer<String> onRemoved)
+    {
+        for (String modelId : getAllModelIds())
+        {
+            VersionedModel removedModel = removeVersions(modelId, () -> onRemoved.accept(modelId));
+
+            if (removedModel != null)
+            {
+                invalidateResultCache(removedModel.active);
+                releaseEvaluators(removedModel);
+            }
+        }
+    }
+
+    private VersionedModel removeVersions(String modelId, Runnable onRemoved)
+    {
+        VersionedModel[] removed = new VersionedModel[1];
+
+        modelIdToVersionedModelMap.computeIfPresent(modelId, (id, current) -> {
+            onRemoved.run();
+            removed[0] = current;
+            return null;
+        });
+        return removed[0];
+    }
+
+    public int size()
     {
-        modelIdToDetailContentMap.clear();
+        return modelIdToVersionedModelMap.size();
     }
 
+    /**
+     * Returns the estimated heap bytes retained by the evaluators of all deployed models which are in the heap.
+     */
+    public long getRetainedBytes()
+    {
+        return modelLoaderService.getResidentBytes();
+    }
+
+    /**
+     * Returns the number of deployed models whose active version is evicted from the heap.
+     */
+    public int getEvictedModelCount()
+    {
+        return (int) modelIdToVersionedModelMap.values().stream().filter(versionedModel -> !versionedModel.active.isResident()).count();
+    }
+
+    /**
+     * Returns the tiered registry counters of all deployed models.
+     */
+    public Map<String, RegistryStatistics> getRegistryStatistics()
+    {
+        return modelIdToVersionedModelMap.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().statistics));
+    }
 
     public List<String> getAllModelIds()
     {
-        return Collections.list(modelIdToDetailContentMap.keys());
+        return Collections.list(modelIdToVersionedModelMap.keys());
     }
 
 
@@ -82,9 +365,9 @@ public class ModelHolderService
     {
         try
         {
-            return modelIdToDetailContentMap.entrySet().stream()
-                    .filter(entry -> (entry.getValue() != null && entry.getValue().getAdditionalParameters() != null))
-                    .collect(Collectors.toMap(Map.Entry::getKey, x -> x.getValue().getAdditionalParameters()));
+            return modelIdToVersionedModelMap.entrySet().stream()
+                    .filter(entry -> (entry.getValue() != null && entry.getValue().active.getAdditionalParameters() != null))
+                    .collect(Collectors.toMap(Map.Entry::getKey, x -> x.getValue().active.getAdditionalParameters()));
         } catch (Exception e)
         {
             Logger.error(e, "Exception during preparation of additional parameters");
@@ -92,12 +375,302 @@ public class ModelHolderService
         }
     }
 
+    /**
+     * Looks up the versions of the model id, waiting for a {@link #putAll} in progress. Without one, the lookup only
+     * costs an optimistic read of the commit lock.
+     */
+    private VersionedModel lookUp(String modelId)
+    {
+        long stamp = commitLock.tryOptimisticRead();
+        VersionedModel versionedModel = modelIdToVersionedModelMap.get(modelId);
+
+        if (commitLock.validate(stamp))
+        {
+            return versionedModel;
+        }
+
+        stamp = commitLock.readLock();
+
+        try
+        {
+            return modelIdToVersionedModelMap.get(modelId);
+        } finally
+        {
+            commitLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the active version of the model with its evaluator in the heap, reloading it if it has been evicted.
+     */
+    private DetailedModelContent resident(String modelId, VersionedModel versionedModel)
+    {
+        DetailedModelContent content = versionedModel.active;
+
+        if (!content.isResident())
+        {
+            return reload(modelId, content);
+        }
+
+        long now = System.nanoTime();
+
+        if (now - content.getLastAccessNanos() > ACCESS_RESOLUTION_NANOS)
+        {
+            content.setLastAccessNanos(now);
+        }
+        versionedModel.statistics.recordHit();
+
+        return content;
+    }
+
+    private DetailedModelContent reload(String modelId, DetailedModelContent evictedContent)
+    {
+        CompletableFuture<DetailedModelContent> reload = new CompletableFuture<>();
+        CompletableFuture<DetailedModelContent> pendingReload = modelIdToReloadMap.putIfAbsent(modelId, reload);
+
+        if (pendingReload != null)
+        {
+            try
+            {
+                return pendingReload.join();
+            } catch (CompletionException e)
+            {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        try
+        {
+            VersionedModel current = modelIdToVersionedModelMap.get(modelId);
+
+            if (current != null && current.active != evictedContent && current.active.isResident())
+            {
+                reload.complete(current.active);
+                return current.active;
+            }
+
+            long startNanos = System.nanoTime();
+            DetailedModelContent content = modelLoaderService.reload(modelId, evictedContent);
+            content.setLastAccessNanos(System.nanoTime());
+
+            VersionedModel versionedModel = modelIdToVersionedModelMap.computeIfPresent(modelId, (id, versions) ->
+                    versions.active == evictedContent ? new VersionedModel(content, versions.previous, versions.statistics) : versions);
+
+            if (versionedModel != null && versionedModel.active == content)
+            {
+                versionedModel.statistics.recordReload(System.nanoTime() - startNanos);
+                Logger.debug("Model id [{}] reloaded in [{}] ms", modelId, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                scheduleEviction();
+            }
+            else
+            {
+                content.releaseEvaluator();
+            }
+
+            reload.complete(content);
+            return content;
+
+        } catch (RuntimeException e)
+        {
+            reload.completeExceptionally(e);
+            throw e;
+        } finally
+        {
+            modelIdToReloadMap.remove(modelId, reload);
+        }
+    }
+
+    private void scheduleEviction()
+    {
+        if (tiered && modelLoaderService.getResidentBytes() > memoryBudget && evictionScheduled.compareAndSet(false, true))
+        {
+            evictor.execute(this::evictToBudget);
+        }
+    }
+
+    /**
+     * Evicts the previous versions, which are only scored again after a rollback, and then the active versions, each
+     * least recently used first, until the evaluators in the heap fit into the budget.
+     * Evicting a model whose evaluator is shared with another resident model does not free memory, the next
+     * candidate is evicted then as well.
+     */
+    private void evictToBudget()
+    {
+        evictionScheduled.set(false);
+
+        List<Map.Entry<String, DetailedModelContent>> candidates = residentVersions(versionedModel -> versionedModel.previous);
+        candidates.addAll(residentVersions(versionedModel -> versionedModel.active));
+
+        for (Map.Entry<String, DetailedModelContent> candidate : candidates)
+        {
+            if (modelLoaderService.getResidentBytes() <= memoryBudget)
+            {
+                break;
+            }
+            evict(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    private List<Map.Entry<String, DetailedModelContent>> residentVersions(Function<VersionedModel, DetailedModelContent> version)
+    {
+        return modelIdToVersionedModelMap.entrySet().stream()
+                .filter(entry -> version.apply(entry.getValue()) != null && version.apply(entry.getValue()).isResident())
+                .map(entry -> new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), version.apply(entry.getValue())))
+                .sorted(Comparator.comparingLong(entry -> entry.getValue().getLastAccessNanos()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Replaces the active or previous version by a copy without evaluator, unless the version has left the registry
+     * in the meantime.
+     */
+    private void evict(String modelId, DetailedModelContent content)
+    {
+        try
+        {
+            if (content.getSpillFile() == null)
+            {
+                Path spillFile = Files.createTempFile(evictionDirectory, SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX);
+                Files.write(spillFile, modelLoaderService.createSnapshot(content.getEvaluator()));
+                content.setSpillFile(spillFile);
+            }
+        } catch (IOException e)
+        {
+            Logger.error(e, "Model id [{}] could not be evicted", modelId);
+            return;
+        }
+
+        DetailedModelContent evictedContent = evictedCopyOf(content);
+        VersionedModel versionedModel = modelIdToVersionedModelMap.computeIfPresent(modelId, (id, versions) ->
+                versions.replace(content, evictedContent));
+
+        if (versionedModel != null && versionedModel.contains(evictedContent))
+        {
+            invalidateResultCache(content);
+            content.releaseEvaluator();
+            versionedModel.statistics.recordEviction();
+            Logger.debug("Model id [{}] version [{}] evicted to [{}]", modelId, content.getVersion(), content.getSpillFile());
+        }
+        else
+        {
+            deleteSpillFile(content);
+        }
+    }
+
+    /**
+     * Copies everything but the evaluator, so that requests which already hold the resident content can finish.
+     */
+    private DetailedModelContent evictedCopyOf(DetailedModelContent content)
+    {
+        DetailedModelContent evictedContent = new DetailedModelContent();
+        evictedContent.setFilename(content.getFilename());
+        evictedContent.setAdditionalParameters(content.getAdditionalParameters());
+        evictedContent.setVersion(content.getVersion());
+        evictedContent.setDeployedAt(content.getDeployedAt());
+        evictedContent.setWarmupScorings(content.getWarmupScorings());
+        evictedContent.setWarmupMillis(content.getWarmupMillis());
+        evictedContent.setContentHash(content.getContentHash());
+        evictedContent.setFootprint(content.getFootprint());
+        evictedContent.setSpillFile(content.getSpillFile());
+        return evictedContent;
+    }
+
+    private void deleteSpillFile(DetailedModelContent detailedModelContent)
+    {
+        if (detailedModelContent.getSpillFile() == null)
+        {
+            return;
+        }
+
+        try
+        {
+            Files.deleteIfExists(detailedModelContent.getSpillFile());
+        } catch (IOException e)
+        {
+            Logger.warn(e, "Evicted model file [{}] could not be deleted", detailedModelContent.getSpillFile());
+        }
+    }
+
+    /**
+     * Evicted models do not survive a restart, their files are left over from a previous run.
+     */
+    private void deleteStaleSpillFiles() throws IOException
+    {
+        try (DirectoryStream<Path> spillFiles = Files.newDirectoryStream(evictionDirectory, SPILL_FILE_PREFIX + "*" + SPILL_FILE_SUFFIX))
+        {
+            for (Path spillFile : spillFiles)
+            {
+                Files.deleteIfExists(spillFile);
+            }
+        }
+    }
+
+    private void invalidateResultCache(DetailedModelContent detailedModelContent)
+    {
+        if (detailedModelContent.getResultCache() != null)
+        {
+            detailedModelContent.getResultCache().invalidateAll();
+        }
+    }
+
+    private void releaseEvaluators(VersionedModel versionedModel)
+    {
+        releaseEvaluator(versionedModel.active);
+        releaseEvaluator(versionedModel.previous);
+    }
+
+    /**
+     * Evaluators may be shared with other model ids deploying the same content, so they are released when a version
+     * leaves the registry instead of being dropped.
+     */
+    private void releaseEvaluator(DetailedModelContent detailedModelContent)
+    {
+        if (detailedModelContent != null)
+        {
+            detailedModelContent.releaseEvaluator();
+            deleteSpillFile(detailedModelContent);
+        }
+    }
+
     private void validateModelAvailability(String modelId)
     {
-        if (!modelIdToDetailContentMap.containsKey(modelId))
+        if (!modelIdToVersionedModelMap.containsKey(modelId))
         {
             Logger.error("Given model id is not uploaded: [{}]", modelId);
             throw new ModelNotFoundException("Given model id is not uploaded: " + modelId);
         }
     }
+
+    private static class VersionedModel
+    {
+        private final DetailedModelContent active;
+        private final DetailedModelContent previous;
+        private final RegistryStatistics statistics;
+
+        VersionedModel(DetailedModelContent active, DetailedModelContent previous, RegistryStatistics statistics)
+        {
+            this.active = active;
+            this.previous = previous;
+            this.statistics = statistics;
+        }
+
+        boolean contains(DetailedModelContent content)
+        {
+            return active == content || previous == content;
+        }
+
+        VersionedModel replace(DetailedModelContent content, DetailedModelContent replacement)
+        {
+            if (active == content)
+            {
+                return new VersionedModel(replacement, previous, statistics);
+            }
+            return previous == content ? new VersionedModel(active, replacement, statistics) : this;
+        }
+
+        int latestVersion()
+        {
+            return previous == null ? active.getVersion() : Math.max(active.getVersion(), previous.getVersion());
+        }
+    }
 }
@@ -0,0 +1,318 @@
+package service.impl;
+
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import domain.DetailedModelContent;
+import domain.ModelBindingPlan;
+import domain.ModelSource;
+import domain.RetainedSizeEstimator;
+import domain.ScoringResultCache;
+import domain.SharedEvaluator;
+import exception.EvaluatorCreationException;
+import org.dmg.pmml.PMML;
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.evaluator.ModelEvaluatorFactory;
+import org.jpmml.model.PMMLUtil;
+import org.jpmml.model.visitors.AttributeInternerBattery;
+import org.jpmml.model.visitors.ListFinalizerBattery;
+import org.jpmml.model.visitors.LocatorNullifier;
+import org.pmw.tinylog.Logger;
+import org.rapidoid.annotation.Service;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class ModelLoaderService
+{
+    private static final long DEFAULT_CACHE_MAXIMUM_SIZE = 10000;
+    private static final long DEFAULT_CACHE_TIME_TO_LIVE_SECONDS = 300;
+
+    private ConfigurationService configuration;
+
+    private ScoringEngineService scoringEngineService;
+
+    private boolean resultCacheEnabled;
+
+    private long resultCacheMaximumSize;
+
+    private long resultCacheTimeToLiveSeconds;
+
+    private boolean deduplicate;
+
+    private ConcurrentHashMap<String, SharedEvaluator> contentHashToEvaluatorMap;
+
+    private AtomicLong residentBytes;
+
+    private CopyOnWriteArrayList<Runnable> releaseListeners;
+
+    @Inject
+    public ModelLoaderService(ConfigurationService configuration, ScoringEngineService scoringEngineService)
+    {
+        this.configuration = configuration;
+        this.scoringEngineService = scoringEngineService;
+    }
+
+    @PostConstruct
+    private void initialize()
+    {
+        resultCacheEnabled = configuration.getBoolean("cache.enabled", false);
+        resultCacheMaximumSize = configuration.getLong("cache.maximumSize", DEFAULT_CACHE_MAXIMUM_SIZE);
+        resultCacheTimeToLiveSeconds = configuration.getLong("cache.timeToLiveSeconds", DEFAULT_CACHE_TIME_TO_LIVE_SECONDS);
+        deduplicate = configuration.getBoolean("deploy.deduplicate", true);
+        contentHashToEvaluatorMap = new ConcurrentHashMap<>();
+        residentBytes = new AtomicLong();
+        releaseListeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Registers a listener which is run whenever an evaluator is released and its memory is no longer in use.
+     */
+    public void addReleaseListener(Runnable listener)
+    {
+        releaseListeners.add(listener);
+    }
+
+    /**
+     * Returns the number of distinct evaluators shared by content hash.
+     */
+    public int getSharedEvaluatorCount()
+    {
+        return contentHashToEvaluatorMap.size();
+    }
+
+    /**
+     * Returns the estimated heap bytes of all evaluators which are in use, including the PMML object graphs they
+     * retain. Shared evaluators are counted once.
+     */
+    public long getResidentBytes()
+    {
+        return residentBytes.get();
+    }
+
+    /**
+     * Loads the model from the given source. If a model with byte-identical content is already loaded, its evaluator
+     * is shared and the content is not parsed. The returned content holds a reference to its evaluator which has to
+     * be released when the content is not deployed anymore.
+     */
+    public DetailedModelContent load(String modelId, ModelSource source, Map<String, String> additionalParameters)
+    {
+        DetailedModelContent content = new DetailedModelContent();
+        content.setFilename(source.getFilename());
+        content.setAdditionalParameters(additionalParameters);
+
+        try
+        {
+            String contentHash = deduplicate ? hash(source) : null;
+            SharedEvaluator sharedEvaluator = acquire(contentHash);
+
+            if (sharedEvaluator == null)
+            {
+                PMML pmml = parse(source);
+                Evaluator evaluator = ModelEvaluatorFactory.newInstance().newModelEvaluator(pmml);
+                evaluator.verify();
+
+                sharedEvaluator = register(contentHash, evaluator, RetainedSizeEstimator.estimate(evaluator));
+            }
+            else
+            {
+                Logger.info("Model id [{}] shares the evaluator of identical content [{}]", modelId, contentHash);
+            }
+
+            content.setSharedEvaluator(sharedEvaluator);
+            content.setResultCache(createResultCache());
+
+        } catch (Exception e)
+        {
+            Logger.error(e, "Exception during unmarshalling and verification of model id [{}]", modelId);
+            throw new EvaluatorCreationException("Exception during unmarshalling and verification of model", e);
+        }
+
+        return content;
+    }
+
+    /**
+     * Loads the model from an evaluator snapshot. The content hash identifies the PMML the snapshot was created from,
+     * if it is known, so that restored models with identical content share their evaluator as well.
+     */
+    public DetailedModelContent loadSnapshot(String modelId, String filename, byte[] snapshot, String contentHash,
+                                             Map<String, String> additionalParameters)
+    {
+        DetailedModelContent content = new DetailedModelContent();
+        content.setFilename(filename);
+        content.setAdditionalParameters(additionalParameters);
+
+        try
+        {
+            SharedEvaluator sharedEvaluator = acquire(deduplicate ? contentHash : null);
+
+            if (sharedEvaluator == null)
+            {
+                try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(snapshot)))
+                {
+                    Evaluator evaluator = (Evaluator) objectInputStream.readObject();
+                    sharedEvaluator = register(deduplicate ? contentHash : null, evaluator, RetainedSizeEstimator.estimate(evaluator));
+                }
+            }
+
+            content.setSharedEvaluator(sharedEvaluator);
+            content.setResultCache(createResultCache());
+
+        } catch (Exception e)
+        {
+            Logger.warn(e, "Exception during reading of evaluator snapshot of model id [{}]", modelId);
+            throw new EvaluatorCreationException("Exception during reading of evaluator snapshot", e);
+        }
+
+        return content;
+    }
+
+    /**
+     * Loads an evicted model again from the evaluator snapshot it has been spilled to. The snapshot is only read if
+     * no other deployed model with identical content still holds the evaluator. The returned content keeps the
+     * version, the warm-up statistics and the spill file of the evicted content.
+     */
+    public DetailedModelContent reload(String modelId, DetailedModelContent evictedContent)
+    {
+        DetailedModelContent content = new DetailedModelContent();
+        content.setFilename(evictedContent.getFilename());
+        content.setAdditionalParameters(evictedContent.getAdditionalParameters());
+        content.setVersion(evictedContent.getVersion());
+        content.setDeployedAt(evictedContent.getDeployedAt());
+        content.setWarmupScorings(evictedContent.getWarmupScorings());
+        content.setWarmupMillis(evictedContent.getWarmupMillis());
+        content.setSpillFile(evictedContent.getSpillFile());
+
+        try
+        {
+            String contentHash = deduplicate ? evictedContent.getContentHash() : null;
+            SharedEvaluator sharedEvaluator = acquire(contentHash);
+
+            if (sharedEvaluator == null)
+            {
+                try (ObjectInputStream objectInputStream = new ObjectInputStream(Files.newInputStream(evictedContent.getSpillFile())))
+                {
+                    sharedEvaluator = register(contentHash, (Evaluator) objectInputStream.readObject(), evictedContent.getFootprint());
+                }
+            }
+
+            content.setSharedEvaluator(sharedEvaluator);
+            content.setResultCache(createResultCache());
+
+        } catch (Exception e)
+        {
+            Logger.error(e, "Exception during reload of evicted model id [{}]", modelId);
+            throw new EvaluatorCreationException("Exception during reload of evicted model", e);
+        }
+
+        return content;
+    }
+
+    public byte[] createSnapshot(Evaluator evaluator) throws IOException
+    {
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(snapshot))
+        {
+            objectOutputStream.writeObject(evaluator);
+        }
+
+        return snapshot.toByteArray();
+    }
+
+    /**
+     * Returns the SHA-256 hash of the content of the source.
+     */
+    public String hash(ModelSource source) throws IOException
+    {
+        Hasher hasher = Hashing.sha256().newHasher();
+
+        try (InputStream inputStream = source.open())
+        {
+            ByteStreams.copy(inputStream, Funnels.asOutputStream(hasher));
+        }
+
+        return hasher.hash().toString();
+    }
+
+    private SharedEvaluator acquire(String contentHash)
+    {
+        if (contentHash == null)
+        {
+            return null;
+        }
+
+        SharedEvaluator sharedEvaluator = contentHashToEvaluatorMap.get(contentHash);
+
+        return sharedEvaluator != null && sharedEvaluator.tryAcquire() ? sharedEvaluator : null;
+    }
+
+    /**
+     * Registers a newly loaded evaluator under the content hash. If the same content has been loaded concurrently,
+     * the evaluator registered first is used and the new one is dropped. The scoring engine of the model is created
+     * along with its binding plan.
+     */
+    private SharedEvaluator register(String contentHash, Evaluator evaluator, long footprint)
+    {
+        ModelBindingPlan bindingPlan = new ModelBindingPlan(evaluator);
+        SharedEvaluator loadedEvaluator = new SharedEvaluator(contentHash, evaluator, bindingPlan,
+                scoringEngineService.create(evaluator, bindingPlan), footprint, this::unregister);
+        SharedEvaluator sharedEvaluator = contentHash == null ? loadedEvaluator : contentHashToEvaluatorMap.merge(contentHash, loadedEvaluator,
+                (registered, loaded) -> registered.tryAcquire() ? registered : loaded);
+
+        if (sharedEvaluator == loadedEvaluator)
+        {
+            residentBytes.addAndGet(footprint);
+        }
+        return sharedEvaluator;
+    }
+
+    private void unregister(SharedEvaluator sharedEvaluator)
+    {
+        if (sharedEvaluator.getContentHash() != null)
+        {
+            contentHashToEvaluatorMap.remove(sharedEvaluator.getContentHash(), sharedEvaluator);
+        }
+        residentBytes.addAndGet(-sharedEvaluator.getFootprint());
+        releaseListeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Unmarshals the PMML through the SAX filtered import source of JPMML, so that no intermediate document is built.
+     * Source locations of the elements are dropped and repeated attribute values are interned afterwards, because they
+     * would otherwise be retained by the evaluator for as long as the model is deployed.
+     */
+    private PMML parse(ModelSource source) throws Exception
+    {
+        PMML pmml;
+
+        try (InputStream inputStream = source.open())
+        {
+            pmml = PMMLUtil.unmarshal(inputStream);
+        }
+
+        new LocatorNullifier().applyTo(pmml);
+        new AttributeInternerBattery().applyTo(pmml);
+        new ListFinalizerBattery().applyTo(pmml);
+
+        return pmml;
+    }
+
+    private ScoringResultCache createResultCache()
+    {
+        return resultCacheEnabled ? new ScoringResultCache(resultCacheMaximumSize, resultCacheTimeToLiveSeconds) : null;
+    }
+}
@@ -1,138 +1,280 @@
 package service.impl;
 
+import domain.BatchModelInputFields;
+import domain.BatchScoringResult;
+import domain.BulkDeployResult;
+import domain.CacheStatistics;
+import domain.DeploymentStatus;
 import domain.DetailedModelContent;
 import domain.ModelInputFields;
+import domain.ModelMetrics;
+import domain.ModelSource;
 import domain.ModelSummary;
+import domain.ModelVersionInfo;
+import domain.RecordScoringResult;
+import domain.Response;
+import domain.ScoringResponseWriter;
 import domain.ScoringResult;
+import domain.ScoringResultCache;
+import engine.FlatTreeEnsemble;
+import engine.ScoringEngine;
 import exception.AdditionalParametersException;
-import exception.EvaluatorCreationException;
 import exception.ScoringException;
 import exception.SummaryException;
-import org.dmg.pmml.FieldName;
-import org.dmg.pmml.PMML;
-import org.jpmml.evaluator.Computable;
 import org.jpmml.evaluator.Evaluator;
-import org.jpmml.evaluator.FieldValue;
-import org.jpmml.evaluator.InputField;
-import org.jpmml.evaluator.ModelEvaluatorFactory;
-import org.jpmml.evaluator.TargetField;
-import org.jpmml.model.PMMLUtil;
 import org.pmw.tinylog.Logger;
 import org.rapidoid.annotation.Service;
+import org.rapidoid.data.JSON;
 import org.rapidoid.io.Upload;
 
 import javax.inject.Inject;
-import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 @Service
 public class ModelService
 {
+    private static final int DEFAULT_BATCH_CHUNK_SIZE = 64;
+    private static final String INTERPRETED_ENGINE = "interpreted";
+
     private ModelHolderService modelHolderService;
 
     private ValidatorService validator;
 
+    private DeploymentService deploymentService;
+
+    private ModelStoreService modelStoreService;
+
+    private MetricsService metricsService;
+
+    private AuditLogService auditLogService;
+
+    private ScoringService scoringService;
+
+    private WarmupService warmupService;
+
+    private StreamScoringService streamScoringService;
+
+    private ScoringSchedulerService scoringScheduler;
+
+    private MicroBatchingService microBatchingService;
+
+    private ForkJoinPool batchScoringPool;
+
+    private int batchChunkSize;
+
+    private boolean rejectUnknownFields;
+
     @Inject
-    public ModelService(ModelHolderService modelHolderService, ValidatorService validator)
+    public ModelService(ModelHolderService modelHolderService, ValidatorService validator, DeploymentService deploymentService,
+                        ModelStoreService modelStoreService, MetricsService metricsService, AuditLogService auditLogService,
+                        ScoringService scoringService, WarmupService warmupService, StreamScoringService streamScoringService,
+                        ScoringSchedulerService scoringScheduler, MicroBatchingService microBatchingService,
+                        ConfigurationService configuration)
     {
         this.modelHolderService = modelHolderService;
         this.validator = validator;
+        this.deploymentService = deploymentService;
+        this.modelStoreService = modelStoreService;
+        this.metricsService = metricsService;
+        this.auditLogService = auditLogService;
+        this.scoringService = scoringService;
+        this.warmupService = warmupService;
+        this.streamScoringService = streamScoringService;
+        this.scoringScheduler = scoringScheduler;
+        this.microBatchingService = microBatchingService;
+        this.batchScoringPool = new ForkJoinPool(configuration.getInt("batch.parallelism", Runtime.getRuntime().availableProcessors()));
+        this.batchChunkSize = Math.max(1, configuration.getInt("batch.chunkSize", DEFAULT_BATCH_CHUNK_SIZE));
+        this.rejectUnknownFields = configuration.getBoolean("scoring.rejectUnknownFields", false);
     }
 
-    public void deploy(String modelId, Upload upload, Map<String, String> additionalParameters)
+    public void deploy(String modelId, Upload upload, Upload warmupSamples, Map<String, String> additionalParameters)
     {
         validator.validateModelId(modelId);
         validator.validateUploadFile(modelId, upload);
 
-        DetailedModelContent content = new DetailedModelContent();
-        content.setFilename(upload.filename());
-        content.setAdditionalParameters(additionalParameters);
-
-        try
-        {
-            PMML pmml = PMMLUtil.unmarshal(new ByteArrayInputStream(upload.content()));
-            Evaluator evaluator = ModelEvaluatorFactory.newInstance().newModelEvaluator(pmml);
-            evaluator.verify();
+        List<ModelInputFields> samples = warmupService.parseSamples(modelId, warmupSamples);
 
-            content.setEvaluator(evaluator);
+        deploymentService.deploy(modelId, ModelSource.of(upload.filename(), upload.content()), additionalParameters, samples, false);
+    }
 
-        } catch (Exception e)
-        {
-            Logger.error(e, "Exception during unmarshalling and verification of model id [{}]", modelId);
-            throw new EvaluatorCreationException("Exception during unmarshalling and verification of model", e);
-        }
+    public DeploymentStatus deployAsync(String modelId, Upload upload, Upload warmupSamples, Map<String, String> additionalParameters)
+    {
+        validator.validateModelId(modelId);
+        validator.validateUploadFile(modelId, upload);
 
-        modelHolderService.put(modelId, content);
+        List<ModelInputFields> samples = warmupService.parseSamples(modelId, warmupSamples);
 
-        Logger.info("Model uploaded with model id: [{}]", modelId);
+        return deploymentService.submit(modelId, upload.filename(), upload.content(), additionalParameters, samples);
     }
 
-    public ModelSummary getSummary(String modelId, boolean isExtended)
+    public List<ModelVersionInfo> getVersions(String modelId)
     {
         validator.validateModelId(modelId);
 
-        try
+        List<DetailedModelContent> versions = modelHolderService.getVersions(modelId);
+        List<ModelVersionInfo> result = new ArrayList<>(versions.size());
+
+        for (int i = 0; i < versions.size(); i++)
         {
-            DetailedModelContent detailedModelContent = modelHolderService.get(modelId);
-            Evaluator evaluator = detailedModelContent.getEvaluator();
+            result.add(new ModelVersionInfo(versions.get(i), i == 0));
+        }
+        return result;
+    }
 
-            validator.validateEvaluator(evaluator, modelId);
+    public ModelVersionInfo rollback(String modelId)
+    {
+        validator.validateModelId(modelId);
 
-            ModelSummary modelSummary = new ModelSummary(evaluator.getSummary());
+        DetailedModelContent activeContent = modelHolderService.rollback(modelId,
+                rolledBackContent -> modelStoreService.rollback(modelId, rolledBackContent.getVersion()));
 
-            if (isExtended)
-            {
-                addExtendedModelInfo(modelSummary, evaluator);
-            }
+        return new ModelVersionInfo(activeContent, true);
+    }
 
-            Logger.info("Model summary is prepared for model id: [{}]. Result is [{}]", modelId, modelSummary);
+    public BulkDeployResult deployArchive(Upload archive, Upload manifest, boolean atomic)
+    {
+        validator.validateUploadFile("bulk", archive);
+
+        return deploymentService.deployArchive(archive.content(), manifest == null ? null : manifest.content(), atomic);
+    }
+
+    public DeploymentStatus getDeploymentStatus(String modelId)
+    {
+        validator.validateModelId(modelId);
+
+        return deploymentService.getStatus(modelId);
+    }
+
+    public ModelSummary getSummary(String modelId, boolean isExtended)
+    {
+        long startNanos = System.nanoTime();
+        boolean success = false;
 
+        try
+        {
+            ModelSummary modelSummary = summarize(modelId, isExtended);
+            success = true;
             return modelSummary;
-        } catch (Exception e)
+        } finally
         {
-            Logger.error(e, "Exception during retrieval of summary for model id: [{}]", modelId);
-            throw new SummaryException("Exception during retrieval of summary", e);
+            metricsService.record(modelId, ModelMetrics.Operation.SUMMARY, startNanos, success);
         }
     }
 
     public ScoringResult score(String modelId, ModelInputFields inputFields)
+    {
+        return score(modelId, inputFields, null, (detailedModelContent, result) -> new ScoringResult(result));
+    }
+
+    /**
+     * Scores the json body of a scoring request and returns the json response. The body is parsed with the active
+     * fields of the model, so malformed input is rejected before scoring, and the response is written by the response
+     * writer of the model without going through the reflective json mapper.
+     * Scoring is run by the scoring scheduler, and it is abandoned if it does not complete within the timeout.
+     */
+    public byte[] scoreAsJson(String modelId, byte[] body, long timeoutMillis)
+    {
+        return scoringScheduler.execute(modelId, () -> score(modelId, null, body, this::toJson), System.nanoTime(), timeoutMillis);
+    }
+
+    public BatchScoringResult scoreBatch(String modelId, BatchModelInputFields batchInputFields)
     {
         validator.validateModelId(modelId);
-        validator.validateModelInputFields(modelId, inputFields);
+        validator.validateBatchModelInputFields(modelId, batchInputFields);
 
-        try
-        {
-            DetailedModelContent detailedModelContent = modelHolderService.get(modelId);
-            Evaluator evaluator = detailedModelContent.getEvaluator();
+        DetailedModelContent detailedModelContent = modelHolderService.get(modelId);
+        Evaluator evaluator = detailedModelContent.getEvaluator();
 
-            validator.validateEvaluator(evaluator, modelId);
+        validator.validateEvaluator(evaluator, modelId);
+
+        List<ModelInputFields> records = batchInputFields.getRecords();
+        RecordScoringResult[] results = new RecordScoringResult[records.size()];
 
-            ScoringResult scoringResult = new ScoringResult( score(evaluator, inputFields) );
-            Logger.info("Model uploaded with model id: [{}]. Result is [{}]", modelId, scoringResult.getResult());
+        try
+        {
+            ScoringTask scoringTask = new ScoringTask(modelId, detailedModelContent, records, results, 0, records.size());
 
-            return scoringResult;
+            if (records.size() <= batchChunkSize)
+            {
+                scoringTask.compute();
+            }
+            else
+            {
+                batchScoringPool.invoke(scoringTask);
+            }
         } catch (Exception e)
         {
-            Logger.error(e, "Exception during preparation of input parameters or scoring of values for model id: [{}]", modelId);
-            throw new ScoringException("Exception during preparation of input parameters or scoring of values", e);
+            Logger.error(e, "Exception during batch scoring for model id: [{}]", modelId);
+            throw new ScoringException("Exception during batch scoring", e);
         }
+
+        Logger.info("Batch of [{}] records scored for model id: [{}]", records.size(), modelId);
+
+        return new BatchScoringResult(Arrays.asList(results));
     }
 
-    public void undeploy(String modelId)
+    /**
+     * Scores newline delimited json or csv records and streams the results to the output. The output is opened only
+     * after the model is found, so that an unknown model id is reported like for the other scoring requests.
+     */
+    public long scoreStream(String modelId, byte[] input, StreamScoringService.Format format, Supplier<OutputStream> output)
     {
         validator.validateModelId(modelId);
 
-        modelHolderService.remove(modelId);
+        DetailedModelContent detailedModelContent = modelHolderService.get(modelId);
+
+        validator.validateEvaluator(detailedModelContent.getEvaluator(), modelId);
+
+        return streamScoringService.score(modelId, detailedModelContent, input == null ? new byte[0] : input, format, output.get());
+    }
+
+    public CacheStatistics getCacheStatistics(String modelId)
+    {
+        validator.validateModelId(modelId);
+
+        ScoringResultCache resultCache = modelHolderService.get(modelId).getResultCache();
+
+        return resultCache == null ? new CacheStatistics() : resultCache.getStatistics();
+    }
+
+    public void undeploy(String modelId)
+    {
+        long startNanos = System.nanoTime();
+        boolean success = false;
+
+        try
+        {
+            validator.validateModelId(modelId);
+
+            modelHolderService.remove(modelId, () -> modelStoreService.remove(modelId));
+            deploymentService.forget(modelId);
+            metricsService.forget(modelId);
+            warmupService.forget(modelId);
+            microBatchingService.forget(modelId);
+            success = true;
+        } finally
+        {
+            metricsService.record(modelId, ModelMetrics.Operation.UNDEPLOY, startNanos, success);
+        }
     }
 
     public void undeployAll()
     {
-        modelHolderService.clear();
+        modelHolderService.clear(modelStoreService::remove);
+        deploymentService.forgetAll();
+        metricsService.forgetAll();
+        warmupService.forgetAll();
+        microBatchingService.forgetAll();
         Logger.info("All models removed");
     }
 
@@ -169,50 +311,151 @@ public class ModelService
         return result;
     }
 
-    private Map<FieldName, FieldValue> prepareEvaluationArgs(Evaluator evaluator, ModelInputFields inputFields)
+    private ModelSummary summarize(String modelId, boolean isExtended)
     {
-        Map<FieldName, FieldValue> arguments = new LinkedHashMap<>();
-
-        List<InputField> evaluatorFields = evaluator.getActiveFields();
+        validator.validateModelId(modelId);
 
-        for (InputField evaluatorField : evaluatorFields)
+        try
         {
-            FieldName evaluatorFieldName = evaluatorField.getName();
-            String evaluatorFieldNameValue = evaluatorFieldName.getValue();
+            DetailedModelContent detailedModelContent = modelHolderService.get(modelId);
+            Evaluator evaluator = detailedModelContent.getEvaluator();
 
-            Object inputValue = inputFields.getFields().get(evaluatorFieldNameValue);
+            validator.validateEvaluator(evaluator, modelId);
 
-            if (inputValue == null)
+            ModelSummary modelSummary = new ModelSummary(evaluator.getSummary());
+
+            if (isExtended)
             {
-                Logger.warn("Model value not found for the following field [{}]", evaluatorFieldNameValue);
+                addExtendedModelInfo(modelSummary, evaluator);
+                modelSummary.setRetainedBytes(detailedModelContent.getFootprint());
+                modelSummary.setRegistryRetainedBytes(modelHolderService.getRetainedBytes());
+                addEngineInfo(modelSummary, detailedModelContent.getScoringEngine());
             }
 
-            arguments.put(evaluatorFieldName, evaluatorField.prepare(inputValue));
+            Logger.info("Model summary is prepared for model id: [{}]. Result is [{}]", modelId, modelSummary);
+
+            return modelSummary;
+        } catch (Exception e)
+        {
+            Logger.error(e, "Exception during retrieval of summary for model id: [{}]", modelId);
+            throw new SummaryException("Exception during retrieval of summary", e);
         }
-        return arguments;
     }
 
-    private Map<String, Object> score(Evaluator evaluator, ModelInputFields inputFields)
+    /**
+     * Scores either input fields which are already bound or the body of a scoring request, which can only be parsed
+     * once the model is known.
+     */
+    private <T> T score(String modelId, ModelInputFields inputFields, byte[] body,
+                        BiFunction<DetailedModelContent, Map<String, Object>, T> responseFactory)
     {
-        Map<String, Object> result = new HashMap<>();
+        long startNanos = System.nanoTime();
+        ModelInputFields scoredInputFields = inputFields;
 
-        Map<FieldName, ?> evaluationResultFromEvaluator = evaluator.evaluate(prepareEvaluationArgs(evaluator, inputFields));
+        try
+        {
+            validator.validateModelId(modelId);
 
-        List<TargetField> targetFields = evaluator.getTargetFields();
+            if (body == null)
+            {
+                validator.validateModelInputFields(modelId, inputFields);
+            }
 
-        for (TargetField targetField : targetFields)
-        {
-            FieldName targetFieldName = targetField.getName();
-            Object targetFieldValue = evaluationResultFromEvaluator.get(targetField.getName());
+            DetailedModelContent detailedModelContent = getScorableContent(modelId);
 
-            if (targetFieldValue instanceof Computable)
+            if (body != null)
             {
-                targetFieldValue = ((Computable) targetFieldValue).getResult();
+                scoredInputFields = detailedModelContent.getBindingPlan().getInputParser().parse(body, rejectUnknownFields);
+                validator.validateModelInputFields(modelId, scoredInputFields);
             }
 
-            result.put(targetFieldName.getValue(), targetFieldValue);
+            Map<String, Object> result = scoreModel(modelId, detailedModelContent, scoredInputFields);
+            T response = responseFactory.apply(detailedModelContent, result);
+
+            metricsService.record(modelId, ModelMetrics.Operation.SCORE, startNanos, true);
+            auditLogService.record(modelId, scoredInputFields.getFields(), result, null, startNanos);
+            return response;
+        } catch (RuntimeException e)
+        {
+            metricsService.record(modelId, ModelMetrics.Operation.SCORE, startNanos, false);
+            auditLogService.record(modelId, fieldsOf(scoredInputFields), null, e, startNanos);
+            throw e;
+        }
+    }
+
+    private DetailedModelContent getScorableContent(String modelId)
+    {
+        try
+        {
+            DetailedModelContent detailedModelContent = modelHolderService.get(modelId);
+
+            validator.validateEvaluator(detailedModelContent.getEvaluator(), modelId);
+
+            return detailedModelContent;
+        } catch (Exception e)
+        {
+            Logger.error(e, "Exception during preparation of input parameters or scoring of values for model id: [{}]", modelId);
+            throw new ScoringException("Exception during preparation of input parameters or scoring of values", e);
+        }
+    }
+
+    private Map<String, Object> scoreModel(String modelId, DetailedModelContent detailedModelContent, ModelInputFields inputFields)
+    {
+        try
+        {
+            Map<String, Object> result = microBatchingService.score(modelId, detailedModelContent, inputFields);
+            warmupService.capture(modelId, inputFields);
+            Logger.debug("Model scored with model id: [{}]. Result is [{}]", modelId, result);
+
+            return result;
+        } catch (Exception e)
+        {
+            Logger.error(e, "Exception during preparation of input parameters or scoring of values for model id: [{}]", modelId);
+            throw new ScoringException("Exception during preparation of input parameters or scoring of values", e);
+        }
+    }
+
+    private byte[] toJson(DetailedModelContent detailedModelContent, Map<String, Object> result)
+    {
+        ScoringResponseWriter responseWriter = detailedModelContent.getBindingPlan().getResponseWriter();
+
+        return responseWriter == null ? JSON.stringifyToBytes(new Response(new ScoringResult(result))) : responseWriter.write(result);
+    }
+
+    private RecordScoringResult scoreRecord(String modelId, DetailedModelContent detailedModelContent, ModelInputFields inputFields)
+    {
+        long startNanos = System.nanoTime();
+
+        try
+        {
+            validator.validateModelInputFields(modelId, inputFields);
+
+            Map<String, Object> result = scoringService.score(detailedModelContent, inputFields);
+            auditLogService.record(modelId, inputFields.getFields(), result, null, startNanos);
+
+            return new RecordScoringResult(result);
+        } catch (Exception e)
+        {
+            Logger.warn(e, "Exception during scoring of a batch record for model id: [{}]", modelId);
+            auditLogService.record(modelId, fieldsOf(inputFields), null, e, startNanos);
+            return RecordScoringResult.failure(e);
+        }
+    }
+
+    private Map<String, Object> fieldsOf(ModelInputFields inputFields)
+    {
+        return inputFields == null ? null : inputFields.getFields();
+    }
+
+    private void addEngineInfo(ModelSummary modelSummary, ScoringEngine scoringEngine)
+    {
+        modelSummary.setEngine(scoringEngine == null ? INTERPRETED_ENGINE : scoringEngine.getName());
+
+        if (scoringEngine instanceof FlatTreeEnsemble)
+        {
+            modelSummary.setFlattenedNodes(((FlatTreeEnsemble) scoringEngine).getNodeCount());
+            modelSummary.setFlattenedBytes(((FlatTreeEnsemble) scoringEngine).getRetainedBytes());
         }
-        return result;
     }
 
     private void addExtendedModelInfo(ModelSummary modelSummary, Evaluator evaluator)
@@ -220,4 +463,43 @@ public class ModelService
         modelSummary.setInputFields(evaluator.getInputFields() == null ? null : evaluator.getInputFields().toString());
         modelSummary.setOutputFields(evaluator.getTargetFields() == null ? null : evaluator.getTargetFields().toString());
     }
-}
\ No newline at end of file
+
+    private class ScoringTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 3581460326715420215L;
+
+        private final String modelId;
+        private final DetailedModelContent detailedModelContent;
+        private final List<ModelInputFields> records;
+        private final RecordScoringResult[] results;
+        private final int from;
+        private final int to;
+
+        ScoringTask(String modelId, DetailedModelContent detailedModelContent, List<ModelInputFields> records, RecordScoringResult[] results, int from, int to)
+        {
+            this.modelId = modelId;
+            this.detailedModelContent = detailedModelContent;
+            this.records = records;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= batchChunkSize)
+            {
+                for (int i = from; i < to; i++)
+                {
+                    results[i] = scoreRecord(modelId, detailedModelContent, records.get(i));
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new ScoringTask(modelId, detailedModelContent, records, results, from, middle),
+                    new ScoringTask(modelId, detailedModelContent, records, results, middle, to));
+        }
+    }
+}
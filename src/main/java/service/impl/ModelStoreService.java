@@ -0,0 +1,631 @@
+package service.impl;
+
+import domain.DetailedModelContent;
+import domain.ModelSource;
+import org.pmw.tinylog.Logger;
+import org.rapidoid.annotation.Service;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Optional durable store of deployed models.
+ * Every deploy and undeploy is appended to a journal file by a background writer so that deploy latency is not affected.
+ * Records are enqueued within the registry change they persist, so the journal has the changes of a model id in the
+ * order in which they were applied. Deploy records carry the version of the model, and restore skips a deploy record
+ * which is not newer than the active one.
+ * A deploy record contains the raw PMML next to a serialized evaluator snapshot. A rollback record activates the deploy
+ * record before the latest one of the model again. On boot the active record of each model is read through a memory
+ * mapping and restored in parallel, falling back to parsing the PMML if the snapshot cannot be read anymore.
+ */
+@Service
+public class ModelStoreService
+{
+    private static final String JOURNAL_FILENAME = "models.journal";
+    private static final int RECORD_MAGIC = 0x4C534A31;
+    private static final int RECORD_HEADER_SIZE = 4 + 1 + 4 + 8;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+    private static final byte RECORD_CLEAR = 3;
+    private static final byte RECORD_ROLLBACK = 4;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+    private static final int COPY_CHUNK_SIZE = 64 * 1024;
+
+    private ModelHolderService modelHolderService;
+
+    private ModelLoaderService modelLoaderService;
+
+    private ConfigurationService configuration;
+
+    private boolean enabled;
+
+    private Path journalPath;
+
+    private FileChannel journal;
+
+    private ExecutorService writer;
+
+    @Inject
+    public ModelStoreService(ModelHolderService modelHolderService, ModelLoaderService modelLoaderService, ConfigurationService configuration)
+    {
+        this.modelHolderService = modelHolderService;
+        this.modelLoaderService = modelLoaderService;
+        this.configuration = configuration;
+    }
+
+    @PostConstruct
+    private void initialize()
+    {
+        enabled = configuration.getBoolean("store.enabled", false);
+
+        if (!enabled)
+        {
+            return;
+        }
+
+        try
+        {
+            Path directory = Paths.get(configuration.getString("store.path", "model-store"));
+            Files.createDirectories(directory);
+            journalPath = directory.resolve(JOURNAL_FILENAME);
+
+            restore();
+
+            journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e)
+        {
+            Logger.error(e, "Model store could not be opened. Models will not be persisted");
+            enabled = false;
+            return;
+        }
+
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "model-store-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "model-store-shutdown"));
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Persists the deployed model. Ownership of the source is passed to the store, it is released once it is written.
+     * Called within the registry change which activates the model, after its version is assigned.
+     */
+    public void save(String modelId, DetailedModelContent content, ModelSource source)
+    {
+        if (!enabled)
+        {
+            source.release();
+            return;
+        }
+
+        writer.execute(() -> {
+            try
+            {
+                byte[] snapshot = modelLoaderService.createSnapshot(content.getEvaluator());
+                appendPut(modelId, content, source, snapshot);
+            } catch (Exception e)
+            {
+                Logger.error(e, "Model id [{}] could not be persisted to model store", modelId);
+            } finally
+            {
+                source.release();
+            }
+        });
+    }
+
+    /**
+     * Persists the activation of the previous version of the model. The previous version is already in the journal
+     * with its PMML, so only the model id and the activated version are written.
+     */
+    public void rollback(String modelId, int version)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+
+        writer.execute(() -> {
+            try
+            {
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                DataOutputStream output = new DataOutputStream(payload);
+                output.writeUTF(modelId);
+                output.writeInt(version);
+                append(RECORD_ROLLBACK, payload.toByteArray());
+            } catch (Exception e)
+            {
+                Logger.error(e, "Rollback of model id [{}] could not be persisted to model store", modelId);
+            }
+        });
+    }
+
+    public void remove(String modelId)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+
+        writer.execute(() -> {
+            try
+            {
+                append(RECORD_REMOVE, encodeModelId(modelId));
+            } catch (Exception e)
+            {
+                Logger.error(e, "Removal of model id [{}] could not be persisted to model store", modelId);
+            }
+        });
+    }
+
+    private void restore() throws IOException
+    {
+        if (!Files.exists(journalPath))
+        {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+
+        Map<String, StoredRecord> latestRecords = new LinkedHashMap<>();
+        Map<String, StoredRecord> previousRecords = new HashMap<>();
+        long validLength = 0;
+
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+            while (validLength + RECORD_HEADER_SIZE <= size)
+            {
+                header.clear();
+                channel.read(header, validLength);
+                header.flip();
+
+                int magic = header.getInt();
+                byte type = header.get();
+                int payloadLength = header.getInt();
+                long checksum = header.getLong();
+
+                if (magic != RECORD_MAGIC || payloadLength < 0 || validLength + RECORD_HEADER_SIZE + payloadLength > size)
+                {
+                    break;
+                }
+
+                MappedByteBuffer payload = channel.map(FileChannel.MapMode.READ_ONLY, validLength + RECORD_HEADER_SIZE, payloadLength);
+
+                if (checksum(payload) != checksum)
+                {
+                    break;
+                }
+
+                if (type == RECORD_CLEAR)
+                {
+                    latestRecords.clear();
+                    previousRecords.clear();
+                }
+                else
+                {
+                    DataInputStream input = new DataInputStream(new ByteBufferInputStream(payload.duplicate()));
+                    String modelId = input.readUTF();
+
+                    if (type == RECORD_PUT)
+                    {
+                        int version = input.readInt();
+                        StoredRecord latestRecord = latestRecords.get(modelId);
+
+                        if (latestRecord != null && version <= latestRecord.version)
+                        {
+                            Logger.warn("Model store journal has version [{}] of model id [{}] after version [{}], it is skipped",
+                                    version, modelId, latestRecord.version);
+                        }
+                        else
+                        {
+                            replaceRecord(latestRecords, previousRecords, modelId,
+                                    new StoredRecord(modelId, version, validLength, RECORD_HEADER_SIZE + payloadLength, payload));
+                        }
+                    }
+                    else if (type == RECORD_ROLLBACK)
+                    {
+                        int version = input.readInt();
+                        StoredRecord previousRecord = previousRecords.get(modelId);
+
+                        if (previousRecord == null || previousRecord.version != version)
+                        {
+                            Logger.warn("Model store journal has a rollback of model id [{}] to version [{}] which is not its previous version",
+                                    modelId, version);
+                        }
+                        else
+                        {
+                            replaceRecord(latestRecords, previousRecords, modelId, previousRecord);
+                        }
+                    }
+                    else
+                    {
+                        latestRecords.remove(modelId);
+                        previousRecords.remove(modelId);
+                    }
+                }
+
+                validLength += RECORD_HEADER_SIZE + payloadLength;
+            }
+
+            if (validLength < size)
+            {
+                Logger.warn("Model store journal has [{}] unreadable trailing bytes which will be discarded", size - validLength);
+            }
+
+            restoreInParallel(new ArrayList<>(latestRecords.values()));
+
+            compact(channel, latestRecords, validLength);
+        }
+
+        Logger.info("[{}] models restored from model store in [{}] ms", latestRecords.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Activates the record of a model and keeps the record it replaces as previous version for a later rollback.
+     */
+    private static void replaceRecord(Map<String, StoredRecord> latestRecords, Map<String, StoredRecord> previousRecords,
+                                      String modelId, StoredRecord record)
+    {
+        StoredRecord replacedRecord = latestRecords.remove(modelId);
+        latestRecords.put(modelId, record);
+
+        if (replacedRecord == null)
+        {
+            previousRecords.remove(modelId);
+        }
+        else
+        {
+            previousRecords.put(modelId, replacedRecord);
+        }
+    }
+
+    private void restoreInParallel(List<StoredRecord> records)
+    {
+        ExecutorService restorePool = Executors.newFixedThreadPool(
+                configuration.getInt("store.restoreParallelism", Runtime.getRuntime().availableProcessors()));
+
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>(records.size());
+
+            for (StoredRecord record : records)
+            {
+                futures.add(restorePool.submit(() -> restoreRecord(record)));
+            }
+
+            for (Future<?> future : futures)
+            {
+                future.get();
+            }
+        } catch (Exception e)
+        {
+            Logger.error(e, "Exception during restore of models from model store");
+        } finally
+        {
+            restorePool.shutdown();
+        }
+    }
+
+    private void restoreRecord(StoredRecord record)
+    {
+        try
+        {
+            DataInputStream input = new DataInputStream(new ByteBufferInputStream(record.payload.duplicate()));
+
+            String modelId = input.readUTF();
+            int version = input.readInt();
+            String filename = input.readBoolean() ? input.readUTF() : null;
+
+            Map<String, String> additionalParameters = null;
+            int parameterCount = input.readInt();
+
+            if (parameterCount >= 0)
+            {
+                additionalParameters = new LinkedHashMap<>();
+
+                for (int i = 0; i < parameterCount; i++)
+                {
+                    additionalParameters.put(input.readUTF(), input.readUTF());
+                }
+            }
+
+            byte[] pmmlContent = new byte[input.readInt()];
+            input.readFully(pmmlContent);
+            byte[] snapshot = new byte[input.readInt()];
+            input.readFully(snapshot);
+
+            DetailedModelContent content;
+
+            ModelSource source = ModelSource.of(filename, pmmlContent);
+            String contentHash = pmmlContent.length == 0 ? null : modelLoaderService.hash(source);
+
+            try
+            {
+                content = modelLoaderService.loadSnapshot(modelId, filename, snapshot, contentHash, additionalParameters);
+            } catch (Exception e)
+            {
+                content = modelLoaderService.load(modelId, source, additionalParameters);
+            }
+
+            content.setVersion(version);
+            modelHolderService.restore(modelId, content);
+        } catch (Exception e)
+        {
+            Logger.error(e, "Model id [{}] could not be restored from model store", record.modelId);
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the latest record of each model when most of it is made of stale records.
+     */
+    private void compact(FileChannel channel, Map<String, StoredRecord> latestRecords, long validLength) throws IOException
+    {
+        long liveLength = latestRecords.values().stream().mapToLong(record -> record.length).sum();
+
+        if (validLength == channel.size() && liveLength * 2 >= validLength)
+        {
+            return;
+        }
+
+        Path compactedPath = journalPath.resolveSibling(JOURNAL_FILENAME + ".compacted");
+
+        try (FileChannel compacted = FileChannel.open(compactedPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            for (StoredRecord record : latestRecords.values())
+            {
+                long transferred = 0;
+
+                while (transferred < record.length)
+                {
+                    transferred += channel.transferTo(record.offset + transferred, record.length - transferred, compacted);
+                }
+            }
+            compacted.force(true);
+        }
+
+        Files.move(compactedPath, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Logger.info("Model store journal compacted from [{}] to [{}] bytes", validLength, liveLength);
+    }
+
+    private synchronized void append(byte type, byte[] payload) throws IOException
+    {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(RECORD_MAGIC);
+        record.put(type);
+        record.putInt(payload.length);
+        record.putLong(checksum(ByteBuffer.wrap(payload)));
+        record.put(payload);
+        record.flip();
+
+        write(record);
+    }
+
+    /**
+     * Appends a deploy record while streaming the PMML from its source, so that large models are never copied into a
+     * single payload buffer. The source is read twice, once for the checksum in the record header and once for writing.
+     */
+    private synchronized void appendPut(String modelId, DetailedModelContent content, ModelSource source, byte[] snapshot) throws IOException
+    {
+        byte[] metadata = encodeMetadata(modelId, content);
+
+        if (source.size() > Integer.MAX_VALUE)
+        {
+            throw new IOException("Model is too large for the model store: " + source.size() + " bytes");
+        }
+
+        int pmmlLength = (int) source.size();
+        long payloadLength = metadata.length + 4L + pmmlLength + 4L + snapshot.length;
+
+        if (payloadLength > Integer.MAX_VALUE)
+        {
+            throw new IOException("Model record is too large for the model store: " + payloadLength + " bytes");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(metadata);
+        crc.update(intBytes(pmmlLength));
+        copy(source, crc::update);
+        crc.update(intBytes(snapshot.length));
+        crc.update(snapshot);
+
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        header.putInt(RECORD_MAGIC);
+        header.put(RECORD_PUT);
+        header.putInt((int) payloadLength);
+        header.putLong(crc.getValue());
+        header.flip();
+
+        long recordPosition = journal.size();
+
+        try
+        {
+            write(header);
+            write(ByteBuffer.wrap(metadata));
+            write(ByteBuffer.wrap(intBytes(pmmlLength)));
+            copy(source, (bytes, offset, length) -> write(ByteBuffer.wrap(bytes, offset, length)));
+            write(ByteBuffer.wrap(intBytes(snapshot.length)));
+            write(ByteBuffer.wrap(snapshot));
+        } catch (IOException e)
+        {
+            journal.truncate(recordPosition);
+            throw e;
+        }
+    }
+
+    private static byte[] encodeModelId(String modelId) throws IOException
+    {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        new DataOutputStream(payload).writeUTF(modelId);
+        return payload.toByteArray();
+    }
+
+    private byte[] encodeMetadata(String modelId, DetailedModelContent content) throws IOException
+    {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(payload);
+
+        output.writeUTF(modelId);
+        output.writeInt(content.getVersion());
+        output.writeBoolean(content.getFilename() != null);
+
+        if (content.getFilename() != null)
+        {
+            output.writeUTF(content.getFilename());
+        }
+
+        Map<String, String> additionalParameters = content.getAdditionalParameters();
+        output.writeInt(additionalParameters == null ? -1 : additionalParameters.size());
+
+        if (additionalParameters != null)
+        {
+            for (Map.Entry<String, String> parameter : additionalParameters.entrySet())
+            {
+                output.writeUTF(parameter.getKey());
+                output.writeUTF(parameter.getValue() == null ? "" : parameter.getValue());
+            }
+        }
+
+        output.flush();
+
+        return payload.toByteArray();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            journal.write(buffer);
+        }
+    }
+
+    private static void copy(ModelSource source, ChunkConsumer consumer) throws IOException
+    {
+        byte[] chunk = new byte[COPY_CHUNK_SIZE];
+
+        try (InputStream inputStream = source.open())
+        {
+            int read;
+
+            while ((read = inputStream.read(chunk)) != -1)
+            {
+                consumer.accept(chunk, 0, read);
+            }
+        }
+    }
+
+    private static byte[] intBytes(int value)
+    {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    private static long checksum(ByteBuffer buffer)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return crc.getValue();
+    }
+
+    private void close()
+    {
+        try
+        {
+            writer.shutdown();
+
+            if (!writer.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            {
+                Logger.warn("Model store writer did not finish pending writes in time");
+            }
+
+            journal.force(true);
+            journal.close();
+        } catch (Exception e)
+        {
+            Logger.error(e, "Exception during closing of model store");
+        }
+    }
+
+    private interface ChunkConsumer
+    {
+        void accept(byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    private static class StoredRecord
+    {
+        private final String modelId;
+        private final int version;
+        private final long offset;
+        private final long length;
+        private final ByteBuffer payload;
+
+        StoredRecord(String modelId, int version, long offset, long length, ByteBuffer payload)
+        {
+            this.modelId = modelId;
+            this.version = version;
+            this.offset = offset;
+            this.length = length;
+            this.payload = payload;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length)
+        {
+            if (!buffer.hasRemaining())
+            {
+                return -1;
+            }
+
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
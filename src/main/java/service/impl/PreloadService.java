@@ -0,0 +1,209 @@
+package service.impl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import domain.ModelSource;
+import domain.PreloadStatus;
+import org.pmw.tinylog.Logger;
+import org.rapidoid.annotation.Service;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deploys all models of a directory when the application starts, if a preload path is configured. Every .xml and
+ * .pmml file is deployed with its name without extension as model id, and a json file with the same name, such as
+ * {@code churn.json} next to {@code churn.pmml}, holds its additional parameters as a json object.
+ * Models are parsed and verified in parallel on a pool of preloader threads while the application is already serving
+ * requests, and the application is ready once all of them are done. In cluster mode, only the model ids owned by
+ * this node are preloaded.
+ */
+@Service
+public class PreloadService
+{
+    private static final String SIDECAR_EXTENSION = ".json";
+
+    private ConfigurationService configuration;
+
+    private DeploymentService deploymentService;
+
+    private ClusterService clusterService;
+
+    private ObjectMapper objectMapper;
+
+    private volatile PreloadStatus status;
+
+    @Inject
+    public PreloadService(ConfigurationService configuration, DeploymentService deploymentService, ClusterService clusterService)
+    {
+        this.configuration = configuration;
+        this.deploymentService = deploymentService;
+        this.clusterService = clusterService;
+    }
+
+    @PostConstruct
+    private void initialize()
+    {
+        String path = configuration.getString("preload.path", "");
+
+        status = new PreloadStatus(path.isEmpty() ? null : path);
+        objectMapper = new ObjectMapper();
+
+        if (path.isEmpty())
+        {
+            status.finished(0);
+            return;
+        }
+
+        Thread preloader = new Thread(() -> preload(Paths.get(path)), "model-preloader");
+        preloader.setDaemon(true);
+        preloader.start();
+    }
+
+    public boolean isReady()
+    {
+        return status.isReady();
+    }
+
+    public PreloadStatus getStatus()
+    {
+        return status;
+    }
+
+    private void preload(Path directory)
+    {
+        long start = System.currentTimeMillis();
+
+        try
+        {
+            Map<String, Path> modelIdToFileMap = listModelFiles(directory);
+            List<Map.Entry<String, Path>> ownedModels = new ArrayList<>(modelIdToFileMap.size());
+
+            for (Map.Entry<String, Path> entry : modelIdToFileMap.entrySet())
+            {
+                if (clusterService.isHandledLocally(entry.getKey(), false))
+                {
+                    ownedModels.add(entry);
+                }
+            }
+
+            status.started(ownedModels.size(), modelIdToFileMap.size() - ownedModels.size());
+            preloadInParallel(ownedModels);
+        } catch (IOException e)
+        {
+            Logger.error(e, "Models could not be preloaded from [{}]", directory);
+        } finally
+        {
+            status.finished(System.currentTimeMillis() - start);
+        }
+
+        Logger.info("[{}] models preloaded and [{}] failed from [{}] in [{}] ms",
+                status.getPreloadedCount(), status.getFailedCount(), directory, status.getDurationMillis());
+    }
+
+    private Map<String, Path> listModelFiles(Path directory) throws IOException
+    {
+        Map<String, Path> modelIdToFileMap = new TreeMap<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, Files::isRegularFile))
+        {
+            for (Path file : files)
+            {
+                String modelId = DeploymentService.modelIdOf(file.getFileName().toString());
+
+                if (modelId == null)
+                {
+                    continue;
+                }
+
+                Path previous = modelIdToFileMap.put(modelId, file);
+
+                if (previous != null)
+                {
+                    Logger.warn("Model id [{}] has more than one model file in [{}], only one of them is preloaded", modelId, directory);
+                }
+            }
+        }
+        return modelIdToFileMap;
+    }
+
+    private void preloadInParallel(List<Map.Entry<String, Path>> models)
+    {
+        AtomicInteger threadCount = new AtomicInteger();
+
+        ExecutorService preloadPool = Executors.newFixedThreadPool(
+                Math.max(1, configuration.getInt("preload.parallelism", Runtime.getRuntime().availableProcessors())), runnable -> {
+                    Thread thread = new Thread(runnable, "model-preloader-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>(models.size());
+
+            for (Map.Entry<String, Path> model : models)
+            {
+                futures.add(preloadPool.submit(() -> preloadModel(model.getKey(), model.getValue())));
+            }
+
+            for (Future<?> future : futures)
+            {
+                future.get();
+            }
+        } catch (Exception e)
+        {
+            Logger.error(e, "Exception during preload of models");
+        } finally
+        {
+            preloadPool.shutdown();
+        }
+    }
+
+    private void preloadModel(String modelId, Path file)
+    {
+        long startNanos = System.nanoTime();
+
+        try
+        {
+            Map<String, String> additionalParameters = readSidecar(file.resolveSibling(modelId + SIDECAR_EXTENSION));
+
+            deploymentService.deploy(modelId, ModelSource.of(file.getFileName().toString(), Files.readAllBytes(file)), additionalParameters, null, true);
+            status.preloaded();
+
+            Logger.info("Model id [{}] preloaded from [{}] in [{}] ms", modelId, file, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        } catch (Exception e)
+        {
+            status.failed();
+            Logger.error(e, "Model id [{}] could not be preloaded from [{}] after [{}] ms", modelId, file,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        }
+    }
+
+    private Map<String, String> readSidecar(Path sidecar) throws IOException
+    {
+        if (!Files.isRegularFile(sidecar))
+        {
+            return null;
+        }
+
+        return objectMapper.readValue(Files.readAllBytes(sidecar), new TypeReference<LinkedHashMap<String, String>>()
+        {
+        });
+    }
+}
@@ -0,0 +1,252 @@
+package service.impl;
+
+import domain.ModelBindingPlan;
+import domain.ModelInputFields;
+import engine.FlatTreeEnsemble;
+import engine.ModelSchema;
+import engine.ScorerCompiler;
+import engine.ScoringEngine;
+import engine.UnsupportedModelException;
+import org.dmg.pmml.SimplePredicate;
+import org.dmg.pmml.VisitorAction;
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.model.visitors.AbstractVisitor;
+import org.pmw.tinylog.Logger;
+import org.rapidoid.annotation.Service;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Creates the scoring engine of a model when it is loaded, if engines are enabled and the model is supported.
+ * Before an engine is used, its results are compared with the ones of the evaluator on generated inputs, which are
+ * taken around the split points of the model and at random. Models whose engine gives a different result for any
+ * of them are scored by the evaluator only.
+ */
+@Service
+public class ScoringEngineService
+{
+    private static final int DEFAULT_SELF_CHECK_SAMPLES = 256;
+    private static final double MAX_RELATIVE_DIFFERENCE = 1e-9;
+    private static final long SELF_CHECK_SEED = 20170421L;
+
+    private ConfigurationService configuration;
+
+    private ScoringService scoringService;
+
+    private boolean flatten;
+
+    private boolean compile;
+
+    private int selfCheckSamples;
+
+    @Inject
+    public ScoringEngineService(ConfigurationService configuration, ScoringService scoringService)
+    {
+        this.configuration = configuration;
+        this.scoringService = scoringService;
+    }
+
+    @PostConstruct
+    private void initialize()
+    {
+        flatten = configuration.getBoolean("engine.flatten", false);
+        compile = configuration.getBoolean("engine.compile", false);
+        selfCheckSamples = configuration.getInt("engine.selfCheckSamples", DEFAULT_SELF_CHECK_SAMPLES);
+    }
+
+    /**
+     * Returns the engine of the model, or null if it is scored by the evaluator. Tree models and ensembles of trees
+     * are flattened if flattening is enabled. Other models, and trees which cannot be flattened, are compiled if
+     * compilation is enabled.
+     */
+    public ScoringEngine create(Evaluator evaluator, ModelBindingPlan bindingPlan)
+    {
+        if (!flatten && !compile)
+        {
+            return null;
+        }
+
+        long start = System.nanoTime();
+
+        try
+        {
+            ModelSchema schema = ModelSchema.of(evaluator, bindingPlan);
+            ScoringEngine engine = null;
+
+            if (flatten && FlatTreeEnsemble.isTreeBased(schema.getModel()))
+            {
+                engine = flatten(schema, evaluator);
+            }
+
+            if (engine == null && compile)
+            {
+                engine = ScorerCompiler.compile(schema);
+            }
+
+            if (engine == null || !selfCheck(engine, schema, evaluator, bindingPlan))
+            {
+                return null;
+            }
+
+            Logger.info("Model [{}] is {} in [{}] ms", evaluator.getSummary(), engine.getName(), (System.nanoTime() - start) / 1000000);
+
+            return engine;
+        } catch (UnsupportedModelException e)
+        {
+            Logger.info("Model [{}] is scored by the evaluator: [{}]", evaluator.getSummary(), e.getMessage());
+        } catch (RuntimeException e)
+        {
+            Logger.warn(e, "Exception during compilation of model [{}], it is scored by the evaluator", evaluator.getSummary());
+        }
+        return null;
+    }
+
+    private ScoringEngine flatten(ModelSchema schema, Evaluator evaluator)
+    {
+        try
+        {
+            return FlatTreeEnsemble.of(schema);
+        } catch (UnsupportedModelException e)
+        {
+            Logger.info("Model [{}] cannot be flattened: [{}]", evaluator.getSummary(), e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean selfCheck(ScoringEngine engine, ModelSchema schema, Evaluator evaluator, ModelBindingPlan bindingPlan)
+    {
+        String[] activeFieldKeys = bindingPlan.getActiveFieldKeys();
+        String targetFieldKey = bindingPlan.getTargetFieldKeys()[0];
+        List<List<Double>> splitPoints = splitPointsOf(schema);
+        Random random = new Random(SELF_CHECK_SEED);
+
+        for (int sample = 0; sample < selfCheckSamples; sample++)
+        {
+            double[] values = new double[activeFieldKeys.length];
+            Map<String, Object> fields = new HashMap<>(activeFieldKeys.length * 2);
+
+            for (int i = 0; i < values.length; i++)
+            {
+                values[i] = sampleValue(splitPoints.get(i), random);
+                fields.put(activeFieldKeys[i], values[i]);
+            }
+
+            Object predicted = engine.score(values);
+
+            if (predicted == null)
+            {
+                continue;
+            }
+
+            ModelInputFields inputFields = new ModelInputFields();
+            inputFields.setFields(fields);
+
+            Object interpreted;
+
+            try
+            {
+                interpreted = scoringService.interpret(evaluator, bindingPlan, inputFields).get(targetFieldKey);
+            } catch (RuntimeException e)
+            {
+                interpreted = e;
+            }
+
+            if (!matches(predicted, interpreted))
+            {
+                Logger.warn("Model [{}] predicts [{}] when {} instead of [{}] for input fields [{}], it is scored by the evaluator",
+                        evaluator.getSummary(), predicted, engine.getName(), interpreted, fields);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(Object predicted, Object interpreted)
+    {
+        if (Objects.equals(predicted, interpreted))
+        {
+            return true;
+        }
+
+        if (predicted instanceof Double && interpreted instanceof Double)
+        {
+            double expected = (Double) interpreted;
+            double actual = (Double) predicted;
+
+            return Math.abs(actual - expected) <= MAX_RELATIVE_DIFFERENCE * Math.max(1.0, Math.abs(expected));
+        }
+        return false;
+    }
+
+    /**
+     * Takes a split point of the field, or its neighbouring values, most of the time, and a random value in the
+     * range of the split points otherwise.
+     */
+    private static double sampleValue(List<Double> splitPoints, Random random)
+    {
+        double min = splitPoints.isEmpty() ? -10.0 : splitPoints.get(0);
+        double max = splitPoints.isEmpty() ? 10.0 : splitPoints.get(0);
+
+        for (double splitPoint : splitPoints)
+        {
+            min = Math.min(min, splitPoint);
+            max = Math.max(max, splitPoint);
+        }
+
+        int choice = random.nextInt(splitPoints.isEmpty() ? 2 : 5);
+
+        switch (choice)
+        {
+            case 0:
+                return Math.rint(min - 1.0 + random.nextDouble() * (max - min + 2.0));
+            case 1:
+                return min - 1.0 + random.nextDouble() * (max - min + 2.0);
+            case 2:
+                return splitPoints.get(random.nextInt(splitPoints.size()));
+            case 3:
+                return Math.nextUp(splitPoints.get(random.nextInt(splitPoints.size())));
+            default:
+                return Math.nextDown(splitPoints.get(random.nextInt(splitPoints.size())));
+        }
+    }
+
+    private static List<List<Double>> splitPointsOf(ModelSchema schema)
+    {
+        List<List<Double>> splitPoints = new ArrayList<>(schema.getActiveFieldCount());
+
+        for (int i = 0; i < schema.getActiveFieldCount(); i++)
+        {
+            splitPoints.add(new ArrayList<>());
+        }
+
+        new AbstractVisitor()
+        {
+            @Override
+            public VisitorAction visit(SimplePredicate simplePredicate)
+            {
+                try
+                {
+                    double value = schema.parseDouble(simplePredicate.getValue());
+
+                    if (Double.isFinite(value))
+                    {
+                        splitPoints.get(schema.indexOf(simplePredicate.getField())).add(value);
+                    }
+                } catch (UnsupportedModelException e)
+                {
+                    // predicates which cannot be scored by an engine have been rejected already
+                }
+                return super.visit(simplePredicate);
+            }
+        }.applyTo(schema.getModel());
+
+        return splitPoints;
+    }
+}
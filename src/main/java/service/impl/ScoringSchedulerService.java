@@ -0,0 +1,179 @@
+package service.impl;
+
+import exception.DeadlineExceededException;
+import exception.ScoringException;
+import exception.ScoringRejectedException;
+import org.pmw.tinylog.Logger;
+import org.rapidoid.annotation.Service;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs scoring requests on a dedicated pool of scorer threads with a bounded queue, if it is enabled. A request which
+ * does not fit into the queue is rejected right away instead of waiting behind all others.
+ * Requests may have a deadline, after which the client does not wait for the result anymore. Requests whose deadline
+ * has passed are dropped before evaluation, and the calling thread stops waiting for them when it is reached.
+ * Deadlines are honored when the scheduler is disabled as well, in which case requests are scored on the calling thread.
+ */
+@Service
+public class ScoringSchedulerService
+{
+    private static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    private ConfigurationService configuration;
+
+    private boolean enabled;
+
+    private long defaultTimeoutMillis;
+
+    private ThreadPoolExecutor scoringExecutor;
+
+    private LongAdder shedCount;
+
+    private LongAdder expiredCount;
+
+    @Inject
+    public ScoringSchedulerService(ConfigurationService configuration)
+    {
+        this.configuration = configuration;
+    }
+
+    @PostConstruct
+    private void initialize()
+    {
+        enabled = configuration.getBoolean("scheduler.enabled", false);
+        defaultTimeoutMillis = Math.max(0, configuration.getLong("scheduler.defaultTimeoutMillis", 0));
+        shedCount = new LongAdder();
+        expiredCount = new LongAdder();
+
+        if (!enabled)
+        {
+            return;
+        }
+
+        int threads = Math.max(1, configuration.getInt("scheduler.threads", Runtime.getRuntime().availableProcessors()));
+        int queueSize = Math.max(1, configuration.getInt("scheduler.queueSize", DEFAULT_QUEUE_SIZE));
+
+        AtomicInteger threadCount = new AtomicInteger();
+
+        scoringExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "scorer-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+
+        Logger.info("Scoring scheduler started with [{}] threads and a queue of [{}] requests", threads, queueSize);
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Runs the scoring and returns its result. The deadline is the given number of milliseconds after the request
+     * has been received, or the default timeout if it is not positive. No deadline applies if both are not positive.
+     */
+    public <T> T execute(String modelId, Supplier<T> scoring, long receivedNanos, long timeoutMillis)
+    {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis > 0 ? timeoutMillis : defaultTimeoutMillis);
+
+        if (!enabled)
+        {
+            checkDeadline(modelId, receivedNanos, timeoutNanos);
+            return scoring.get();
+        }
+
+        Future<T> result;
+
+        try
+        {
+            result = scoringExecutor.submit(() -> {
+                checkDeadline(modelId, receivedNanos, timeoutNanos);
+                return scoring.get();
+            });
+        } catch (RejectedExecutionException e)
+        {
+            shedCount.increment();
+            Logger.debug("Scoring request for model id [{}] is rejected because the scoring queue is full", modelId);
+            throw new ScoringRejectedException("Scoring queue is full");
+        }
+
+        try
+        {
+            if (timeoutNanos <= 0)
+            {
+                return result.get();
+            }
+            return result.get(timeoutNanos - (System.nanoTime() - receivedNanos), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e)
+        {
+            result.cancel(false);
+            expiredCount.increment();
+            throw new DeadlineExceededException("Deadline of scoring request exceeded");
+        } catch (InterruptedException e)
+        {
+            result.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new ScoringException("Scoring request is interrupted", e);
+        } catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ScoringException("Exception during scoring", e.getCause());
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting for a scorer thread.
+     */
+    public int getQueueDepth()
+    {
+        return enabled ? scoringExecutor.getQueue().size() : 0;
+    }
+
+    public int getActiveThreadCount()
+    {
+        return enabled ? scoringExecutor.getActiveCount() : 0;
+    }
+
+    /**
+     * Returns the number of requests rejected because the queue was full.
+     */
+    public long getShedCount()
+    {
+        return shedCount.sum();
+    }
+
+    /**
+     * Returns the number of requests which were dropped or abandoned because their deadline had passed.
+     */
+    public long getExpiredCount()
+    {
+        return expiredCount.sum();
+    }
+
+    private void checkDeadline(String modelId, long receivedNanos, long timeoutNanos)
+    {
+        if (timeoutNanos > 0 && System.nanoTime() - receivedNanos >= timeoutNanos)
+        {
+            expiredCount.increment();
+            Logger.debug("Scoring request for model id [{}] is dropped because its deadline has passed", modelId);
+            throw new DeadlineExceededException("Deadline of scoring request exceeded");
+        }
+    }
+}
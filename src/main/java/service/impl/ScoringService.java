@@ -0,0 +1,190 @@
+package service.impl;
+
+import domain.DetailedModelContent;
+import domain.ModelBindingPlan;
+import domain.ModelInputFields;
+import domain.ModelInputParser;
+import domain.ScoringResultCache;
+import engine.ScoringEngine;
+import org.dmg.pmml.FieldName;
+import org.jpmml.evaluator.Computable;
+import org.jpmml.evaluator.Evaluator;
+import org.jpmml.evaluator.FieldValue;
+import org.jpmml.evaluator.InputField;
+import org.pmw.tinylog.Logger;
+import org.rapidoid.annotation.Service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scores input fields with a loaded model, independently of whether the model is the one deployed under its id.
+ * Models with a scoring engine are scored by it whenever the input fields allow, and by their evaluator otherwise.
+ */
+@Service
+public class ScoringService
+{
+    private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0.0);
+
+    /**
+     * Scores the input fields, going through the scoring result cache of the model if it has one.
+     */
+    public Map<String, Object> score(DetailedModelContent detailedModelContent, ModelInputFields inputFields)
+    {
+        ModelBindingPlan bindingPlan = detailedModelContent.getBindingPlan();
+        ScoringResultCache resultCache = detailedModelContent.getResultCache();
+        ScoringEngine scoringEngine = detailedModelContent.getScoringEngine();
+
+        if (scoringEngine != null)
+        {
+            Map<String, Object> result = scoreWithEngine(scoringEngine, bindingPlan, inputFields);
+
+            if (result != null)
+            {
+                return result;
+            }
+        }
+
+        ModelBindingPlan.EvaluationArguments arguments = prepareEvaluationArgs(bindingPlan, inputFields, true);
+
+        if (resultCache == null)
+        {
+            return score(detailedModelContent.getEvaluator(), bindingPlan, arguments);
+        }
+
+        List<FieldValue> cacheKey = arguments.toKey();
+        Map<String, Object> result = resultCache.get(cacheKey);
+
+        if (result == null)
+        {
+            result = Collections.unmodifiableMap(score(detailedModelContent.getEvaluator(), bindingPlan, arguments));
+            resultCache.put(cacheKey, result);
+        }
+        return result;
+    }
+
+    /**
+     * Scores the input fields like {@link #score}, with the scoring engine of the model if it has one, but bypassing
+     * its scoring result cache and without warning about missing input fields. Meant for scorings which are not
+     * requested by clients, such as warm-up, which has to warm up the same code that serves the requests.
+     */
+    public Map<String, Object> evaluate(DetailedModelContent detailedModelContent, ModelInputFields inputFields)
+    {
+        ModelBindingPlan bindingPlan = detailedModelContent.getBindingPlan();
+        ScoringEngine scoringEngine = detailedModelContent.getScoringEngine();
+
+        if (scoringEngine != null)
+        {
+            Map<String, Object> result = scoreWithEngine(scoringEngine, bindingPlan, inputFields);
+
+            if (result != null)
+            {
+                return result;
+            }
+        }
+
+        return score(detailedModelContent.getEvaluator(), bindingPlan, prepareEvaluationArgs(bindingPlan, inputFields, false));
+    }
+
+    /**
+     * Scores the input fields with the evaluator, without the scoring engine and the result cache of a model.
+     * Meant for checking the results of scoring engines.
+     */
+    public Map<String, Object> interpret(Evaluator evaluator, ModelBindingPlan bindingPlan, ModelInputFields inputFields)
+    {
+        return score(evaluator, bindingPlan, prepareEvaluationArgs(bindingPlan, inputFields, false));
+    }
+
+    /**
+     * Scores the input fields with the scoring engine, bypassing the result cache because the engine is cheaper than
+     * a lookup. Returns null if a value is missing, is not a number, or is compared differently by the evaluator,
+     * and if the engine has no prediction, so that the input fields are scored by the evaluator instead.
+     */
+    private Map<String, Object> scoreWithEngine(ScoringEngine scoringEngine, ModelBindingPlan bindingPlan, ModelInputFields inputFields)
+    {
+        String[] activeFieldKeys = bindingPlan.getActiveFieldKeys();
+        Map<String, Object> fields = inputFields.getFields();
+        ModelInputParser.ParsedFields parsedFields = fields instanceof ModelInputParser.ParsedFields
+                && ((ModelInputParser.ParsedFields) fields).isParsedFor(bindingPlan) ? (ModelInputParser.ParsedFields) fields : null;
+        double[] values = bindingPlan.acquireNumericInputs();
+
+        for (int i = 0; i < values.length; i++)
+        {
+            Object inputValue = parsedFields == null ? fields.get(activeFieldKeys[i]) : parsedFields.valueAt(i);
+
+            if (!(inputValue instanceof Double || inputValue instanceof Integer || inputValue instanceof Long))
+            {
+                return null;
+            }
+
+            double value = ((Number) inputValue).doubleValue();
+
+            if (Double.isNaN(value) || Double.doubleToRawLongBits(value) == NEGATIVE_ZERO_BITS)
+            {
+                return null;
+            }
+            values[i] = value;
+        }
+
+        Object targetFieldValue = scoringEngine.score(values);
+
+        if (targetFieldValue == null)
+        {
+            return null;
+        }
+
+        Map<String, Object> result = new HashMap<>(2);
+        result.put(bindingPlan.getTargetFieldKeys()[0], targetFieldValue);
+        return result;
+    }
+
+    private ModelBindingPlan.EvaluationArguments prepareEvaluationArgs(ModelBindingPlan bindingPlan, ModelInputFields inputFields,
+                                                                       boolean warnMissingFields)
+    {
+        ModelBindingPlan.EvaluationArguments arguments = bindingPlan.newArguments();
+
+        InputField[] activeFields = bindingPlan.getActiveFields();
+        String[] activeFieldKeys = bindingPlan.getActiveFieldKeys();
+        Map<String, Object> fields = inputFields.getFields();
+        ModelInputParser.ParsedFields parsedFields = fields instanceof ModelInputParser.ParsedFields
+                && ((ModelInputParser.ParsedFields) fields).isParsedFor(bindingPlan) ? (ModelInputParser.ParsedFields) fields : null;
+
+        for (int i = 0; i < activeFields.length; i++)
+        {
+            Object inputValue = parsedFields == null ? fields.get(activeFieldKeys[i]) : parsedFields.valueAt(i);
+
+            if (inputValue == null && warnMissingFields)
+            {
+                Logger.warn("Model value not found for the following field [{}]", activeFieldKeys[i]);
+            }
+
+            arguments.set(i, activeFields[i].prepare(inputValue));
+        }
+        return arguments;
+    }
+
+    private Map<String, Object> score(Evaluator evaluator, ModelBindingPlan bindingPlan, Map<FieldName, FieldValue> arguments)
+    {
+        Map<FieldName, ?> evaluationResultFromEvaluator = evaluator.evaluate(arguments);
+
+        FieldName[] targetFieldNames = bindingPlan.getTargetFieldNames();
+        String[] targetFieldKeys = bindingPlan.getTargetFieldKeys();
+
+        Map<String, Object> result = new HashMap<>((targetFieldNames.length * 4 + 2) / 3);
+
+        for (int i = 0; i < targetFieldNames.length; i++)
+        {
+            Object targetFieldValue = evaluationResultFromEvaluator.get(targetFieldNames[i]);
+
+            if (targetFieldValue instanceof Computable)
+            {
+                targetFieldValue = ((Computable) targetFieldValue).getResult();
+            }
+
+            result.put(targetFieldKeys[i], targetFieldValue);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,403 @@
+package service.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import domain.CsvRecords;
+import domain.DetailedModelContent;
+import domain.ModelInputFields;
+import domain.RecordScoringResult;
+import exception.ScoringException;
+import org.pmw.tinylog.Logger;
+import org.rapidoid.annotation.Service;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scores newline delimited json or csv records and writes the results in the same format while the input is read.
+ * Records are cut into chunks which are parsed and scored in parallel, and the results are written in input order
+ * as soon as the oldest chunk is done. At most a fixed number of chunks is in flight for every stream, so memory
+ * use does not grow with the number of records.
+ * A json record has the format of a single scoring request. A csv input starts with a header of field names and its
+ * output contains the target fields followed by the success flag and the exception of every record.
+ */
+@Service
+public class StreamScoringService
+{
+    public enum Format
+    {
+        NDJSON("application/x-ndjson"), CSV("text/csv");
+
+        private final String contentType;
+
+        Format(String contentType)
+        {
+            this.contentType = contentType;
+        }
+
+        public String getContentType()
+        {
+            return contentType;
+        }
+    }
+
+    private static final int DEFAULT_CHUNK_SIZE = 256;
+    private static final String[] CSV_STATUS_COLUMNS = {"success", "exceptionType", "exceptionMessage"};
+
+    private ConfigurationService configuration;
+
+    private ScoringService scoringService;
+
+    private AuditLogService auditLogService;
+
+    private ExecutorService streamScoringExecutor;
+
+    private int chunkSize;
+
+    private int maxPendingChunks;
+
+    private ObjectMapper objectMapper;
+
+    private ObjectWriter resultWriter;
+
+    @Inject
+    public StreamScoringService(ConfigurationService configuration, ScoringService scoringService, AuditLogService auditLogService)
+    {
+        this.configuration = configuration;
+        this.scoringService = scoringService;
+        this.auditLogService = auditLogService;
+    }
+
+    @PostConstruct
+    private void initialize()
+    {
+        int parallelism = configuration.getInt("stream.parallelism", Runtime.getRuntime().availableProcessors());
+        chunkSize = Math.max(1, configuration.getInt("stream.chunkSize", DEFAULT_CHUNK_SIZE));
+        maxPendingChunks = Math.max(1, configuration.getInt("stream.maxPendingChunks", parallelism * 2));
+
+        AtomicInteger threadCount = new AtomicInteger();
+
+        streamScoringExecutor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "stream-scorer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        objectMapper = new ObjectMapper();
+        objectMapper.getFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        resultWriter = objectMapper.writerFor(RecordScoringResult.class);
+    }
+
+    /**
+     * Scores all records of the input with the given model and writes the results to the output, flushing it after
+     * every chunk. Records which cannot be parsed or scored get a failed result, the rest of the input is scored
+     * as usual. Returns the number of records.
+     */
+    public long score(String modelId, DetailedModelContent detailedModelContent, byte[] input, Format format, OutputStream out)
+    {
+        long start = System.nanoTime();
+        RecordReader reader = new RecordReader(input, format == Format.CSV);
+        Deque<Future<byte[]>> pendingChunks = new ArrayDeque<>(maxPendingChunks);
+        FailedRecords failedRecords = new FailedRecords();
+        long recordCount = 0;
+
+        try
+        {
+            String[] header = null;
+
+            if (format == Format.CSV)
+            {
+                header = reader.nextCsvRecord();
+
+                if (header == null)
+                {
+                    throw new IllegalArgumentException("Csv input has no header");
+                }
+                writeChunk(out, csvHeaderOf(detailedModelContent));
+            }
+
+            String[] csvHeader = header;
+
+            for (int[] chunk = reader.nextChunk(chunkSize); chunk.length > 0; chunk = reader.nextChunk(chunkSize))
+            {
+                int[] records = chunk;
+                recordCount += records.length / 2;
+
+                pendingChunks.add(streamScoringExecutor.submit(() -> scoreChunk(modelId, detailedModelContent, input, records, format, csvHeader, failedRecords)));
+
+                if (pendingChunks.size() >= maxPendingChunks)
+                {
+                    writeChunk(out, pendingChunks.poll().get());
+                }
+            }
+
+            while (!pendingChunks.isEmpty())
+            {
+                writeChunk(out, pendingChunks.poll().get());
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new ScoringException("Stream scoring is interrupted", e);
+        } catch (ExecutionException | IOException | RuntimeException e)
+        {
+            pendingChunks.forEach(pendingChunk -> pendingChunk.cancel(true));
+            Logger.error(e, "Exception during stream scoring for model id: [{}]", modelId);
+            throw new ScoringException("Exception during stream scoring", e);
+        }
+
+        Logger.info("Stream of [{}] records scored for model id: [{}] in [{}] ms", recordCount, modelId,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        if (failedRecords.count.sum() > 0)
+        {
+            Logger.warn("[{}] records of a stream failed for model id: [{}], the first one with: [{}]", failedRecords.count.sum(), modelId,
+                    failedRecords.first.get().getMessage());
+        }
+
+        return recordCount;
+    }
+
+    private byte[] scoreChunk(String modelId, DetailedModelContent detailedModelContent, byte[] input, int[] records,
+                              Format format, String[] csvHeader, FailedRecords failedRecords) throws IOException
+    {
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream(records.length * 32);
+        String[] targetFieldKeys = detailedModelContent.getBindingPlan().getTargetFieldKeys();
+
+        for (int i = 0; i < records.length; i += 2)
+        {
+            int from = records[i];
+            int to = records[i + 1];
+
+            if (format == Format.CSV)
+            {
+                RecordScoringResult result;
+
+                try
+                {
+                    result = scoreRecord(modelId, detailedModelContent, csvFieldsOf(csvHeader, CsvRecords.parse(input, from, to)), failedRecords);
+                } catch (RuntimeException e)
+                {
+                    result = failure(failedRecords, e);
+                }
+                writeCsvResult(chunk, targetFieldKeys, result);
+            }
+            else
+            {
+                RecordScoringResult result;
+
+                try
+                {
+                    ModelInputFields inputFields = objectMapper.readValue(input, from, to - from, ModelInputFields.class);
+
+                    if (inputFields == null || inputFields.getFields() == null)
+                    {
+                        throw new IllegalArgumentException("Record has no fields");
+                    }
+                    result = scoreRecord(modelId, detailedModelContent, inputFields.getFields(), failedRecords);
+                } catch (IOException | RuntimeException e)
+                {
+                    result = failure(failedRecords, e);
+                }
+                resultWriter.writeValue(chunk, result);
+                chunk.write('\n');
+            }
+        }
+        return chunk.toByteArray();
+    }
+
+    private RecordScoringResult scoreRecord(String modelId, DetailedModelContent detailedModelContent, Map<String, Object> fields,
+                                            FailedRecords failedRecords)
+    {
+        long startNanos = System.nanoTime();
+        ModelInputFields inputFields = new ModelInputFields();
+        inputFields.setFields(fields);
+
+        try
+        {
+            Map<String, Object> result = scoringService.score(detailedModelContent, inputFields);
+            auditLogService.record(modelId, fields, result, null, startNanos);
+
+            return new RecordScoringResult(result);
+        } catch (RuntimeException e)
+        {
+            auditLogService.record(modelId, fields, null, e, startNanos);
+            return failure(failedRecords, e);
+        }
+    }
+
+    /**
+     * Failed records are only counted, so that a stream with many bad records does not flood the log. The count and
+     * the first failure are logged once the stream is scored.
+     */
+    private RecordScoringResult failure(FailedRecords failedRecords, Exception e)
+    {
+        failedRecords.count.increment();
+        failedRecords.first.compareAndSet(null, e);
+        return RecordScoringResult.failure(e);
+    }
+
+    private Map<String, Object> csvFieldsOf(String[] header, List<String> values)
+    {
+        if (values.size() > header.length)
+        {
+            throw new IllegalArgumentException("Record has more values than the csv header");
+        }
+
+        Map<String, Object> fields = new HashMap<>((header.length * 4 + 2) / 3);
+
+        for (int i = 0; i < values.size(); i++)
+        {
+            String value = values.get(i);
+
+            if (!value.isEmpty())
+            {
+                fields.put(header[i], value);
+            }
+        }
+        return fields;
+    }
+
+    private byte[] csvHeaderOf(DetailedModelContent detailedModelContent)
+    {
+        StringBuilder header = new StringBuilder();
+
+        for (String targetFieldKey : detailedModelContent.getBindingPlan().getTargetFieldKeys())
+        {
+            CsvRecords.appendValue(header, targetFieldKey).append(',');
+        }
+        header.append(String.join(",", CSV_STATUS_COLUMNS)).append('\n');
+
+        return header.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void writeCsvResult(ByteArrayOutputStream chunk, String[] targetFieldKeys, RecordScoringResult result) throws IOException
+    {
+        StringBuilder row = new StringBuilder();
+
+        for (String targetFieldKey : targetFieldKeys)
+        {
+            Object value = result.getResult() == null ? null : result.getResult().get(targetFieldKey);
+            CsvRecords.appendValue(row, value).append(',');
+        }
+
+        row.append(result.isSuccess()).append(',');
+        CsvRecords.appendValue(row, result.getExceptionType()).append(',');
+        CsvRecords.appendValue(row, result.getExceptionMessage()).append('\n');
+
+        chunk.write(row.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeChunk(OutputStream out, byte[] chunk) throws IOException
+    {
+        out.write(chunk);
+        out.flush();
+    }
+
+    /**
+     * Cuts the input into records without copying it. Records are separated by line breaks, which are part of the
+     * value when they are quoted in csv. Blank lines are skipped.
+     */
+    private static class FailedRecords
+    {
+        private final LongAdder count = new LongAdder();
+        private final AtomicReference<Exception> first = new AtomicReference<>();
+    }
+
+    private static class RecordReader
+    {
+        private final byte[] input;
+        private final ByteBuffer buffer;
+        private final boolean csv;
+
+        RecordReader(byte[] input, boolean csv)
+        {
+            this.input = input;
+            this.buffer = ByteBuffer.wrap(input);
+            this.csv = csv;
+        }
+
+        /**
+         * Returns start and end offsets of up to the given number of records, two entries per record.
+         */
+        int[] nextChunk(int maxRecords)
+        {
+            int[] records = new int[maxRecords * 2];
+            int count = 0;
+
+            while (count < records.length && nextRecord(records, count))
+            {
+                count += 2;
+            }
+
+            if (count == records.length)
+            {
+                return records;
+            }
+
+            int[] lastRecords = new int[count];
+            System.arraycopy(records, 0, lastRecords, 0, count);
+            return lastRecords;
+        }
+
+        String[] nextCsvRecord()
+        {
+            int[] record = new int[2];
+
+            return nextRecord(record, 0) ? CsvRecords.parse(input, record[0], record[1]).toArray(new String[0]) : null;
+        }
+
+        private boolean nextRecord(int[] records, int index)
+        {
+            while (buffer.hasRemaining())
+            {
+                int from = buffer.position();
+                int to = CsvRecords.skipRecord(buffer, csv);
+
+                if (to > from && input[to - 1] == '\r')
+                {
+                    to--;
+                }
+
+                if (!isBlank(from, to))
+                {
+                    records[index] = from;
+                    records[index + 1] = to;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isBlank(int from, int to)
+        {
+            for (int i = from; i < to; i++)
+            {
+                if (input[i] != ' ' && input[i] != '\t')
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package service.impl;
 
 import com.google.common.base.Strings;
+import domain.BatchModelInputFields;
 import domain.ModelInputFields;
 import org.jpmml.evaluator.Evaluator;
 import org.pmw.tinylog.Logger;
@@ -45,4 +46,13 @@ public class ValidatorService
             throw new IllegalArgumentException("Model input fields are null or empty");
         }
     }
+
+    public void validateBatchModelInputFields(String modelId, BatchModelInputFields batchInputFields)
+    {
+        if (batchInputFields == null || batchInputFields.getRecords() == null || batchInputFields.getRecords().isEmpty())
+        {
+            Logger.error("Batch records are null or empty for model id [{}]", modelId);
+            throw new IllegalArgumentException("Batch records are null or empty");
+        }
+    }
 }
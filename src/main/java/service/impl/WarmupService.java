@@ -0,0 +1,211 @@
+package service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import domain.BatchModelInputFields;
+import domain.DetailedModelContent;
+import domain.ModelInputFields;
+import domain.SampleReservoir;
+import org.pmw.tinylog.Logger;
+import org.rapidoid.annotation.Service;
+import org.rapidoid.io.Upload;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms up new model versions before they take traffic, so that the first requests after a redeploy do not run
+ * on interpreted code and cold caches.
+ * A new version is scored repeatedly with sample inputs, which are either uploaded with the deploy or captured from
+ * recent requests to the same model id, until the average latency of consecutive rounds stops improving.
+ */
+@Service
+public class WarmupService
+{
+    private static final int DEFAULT_CAPTURED_SAMPLES = 32;
+    private static final int DEFAULT_CAPTURE_INTERVAL = 16;
+    private static final long DEFAULT_MAX_MILLIS = 2000;
+    private static final int DEFAULT_MAX_SCORINGS = 20000;
+    private static final double DEFAULT_TOLERANCE = 0.1;
+    private static final int MIN_ROUND_SIZE = 100;
+    private static final int STABLE_ROUNDS = 3;
+
+    private ScoringService scoringService;
+
+    private ConfigurationService configuration;
+
+    private ConcurrentHashMap<String, SampleReservoir> modelIdToSampleReservoirMap;
+
+    private ObjectMapper objectMapper;
+
+    private boolean enabled;
+
+    private int capturedSamples;
+
+    private int captureInterval;
+
+    private long maxNanos;
+
+    private int maxScorings;
+
+    private double tolerance;
+
+    @Inject
+    public WarmupService(ScoringService scoringService, ConfigurationService configuration)
+    {
+        this.scoringService = scoringService;
+        this.configuration = configuration;
+    }
+
+    @PostConstruct
+    private void initialize()
+    {
+        modelIdToSampleReservoirMap = new ConcurrentHashMap<>();
+        objectMapper = new ObjectMapper();
+
+        enabled = configuration.getBoolean("warmup.enabled", true);
+        capturedSamples = configuration.getInt("warmup.capturedSamples", DEFAULT_CAPTURED_SAMPLES);
+        captureInterval = configuration.getInt("warmup.captureInterval", DEFAULT_CAPTURE_INTERVAL);
+        maxNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getLong("warmup.maxMillis", DEFAULT_MAX_MILLIS));
+        maxScorings = configuration.getInt("warmup.maxScorings", DEFAULT_MAX_SCORINGS);
+        tolerance = configuration.getDouble("warmup.tolerance", DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * Keeps the scored input of a deployed model as a candidate warm-up sample for its next version.
+     */
+    public void capture(String modelId, ModelInputFields inputFields)
+    {
+        if (!enabled || capturedSamples <= 0)
+        {
+            return;
+        }
+
+        SampleReservoir reservoir = modelIdToSampleReservoirMap.get(modelId);
+
+        if (reservoir == null)
+        {
+            reservoir = modelIdToSampleReservoirMap.computeIfAbsent(modelId, id -> new SampleReservoir(capturedSamples, captureInterval));
+        }
+
+        reservoir.offer(inputFields);
+    }
+
+    public void forget(String modelId)
+    {
+        modelIdToSampleReservoirMap.remove(modelId);
+    }
+
+    public void forgetAll()
+    {
+        modelIdToSampleReservoirMap.clear();
+    }
+
+    /**
+     * Reads warm-up samples uploaded in the batch scoring format. Returns null if nothing is uploaded.
+     */
+    public List<ModelInputFields> parseSamples(String modelId, Upload upload)
+    {
+        if (upload == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return objectMapper.readValue(upload.content(), BatchModelInputFields.class).getRecords();
+        } catch (IOException e)
+        {
+            Logger.error(e, "Warm-up samples of model id [{}] could not be read", modelId);
+            throw new IllegalArgumentException("Warm-up samples could not be read", e);
+        }
+    }
+
+    /**
+     * Scores the uploaded samples, or the samples captured for the model id if there are none, with the given model
+     * version until its latency is stable. Uploaded samples which cannot be scored fail the warm-up.
+     */
+    public void warmUp(String modelId, DetailedModelContent content, List<ModelInputFields> uploadedSamples)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+
+        boolean uploaded = uploadedSamples != null && !uploadedSamples.isEmpty();
+        List<ModelInputFields> samples = scorableSamples(modelId, content, uploaded ? uploadedSamples : capturedSamplesOf(modelId), uploaded);
+
+        if (samples.isEmpty())
+        {
+            return;
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + maxNanos;
+        int roundSize = Math.max(MIN_ROUND_SIZE, samples.size());
+
+        int scorings = 0;
+        int stableRounds = 0;
+        double previousRoundNanos = Double.NaN;
+
+        while (scorings < maxScorings && stableRounds < STABLE_ROUNDS && System.nanoTime() < deadline)
+        {
+            long roundStart = System.nanoTime();
+
+            for (int i = 0; i < roundSize; i++)
+            {
+                scoringService.evaluate(content, samples.get(i % samples.size()));
+            }
+
+            scorings += roundSize;
+
+            double roundNanos = (System.nanoTime() - roundStart) / (double) roundSize;
+            stableRounds = Math.abs(roundNanos - previousRoundNanos) <= tolerance * previousRoundNanos ? stableRounds + 1 : 0;
+            previousRoundNanos = roundNanos;
+        }
+
+        content.setWarmupScorings(scorings);
+        content.setWarmupMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        Logger.info("Model id [{}] warmed up with [{}] scorings of [{}] samples in [{}] ms", modelId, scorings,
+                samples.size(), content.getWarmupMillis());
+    }
+
+    private List<ModelInputFields> capturedSamplesOf(String modelId)
+    {
+        SampleReservoir reservoir = modelIdToSampleReservoirMap.get(modelId);
+
+        return reservoir == null ? Collections.emptyList() : reservoir.getSamples();
+    }
+
+    /**
+     * Scores every sample once and returns the ones which can be scored. Captured samples which do not fit the new
+     * version are skipped, uploaded samples have to fit.
+     */
+    private List<ModelInputFields> scorableSamples(String modelId, DetailedModelContent content, List<ModelInputFields> samples, boolean uploaded)
+    {
+        List<ModelInputFields> scorableSamples = new ArrayList<>(samples.size());
+
+        for (ModelInputFields sample : samples)
+        {
+            try
+            {
+                scoringService.evaluate(content, sample);
+                scorableSamples.add(sample);
+            } catch (RuntimeException e)
+            {
+                if (uploaded)
+                {
+                    Logger.error(e, "Warm-up sample could not be scored for model id [{}]", modelId);
+                    throw new IllegalArgumentException("Warm-up sample could not be scored: " + e.getMessage(), e);
+                }
+            }
+        }
+        return scorableSamples;
+    }
+}